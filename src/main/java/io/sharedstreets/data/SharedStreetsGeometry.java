@@ -7,10 +7,12 @@ import com.google.protobuf.ByteString;
 import com.jsoniter.annotation.JsonIgnore;
 import io.sharedstreets.data.output.proto.SharedStreetsProto;
 import io.sharedstreets.tools.builder.model.BaseSegment;
+import io.sharedstreets.tools.builder.serialization.SharedStreetsGeometrySerializer;
 import io.sharedstreets.tools.builder.tiles.TilableData;
 import io.sharedstreets.tools.builder.util.geo.Geography;
 import io.sharedstreets.tools.builder.util.geo.TileId;
 import io.sharedstreets.tools.builder.util.UniqueId;
+import org.apache.flink.api.common.typeinfo.TypeInfo;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -19,6 +21,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 
+@TypeInfo(SharedStreetsGeometrySerializer.Factory.class)
 public class SharedStreetsGeometry extends TilableData implements Serializable {
 
     private final static Geography GeoOp = new Geography();
@@ -37,6 +40,10 @@ public class SharedStreetsGeometry extends TilableData implements Serializable {
     @JsonIgnore
     public SharedStreetsOSMMetadata metadata;
 
+    public SharedStreetsGeometry() {
+
+    }
+
     public SharedStreetsGeometry(BaseSegment segment) {
 
         this.geometry = segment.constructGeometry();
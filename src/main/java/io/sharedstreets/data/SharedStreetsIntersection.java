@@ -4,15 +4,18 @@ import com.esri.core.geometry.Point;
 import com.google.protobuf.ByteString;
 import com.jsoniter.annotation.JsonIgnore;
 import io.sharedstreets.data.output.proto.SharedStreetsProto;
+import io.sharedstreets.tools.builder.serialization.SharedStreetsIntersectionSerializer;
 import io.sharedstreets.tools.builder.tiles.TilableData;
 import io.sharedstreets.tools.builder.util.UniqueId;
 import io.sharedstreets.tools.builder.util.geo.TileId;
+import org.apache.flink.api.common.typeinfo.TypeInfo;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
 
+@TypeInfo(SharedStreetsIntersectionSerializer.Factory.class)
 public class SharedStreetsIntersection extends TilableData implements Comparable, Serializable {
 
     public UniqueId id;
@@ -26,6 +26,10 @@ public class SharedStreetsOSMMetadata implements Serializable {
         public Long[] nodeIds;
         public String name;
 
+        public WaySectionMetadata() {
+
+        }
+
         public WaySectionMetadata( WaySection section, boolean storeWaySegmentNames) {
             this.wayId = section.wayId;
 
@@ -92,6 +96,10 @@ public class SharedStreetsOSMMetadata implements Serializable {
         return bytes.toByteArray();
     }
 
+    public SharedStreetsOSMMetadata() {
+
+    }
+
     public SharedStreetsOSMMetadata(SharedStreetsGeometry geometry, BaseSegment segment) {
 
         this.geometryId = geometry.id; // keeping reference for point data
@@ -10,10 +10,12 @@ import io.sharedstreets.data.output.proto.SharedStreetsProto;
 import io.sharedstreets.tools.builder.osm.model.Way;
 import io.sharedstreets.tools.builder.model.BaseSegment;
 import io.sharedstreets.tools.builder.model.WaySection;
+import io.sharedstreets.tools.builder.serialization.SharedStreetsReferenceSerializer;
 import io.sharedstreets.tools.builder.tiles.TilableData;
 import io.sharedstreets.tools.builder.util.UniqueId;
 import io.sharedstreets.tools.builder.util.geo.Geography;
 import io.sharedstreets.tools.builder.util.geo.TileId;
+import org.apache.flink.api.common.typeinfo.TypeInfo;
 
 
 import java.io.ByteArrayOutputStream;
@@ -24,6 +26,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+@TypeInfo(SharedStreetsReferenceSerializer.Factory.class)
 public class SharedStreetsReference extends TilableData implements Serializable {
 
     public static double MAX_LPR_SEGMENT_LENGTH = 15000.0d; // meters
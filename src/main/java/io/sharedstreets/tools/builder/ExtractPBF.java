@@ -0,0 +1,161 @@
+package io.sharedstreets.tools.builder;
+
+import io.sharedstreets.tools.builder.osm.OSMDataStream;
+import io.sharedstreets.tools.builder.osm.model.NodeEntity;
+import io.sharedstreets.tools.builder.osm.model.OSMEntity;
+import io.sharedstreets.tools.builder.osm.model.WayEntity;
+import io.sharedstreets.tools.builder.osm.outputs.OSMPBFOutputFormat;
+import io.sharedstreets.tools.builder.util.geo.FixedPoint;
+import org.apache.commons.cli.*;
+import org.apache.flink.api.common.functions.FlatMapFunction;
+import org.apache.flink.api.common.functions.MapFunction;
+import org.apache.flink.api.common.operators.Order;
+import org.apache.flink.api.java.DataSet;
+import org.apache.flink.api.java.ExecutionEnvironment;
+import org.apache.flink.api.java.functions.KeySelector;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.java.typeutils.GenericTypeInfo;
+import org.apache.flink.core.fs.Path;
+import org.apache.flink.util.Collector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+/**
+ * Write the highways of a PBF file and their nodes to a smaller PBF file, sorted and with locations on ways.
+ *
+ * Builds can start from the extract instead of the full file. Run as the "extract" command of ProcessPBF.
+ */
+public class ExtractPBF {
+
+    static Logger LOG = LoggerFactory.getLogger(ExtractPBF.class);
+
+    public static void main(String[] args) throws Exception {
+
+        // create the command line parser
+        CommandLineParser parser = new DefaultParser();
+
+        // create the Options
+        Options options = new Options();
+
+        options.addOption( OptionBuilder.withLongOpt( "input" )
+                .withDescription( "path to input OSM PBF file, - for the standard input" )
+                .hasArg()
+                .withArgName("INPUT-FILE")
+                .create() );
+
+        options.addOption( OptionBuilder.withLongOpt( "output" )
+                .withDescription( "path to output OSM PBF file (will be created)" )
+                .hasArg()
+                .withArgName("OUTPUT-FILE")
+                .create() );
+
+        ProcessPBF.addStreamOptions(options);
+
+        String inputFile = "";
+
+        String outputFile = "";
+
+        OSMDataStream.Options streamOptions;
+
+        try {
+            // parse the command line arguments
+            CommandLine line = parser.parse( options, args );
+
+            if( line.hasOption( "input" ) ) {
+                inputFile = line.getOptionValue( "input" );
+            }
+
+            if( line.hasOption( "output" ) ) {
+                outputFile = line.getOptionValue( "output" );
+            }
+
+            streamOptions = ProcessPBF.parseStreamOptions(line);
+
+            // the extract keeps the tags of the highways
+            streamOptions.allWayTags = true;
+        }
+        catch( Exception exp ) {
+            System.out.println( "Unexpected exception:" + exp.getMessage() );
+            return;
+        }
+
+        // streamed input is not checked, it may be the standard input or a named pipe
+        if(!streamOptions.streamInput) {
+            File file = new File(inputFile);
+            if(!file.exists()) {
+                System.out.println( "Input file not found: "  + inputFile);
+                return;
+            }
+
+            if(!file.getName().endsWith(".pbf")) {
+                System.out.println( "Input file must end with .pbf: "  + inputFile);
+                return;
+            }
+        }
+
+        if(!outputFile.endsWith(".pbf")) {
+            System.out.println( "Output file must end with .pbf: "  + outputFile);
+            return;
+        }
+
+        if(new File(outputFile).exists()) {
+            System.out.println( "Output file already exists: "  + outputFile);
+            return;
+        }
+
+        final ExecutionEnvironment env = ExecutionEnvironment.getExecutionEnvironment();
+
+        // load osm data from PBF input
+        OSMDataStream dataStream = new OSMDataStream(inputFile, env, streamOptions);
+
+        DataSet<WayEntity> highways = dataStream.getLocatedHighways();
+
+        // nodes of the highways, without their tags
+        DataSet<OSMEntity> nodes = highways
+                .flatMap(new FlatMapFunction<WayEntity, Tuple2<Long, Long>>() {
+                    @Override
+                    public void flatMap(WayEntity value, Collector<Tuple2<Long, Long>> out) throws Exception {
+                        for (int i = 0; i < value.locations.length; i++) {
+                            if (FixedPoint.isValid(value.locations[i]))
+                                out.collect(new Tuple2<>(value.relatedObjects[i].relatedId, value.locations[i]));
+                        }
+                    }
+                })
+                .distinct(0)
+                .map(new MapFunction<Tuple2<Long, Long>, OSMEntity>() {
+                    @Override
+                    public OSMEntity map(Tuple2<Long, Long> value) throws Exception {
+                        NodeEntity node = new NodeEntity();
+                        node.id = value.f0;
+                        node.y = FixedPoint.unpackLat(value.f1);
+                        node.x = FixedPoint.unpackLon(value.f1);
+                        return OSMEntity.of(node);
+                    }
+                }).returns(new GenericTypeInfo<OSMEntity>(OSMEntity.class));
+
+        DataSet<OSMEntity> ways = highways
+                .map(new MapFunction<WayEntity, OSMEntity>() {
+                    @Override
+                    public OSMEntity map(WayEntity value) throws Exception {
+                        return OSMEntity.of(value);
+                    }
+                }).returns(new GenericTypeInfo<OSMEntity>(OSMEntity.class));
+
+        // nodes then ways, by id, written by a single task
+        nodes.union(ways)
+                .sortPartition(new KeySelector<OSMEntity, Tuple2<Integer, Long>>() {
+                    @Override
+                    public Tuple2<Integer, Long> getKey(OSMEntity value) throws Exception {
+                        return new Tuple2<>(value.type.ordinal(), value.getEntity().id);
+                    }
+                }, Order.ASCENDING).setParallelism(1)
+                .output(new OSMPBFOutputFormat(new Path(outputFile))).setParallelism(1);
+
+        env.execute("extract highways of " + inputFile);
+
+        LOG.info("Highways of {} written to {}", inputFile, outputFile);
+    }
+
+}
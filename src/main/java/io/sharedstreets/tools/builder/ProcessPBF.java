@@ -1,6 +1,8 @@
 package io.sharedstreets.tools.builder;
 
 import io.sharedstreets.data.SharedStreetsGeometry;
+import io.sharedstreets.tools.builder.osm.filter.ClipRegion;
+import io.sharedstreets.tools.builder.osm.inputs.OSMPBFStreamInputFormat;
 import io.sharedstreets.tools.builder.osm.model.Way;
 import io.sharedstreets.tools.builder.tiles.JSONTileOutputFormat;
 import io.sharedstreets.tools.builder.tiles.ProtoTileOutputFormat;
@@ -8,9 +10,11 @@ import io.sharedstreets.tools.builder.tiles.TilableData;
 import io.sharedstreets.tools.builder.transforms.Intersections;
 import io.sharedstreets.tools.builder.osm.OSMDataStream;
 import io.sharedstreets.tools.builder.transforms.BaseSegments;
+import io.sharedstreets.tools.builder.transforms.MergeReport;
 import io.sharedstreets.tools.builder.transforms.SharedStreetData;
 import io.sharedstreets.tools.builder.util.geo.TileId;
 import org.apache.commons.cli.*;
+import org.apache.flink.api.common.JobExecutionResult;
 import org.apache.flink.api.common.functions.FilterFunction;
 import org.apache.flink.api.common.functions.MapFunction;
 import org.apache.flink.api.common.functions.ReduceFunction;
@@ -18,12 +22,13 @@ import org.apache.flink.api.java.DataSet;
 import org.apache.flink.api.java.ExecutionEnvironment;
 
 import org.apache.flink.api.java.tuple.Tuple1;
-import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.java.tuple.Tuple3;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 
 public class ProcessPBF {
@@ -34,6 +39,11 @@ public class ProcessPBF {
 
     public static void main(String[] args) throws Exception {
 
+        if (args.length > 0 && "extract".equals(args[0])) {
+            ExtractPBF.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         // create the command line parser
         CommandLineParser parser = new DefaultParser();
 
@@ -41,7 +51,7 @@ public class ProcessPBF {
         Options options = new Options();
 
         options.addOption( OptionBuilder.withLongOpt( "input" )
-                .withDescription( "path to input OSM PBF file" )
+                .withDescription( "path to input OSM PBF file, - for the standard input" )
                 .hasArg()
                 .withArgName("INPUT-FILE")
                 .create() );
@@ -58,6 +68,19 @@ public class ProcessPBF {
                 .withArgName("Z-LEVEL")
                 .create() );
 
+        options.addOption( OptionBuilder.withLongOpt( "merge-strategy" )
+                .withDescription( "merge the sections of segments: iterative or chains (default iterative)" )
+                .hasArg()
+                .withArgName("STRATEGY")
+                .create() );
+
+        options.addOption( OptionBuilder.withLongOpt( "merge-report" )
+                .withDescription( "write the statistics of each merge superstep to a JSON file" )
+                .hasArg()
+                .withArgName("REPORT-FILE")
+                .create() );
+
+        addStreamOptions(options);
 
         String inputFile = "";
 
@@ -65,6 +88,12 @@ public class ProcessPBF {
 
         Integer zLevel = 12 ;
 
+        BaseSegments.MergeStrategy mergeStrategy = BaseSegments.MergeStrategy.ITERATIVE;
+
+        String mergeReportFile = null;
+
+        OSMDataStream.Options streamOptions = new OSMDataStream.Options();
+
         try {
             // parse the command line arguments
             CommandLine line = parser.parse( options, args );
@@ -82,21 +111,34 @@ public class ProcessPBF {
             if(line.hasOption("zlevel")){
                 zLevel = Integer.parseInt(line.getOptionValue("zlevel"));
             }
+
+            if(line.hasOption("merge-strategy")){
+                mergeStrategy = BaseSegments.MergeStrategy.valueOf(line.getOptionValue("merge-strategy").toUpperCase());
+            }
+
+            if(line.hasOption("merge-report")){
+                mergeReportFile = line.getOptionValue("merge-report");
+            }
+
+            streamOptions = parseStreamOptions(line);
         }
         catch( Exception exp ) {
             System.out.println( "Unexpected exception:" + exp.getMessage() );
             return;
         }
 
-        File file = new File(inputFile);
-        if(!file.exists()) {
-            System.out.println( "Input file not found: "  + inputFile);
-            return;
-        }
+        // streamed input is not checked, it may be the standard input or a named pipe
+        if(!streamOptions.streamInput) {
+            File file = new File(inputFile);
+            if(!file.exists()) {
+                System.out.println( "Input file not found: "  + inputFile);
+                return;
+            }
 
-        if(!file.getName().endsWith(".pbf")) {
-            System.out.println( "Input file must end with .pbf: "  + inputFile);
-            return;
+            if(!file.getName().endsWith(".pbf")) {
+                System.out.println( "Input file must end with .pbf: "  + inputFile);
+                return;
+            }
         }
 
         File directory = new File(outputPath);
@@ -109,7 +151,7 @@ public class ProcessPBF {
         final ExecutionEnvironment env = ExecutionEnvironment.getExecutionEnvironment();
 
         // load osm data from PBF input
-        OSMDataStream dataStream = new OSMDataStream(inputFile, env);
+        OSMDataStream dataStream = new OSMDataStream(inputFile, env, streamOptions);
 
         // list of way classes for export tiles (must be in sequential order from least to most filtered)
         ArrayList<Way.ROAD_CLASS> filteredClasses = new ArrayList<>();
@@ -118,28 +160,147 @@ public class ProcessPBF {
         filteredClasses.add(Way.ROAD_CLASS.ClassPrimary);
         filteredClasses.add(Way.ROAD_CLASS.ClassMotorway);
 
-        for(Way.ROAD_CLASS filteredClass : filteredClasses) {
+        // ways of all the levels, the network is assembled once and each level derived from it
+        OSMDataStream.FilteredWays filteredWays = dataStream.getFilteredWays(filteredClasses);
 
-            OSMDataStream.FilteredWays filteredWays = dataStream.getFilteredWays(filteredClass);
+        // create OSM intersections
+        Intersections intersections = new Intersections(filteredWays);
 
-            // create OSM intersections
-            Intersections intersections = new Intersections(filteredWays);
+        // build internal model for street network
+        // the workset size is only measured for the report, it serializes every segment of each superstep
+        BaseSegments segments = new BaseSegments(filteredWays, intersections, mergeStrategy, mergeReportFile != null);
 
-            // build internal model for street network
-            BaseSegments segments = new BaseSegments(filteredWays, intersections);
+        // build SharedStreets references, geometries, intersections and metadata
+        SharedStreetData streets = new SharedStreetData(segments);
 
-            // build SharedStreets references, geometries, intersections and metadata
-            SharedStreetData streets = new SharedStreetData(segments);
+        ProtoTileOutputFormat outputFormat = new ProtoTileOutputFormat<Tuple3<TileId, TilableData, Integer>>(outputPath);
 
-            ProtoTileOutputFormat outputFormat = new ProtoTileOutputFormat<Tuple2<TileId, TilableData>>(outputPath, filteredClass);
+        streets.mergedData(zLevel).output(outputFormat);
 
-            streets.mergedData(zLevel).output(outputFormat);
-        }
+        JobExecutionResult result = env.execute();
 
-        env.execute();
+        MergeReport mergeReport = MergeReport.fromResult(result, mergeStrategy);
+        mergeReport.log();
 
+        if(mergeReportFile != null)
+            mergeReport.write(mergeReportFile);
     }
 
-}
+    /**
+     * add the options of the PBF input, shared by the build and the extract
+     */
+    static void addStreamOptions(Options options) {
+
+        options.addOption( OptionBuilder.withLongOpt( "decode-threads" )
+                .withDescription( "threads decoding PBF blobs in each reading task (default 1)" )
+                .hasArg()
+                .withArgName("THREADS")
+                .create() );
+
+        options.addOption( OptionBuilder.withLongOpt( "decode-queue" )
+                .withDescription( "PBF blobs read ahead in each reading task (default twice the decode threads)" )
+                .hasArg()
+                .withArgName("BLOBS")
+                .create() );
+
+        options.addOption( OptionBuilder.withLongOpt( "split-size" )
+                .withDescription( "target size in MB of the PBF input splits (default 64)" )
+                .hasArg()
+                .withArgName("MB")
+                .create() );
+
+        options.addOption( OptionBuilder.withLongOpt( "no-mmap" )
+                .withDescription( "read the input through a stream instead of mapping it in memory" )
+                .create() );
+
+        options.addOption( OptionBuilder.withLongOpt( "node-filter" )
+                .withDescription( "drop nodes not referenced by highways before the join: none, bitset or bloom (default none)" )
+                .hasArg()
+                .withArgName("MODE")
+                .create() );
 
+        options.addOption( OptionBuilder.withLongOpt( "node-store" )
+                .withDescription( "match node locations with the ways: join, dense or sparse (default join)" )
+                .hasArg()
+                .withArgName("MODE")
+                .create() );
 
+        options.addOption( OptionBuilder.withLongOpt( "node-store-file" )
+                .withDescription( "file of the dense node store (default a temporary file)" )
+                .hasArg()
+                .withArgName("FILE")
+                .create() );
+
+        options.addOption( OptionBuilder.withLongOpt( "stream" )
+                .withDescription( "read the input in a single pass without seeking, for named pipes (implied by --input -)" )
+                .create() );
+
+        options.addOption( OptionBuilder.withLongOpt( "locations-on-ways" )
+                .withDescription( "the streamed input has node locations on ways" )
+                .create() );
+
+        options.addOption( OptionBuilder.withLongOpt( "bbox" )
+                .withDescription( "only process the data in a bounding box: min_lon,min_lat,max_lon,max_lat" )
+                .hasArg()
+                .withArgName("BBOX")
+                .create() );
+
+        options.addOption( OptionBuilder.withLongOpt( "polygon" )
+                .withDescription( "only process the data in a GeoJSON polygon or multipolygon" )
+                .hasArg()
+                .withArgName("FILE")
+                .create() );
+    }
+
+    static OSMDataStream.Options parseStreamOptions(CommandLine line) throws Exception {
+
+        OSMDataStream.Options streamOptions = new OSMDataStream.Options();
+
+        if(line.hasOption("decode-threads")){
+            streamOptions.decodeThreads = Integer.parseInt(line.getOptionValue("decode-threads"));
+        }
+
+        if(line.hasOption("decode-queue")){
+            streamOptions.decodeQueueDepth = Integer.parseInt(line.getOptionValue("decode-queue"));
+        }
+
+        if(line.hasOption("split-size")){
+            streamOptions.splitTargetSize = Long.parseLong(line.getOptionValue("split-size")) * 1024 * 1024;
+        }
+
+        if(line.hasOption("no-mmap")){
+            streamOptions.memoryMap = false;
+        }
+
+        if(line.hasOption("node-filter")){
+            streamOptions.nodeFilter = OSMDataStream.NodeFilterMode.valueOf(line.getOptionValue("node-filter").toUpperCase());
+        }
+
+        if(line.hasOption("node-store")){
+            streamOptions.nodeStore = OSMDataStream.NodeStoreMode.valueOf(line.getOptionValue("node-store").toUpperCase());
+        }
+
+        if(line.hasOption("node-store-file")){
+            streamOptions.nodeStoreFile = line.getOptionValue("node-store-file");
+        }
+
+        if(line.hasOption("stream") || OSMPBFStreamInputFormat.STDIN.equals(line.getOptionValue("input"))){
+            streamOptions.streamInput = true;
+        }
+
+        if(line.hasOption("locations-on-ways")){
+            streamOptions.streamLocationsOnWays = true;
+        }
+
+        if(line.hasOption("bbox")){
+            streamOptions.clipRegion = ClipRegion.fromBBox(line.getOptionValue("bbox"));
+        }
+
+        if(line.hasOption("polygon")){
+            streamOptions.clipRegion = ClipRegion.fromGeoJSON(line.getOptionValue("polygon"));
+        }
+
+        return streamOptions;
+    }
+
+}
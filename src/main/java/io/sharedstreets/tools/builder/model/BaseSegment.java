@@ -4,12 +4,15 @@ package io.sharedstreets.tools.builder.model;
 import com.esri.core.geometry.Geometry;
 import com.esri.core.geometry.Polyline;
 import io.sharedstreets.tools.builder.osm.model.NodePosition;
+import io.sharedstreets.tools.builder.util.geo.FixedPoint;
 import io.sharedstreets.tools.builder.osm.model.SpatialEntity;
 import io.sharedstreets.tools.builder.osm.model.Way;
+import io.sharedstreets.tools.builder.serialization.BaseSegmentSerializer;
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.flink.api.common.typeinfo.TypeInfo;
 
-import java.util.UUID;
 
+@TypeInfo(BaseSegmentSerializer.Factory.class)
 public class BaseSegment extends SpatialEntity {
 
     public WaySection[] waySections;
@@ -17,10 +20,17 @@ public class BaseSegment extends SpatialEntity {
     public boolean link;
     public boolean roundabout;
 
+    // road class level the segment was built for
+    public int level;
+
+    public BaseSegment() {
+
+    }
+
     public BaseSegment(WaySection section) {
 
-        // TODO switch to UniqueID to avoid collisions
-        id = UUID.randomUUID().getLeastSignificantBits();
+        // merged segments keep the lowest id of their sections
+        id = section.getSectionId();
         waySections = new WaySection[1];
         waySections[0] = section;
         oneWay = section.oneWay;
@@ -55,8 +65,8 @@ public class BaseSegment extends SpatialEntity {
 
             for(int i = 0; i < baseSegment1.waySections.length; i++) {
                 if(     !baseSegment1.waySections[i].wayId.equals(baseSegment2.waySections[i].wayId) &&
-                        !baseSegment1.waySections[i].nodes[0].nodeId.equals(baseSegment2.waySections[i].nodes[0].nodeId) &&
-                        !baseSegment1.waySections[i].nodes[baseSegment1.waySections[i].nodes.length - 1].nodeId.equals(baseSegment2.waySections[i].nodes[baseSegment2.waySections[i].nodes.length - 1].nodeId)) {
+                        baseSegment1.waySections[i].nodes[0].nodeId != baseSegment2.waySections[i].nodes[0].nodeId &&
+                        baseSegment1.waySections[i].nodes[baseSegment1.waySections[i].nodes.length - 1].nodeId != baseSegment2.waySections[i].nodes[baseSegment2.waySections[i].nodes.length - 1].nodeId) {
                     duplicate = false;
                 }
             }
@@ -73,24 +83,24 @@ public class BaseSegment extends SpatialEntity {
         if(canMerge(baseSegment1, baseSegment2)) {
             if (baseSegment2.getFirstNode().equals(baseSegment1.getLastNode())) {
                 baseSegment1.append(baseSegment2);
-                baseSegment1.id = UUID.randomUUID().getLeastSignificantBits();
+                baseSegment1.id = Math.min(baseSegment1.id, baseSegment2.id);
                 return baseSegment1;
             } else if (baseSegment1.getFirstNode().equals(baseSegment2.getLastNode())) {
                 baseSegment2.append(baseSegment1);
-                baseSegment2.id = UUID.randomUUID().getLeastSignificantBits();
+                baseSegment2.id = Math.min(baseSegment1.id, baseSegment2.id);
                 return baseSegment2;
             } else if (baseSegment1.getFirstNode().equals(baseSegment2.getFirstNode())) {
                 // need to handle segments drawn in opposite directions
                 baseSegment2.reverse();
                 baseSegment2.append(baseSegment1);
-                baseSegment2.id = UUID.randomUUID().getLeastSignificantBits();
+                baseSegment2.id = Math.min(baseSegment1.id, baseSegment2.id);
                 return baseSegment2;
             } else if (baseSegment1.getLastNode().equals(baseSegment2.getLastNode())) {
                 // need to handle segments drawn in opposite directions
                 baseSegment2.reverse();
                 baseSegment1.append(baseSegment2);
-                baseSegment2.id = UUID.randomUUID().getLeastSignificantBits();
-                return baseSegment2;
+                baseSegment1.id = Math.min(baseSegment1.id, baseSegment2.id);
+                return baseSegment1;
             }
         }
 
@@ -103,11 +113,29 @@ public class BaseSegment extends SpatialEntity {
 
     public void reverse() {
         for(WaySection section : this.waySections) {
-            ArrayUtils.reverse(section.nodes);
+            section.reverse();
         }
         ArrayUtils.reverse(this.waySections);
     }
 
+    // copy of the segment with the end nodes of its sections only, see WaySection.endpoints
+    public BaseSegment endpoints() {
+
+        BaseSegment segment = new BaseSegment();
+        segment.id = id;
+        segment.level = level;
+        segment.oneWay = oneWay;
+        segment.link = link;
+        segment.roundabout = roundabout;
+
+        segment.waySections = new WaySection[waySections.length];
+        for(int i = 0; i < waySections.length; i++) {
+            segment.waySections[i] = waySections[i].endpoints();
+        }
+
+        return segment;
+    }
+
     public boolean containsWay(Long wayId) {
         for(WaySection section : this.waySections) {
             if(section.wayId.equals(wayId))
@@ -170,13 +198,13 @@ public class BaseSegment extends SpatialEntity {
         for(WaySection section : this.waySections) {
             for(NodePosition node : section.nodes) {
                 if(firstPosition == true) {
-                    line.startPath(node.lon, node.lat);
+                    line.startPath(FixedPoint.toDegrees(node.lon), FixedPoint.toDegrees(node.lat));
                     firstPosition = false;
                 }
                 else {
                     // don't write duplicate nodes twice for adjoining way sections
                     if(lastNodeId != node.nodeId)
-                        line.lineTo(node.lon, node.lat);
+                        line.lineTo(FixedPoint.toDegrees(node.lon), FixedPoint.toDegrees(node.lat));
                 }
 
                 lastNodeId = node.nodeId;
@@ -8,6 +8,7 @@ public class WayIntersection implements Serializable {
 
     private static final long serialVersionUID = 1L;
     public Long nodeId;
+    public int level; // road class level of the ways
     public List<Long> terminatingWays;
     public List<Long> intersectingWays;
 
@@ -3,9 +3,16 @@ package io.sharedstreets.tools.builder.model;
 
 import io.sharedstreets.tools.builder.osm.model.NodePosition;
 import io.sharedstreets.tools.builder.osm.model.Way;
+import io.sharedstreets.tools.builder.serialization.WaySectionSerializer;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.flink.api.common.typeinfo.TypeInfo;
 
+@TypeInfo(WaySectionSerializer.Factory.class)
 public class WaySection {
 
+    // bits of the node index in section ids
+    private static final int NODE_INDEX_BITS = 21;
+
     public Long wayId;
     public String name;
     public boolean oneWay;
@@ -15,5 +22,56 @@ public class WaySection {
 
     public NodePosition[] nodes;
 
+    // indexes in the way of the first and last nodes, swapped when the section is reversed
+    public int firstNodeIndex;
+    public int lastNodeIndex;
+
+    public void reverse() {
+        ArrayUtils.reverse(nodes);
+
+        int index = firstNodeIndex;
+        firstNodeIndex = lastNodeIndex;
+        lastNodeIndex = index;
+    }
+
+    public boolean isReversed() {
+        return firstNodeIndex > lastNodeIndex;
+    }
+
+    /**
+     * Id of the section, the way id and the lowest node index of the section packed in a long. Sections of a way do
+     * not overlap, the id is unique among the sections of a level.
+     *
+     * @throws IllegalStateException if the way id or the node index are out of range
+     */
+    public long getSectionId() {
+
+        int nodeIndex = Math.min(firstNodeIndex, lastNodeIndex);
+        long sectionId = (wayId << NODE_INDEX_BITS) | nodeIndex;
+
+        if (nodeIndex >= (1 << NODE_INDEX_BITS) || (sectionId >> NODE_INDEX_BITS) != wayId)
+            throw new IllegalStateException("no section id for way " + wayId + " at node index " + nodeIndex);
+
+        return sectionId;
+    }
+
+    // copy of the section with the ids of its end nodes only, enough to plan merges
+    public WaySection endpoints() {
+
+        WaySection section = new WaySection();
+        section.wayId = wayId;
+        section.oneWay = oneWay;
+        section.roundabout = roundabout;
+        section.link = link;
+        section.roadClass = roadClass;
+        section.nodes = new NodePosition[] {new NodePosition(), new NodePosition()};
+        section.nodes[0].nodeId = nodes[0].nodeId;
+        section.nodes[1].nodeId = nodes[nodes.length - 1].nodeId;
+        section.firstNodeIndex = firstNodeIndex;
+        section.lastNodeIndex = lastNodeIndex;
+
+        return section;
+    }
+
 }
 
@@ -0,0 +1,64 @@
+package io.sharedstreets.tools.builder.osm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.sharedstreets.tools.builder.osm.inputs.BlobIndex;
+import org.apache.flink.api.common.functions.Partitioner;
+
+/**
+ * Partition node ids in ranges, following the node blocks of a file sorted by id.
+ *
+ * The ranges hold about the same number of node blocks, so each partition gets a contiguous and
+ * balanced slice of the file.
+ */
+public class NodeIdRangePartitioner implements Partitioner<Long> {
+
+    // first node id of each range but the first one, ascending
+    private final long[] boundaries;
+
+    public NodeIdRangePartitioner(long[] boundaries) {
+        this.boundaries = boundaries;
+    }
+
+    /**
+     * @param index blob index of a file sorted by id
+     * @param ranges number of ranges, usually the job parallelism
+     * @return the partitioner, or null if the file has no node block
+     */
+    public static NodeIdRangePartitioner fromIndex(BlobIndex index, int ranges) {
+
+        List<BlobIndex.Entry> nodeBlobs = new ArrayList<>();
+        for (BlobIndex.Entry entry : index.entries) {
+            if (entry.contains(BlobIndex.NODES | BlobIndex.DENSE_NODES))
+                nodeBlobs.add(entry);
+        }
+
+        if (nodeBlobs.isEmpty())
+            return null;
+
+        ranges = Math.max(1, Math.min(ranges, nodeBlobs.size()));
+
+        long[] boundaries = new long[ranges - 1];
+        for (int i = 1; i < ranges; i++) {
+            boundaries[i - 1] = nodeBlobs.get((int) ((long) i * nodeBlobs.size() / ranges)).minId;
+        }
+
+        return new NodeIdRangePartitioner(boundaries);
+    }
+
+    @Override
+    public int partition(Long key, int numPartitions) {
+
+        int pos = Arrays.binarySearch(boundaries, key);
+        int range = pos >= 0 ? pos + 1 : -(pos + 1);
+
+        // the job may run with another parallelism than the one the ranges were planned for
+        if (boundaries.length + 1 != numPartitions)
+            return (int) ((long) range * numPartitions / (boundaries.length + 1));
+
+        return range;
+    }
+
+}
@@ -1,5 +1,7 @@
 package io.sharedstreets.tools.builder.osm;
 
+import io.sharedstreets.tools.builder.osm.parser.StringTable;
+import io.sharedstreets.tools.builder.util.geo.FixedPoint;
 import org.openstreetmap.osmosis.osmbinary.Osmformat;
 
 import java.io.Serializable;
@@ -12,10 +14,15 @@ public class OSMContext implements Serializable {
     protected long lat_offset;
     protected long lon_offset;
     protected int date_granularity;
-    protected String strings[];
+    protected StringTable strings;
 
     public OSMContext(int granularity, long lat_offset, long lon_offset,
                       int date_granular, String[] strings) {
+        this(granularity, lat_offset, lon_offset, date_granular, strings == null ? null : new StringTable(strings));
+    }
+
+    public OSMContext(int granularity, long lat_offset, long lon_offset,
+                      int date_granular, StringTable strings) {
 
         this.granularity = granularity;
         this.lat_offset = lat_offset;
@@ -42,6 +49,20 @@ public class OSMContext implements Serializable {
         return (granularity * degree + lon_offset) * .000000001;
     }
 
+    /**
+     * Convert a latitude value stored in a protobuf into fixed point units (see FixedPoint)
+     */
+    public int fixedLat(long degree) {
+        return FixedPoint.fromNanodegrees(granularity * degree + lat_offset);
+    }
+
+    /**
+     * Convert a longitude value stored in a protobuf into fixed point units (see FixedPoint)
+     */
+    public int fixedLon(long degree) {
+        return FixedPoint.fromNanodegrees(granularity * degree + lon_offset);
+    }
+
     /** Take a Info protocol buffer containing a date and convert it into a java Date object */
     public Date getDate(Osmformat.Info info) {
         if (info.hasTimestamp()) {
@@ -58,12 +79,19 @@ public class OSMContext implements Serializable {
      * @return
      */
     public String getStringById(int id) {
-        return strings[id];
+        return strings.get(id);
     }
 
     public int getStringLength()
     {
-        return strings.length;
+        return strings.size();
+    }
+
+    /**
+     * @return the index of a string in the table, or -1 if the block does not use it
+     */
+    public int getStringId(String value) {
+        return strings.indexOf(value);
     }
 
 
@@ -2,53 +2,178 @@ package io.sharedstreets.tools.builder.osm;
 
 
 import com.sun.org.apache.xpath.internal.operations.Bool;
+import io.sharedstreets.tools.builder.osm.filter.ClipRegion;
+import io.sharedstreets.tools.builder.osm.filter.NodeIdBitSet;
+import io.sharedstreets.tools.builder.osm.filter.NodeIdBloomFilter;
+import io.sharedstreets.tools.builder.osm.filter.NodeIdFilter;
+import io.sharedstreets.tools.builder.osm.inputs.BlobIndex;
+import io.sharedstreets.tools.builder.osm.inputs.OSMPBFEntityInputFormat;
+import io.sharedstreets.tools.builder.osm.inputs.OSMPBFInputFormat;
 import io.sharedstreets.tools.builder.osm.inputs.OSMPBFNodeInputFormat;
-import io.sharedstreets.tools.builder.osm.inputs.OSMPBFRelationInputFormat;
-import io.sharedstreets.tools.builder.osm.inputs.OSMPBFWayInputFormat;
+import io.sharedstreets.tools.builder.osm.inputs.OSMPBFHeader;
+import io.sharedstreets.tools.builder.osm.inputs.OSMPBFNodePositionInputFormat;
+import io.sharedstreets.tools.builder.osm.inputs.OSMPBFStreamInputFormat;
+import io.sharedstreets.tools.builder.osm.inputs.OSMPBFBlobParser;
 import io.sharedstreets.tools.builder.osm.model.*;
+import io.sharedstreets.tools.builder.osm.parser.TagFilter;
+import io.sharedstreets.tools.builder.osm.store.DenseNodeLocationStore;
+import io.sharedstreets.tools.builder.osm.store.NodeLocationStore;
+import io.sharedstreets.tools.builder.osm.store.SparseNodeLocationStore;
+import io.sharedstreets.tools.builder.serialization.NodePositionArraySerializer;
+import io.sharedstreets.tools.builder.util.geo.FixedPoint;
 import org.apache.flink.api.common.functions.*;
 import org.apache.flink.api.common.operators.Order;
+import org.apache.flink.api.common.operators.base.JoinOperatorBase.JoinHint;
+import org.apache.flink.api.common.typeinfo.BasicTypeInfo;
+import org.apache.flink.api.common.typeinfo.PrimitiveArrayTypeInfo;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
 import org.apache.flink.api.java.DataSet;
 import org.apache.flink.api.java.ExecutionEnvironment;
+import org.apache.flink.api.java.LocalEnvironment;
 import org.apache.flink.api.java.functions.KeySelector;
+import org.apache.flink.api.java.operators.FilterOperator;
 import org.apache.flink.api.java.tuple.Tuple2;
-import org.apache.flink.api.java.tuple.Tuple3;
 import org.apache.flink.api.java.tuple.Tuple4;
 import org.apache.flink.api.java.tuple.Tuple5;
 import org.apache.flink.api.java.typeutils.GenericTypeInfo;
+import org.apache.flink.api.java.typeutils.TupleTypeInfo;
 import org.apache.flink.configuration.Configuration;
+import org.apache.flink.core.fs.Path;
 import org.apache.flink.metrics.Counter;
 import org.apache.flink.metrics.Meter;
+import org.apache.flink.types.Either;
 import org.apache.flink.util.Collector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class OSMDataStream {
 
-    public class FilteredWays
+    static Logger LOG = LoggerFactory.getLogger(OSMDataStream.class);
+
+    private static final String NODE_ID_FILTER = "nodeIdFilter";
+
+    private static final String NODE_STORE = "nodeLocationStore";
+
+    /**
+     * Highways of all the road class levels, assembled once.
+     *
+     * A level is the value of its filtered road class and holds the ways of that class and above. Links are repeated
+     * for each level of their way, the transforms key their data by level.
+     */
+    public static class FilteredWays
     {
-        public DataSet<Tuple4<Long, Long, Integer, Boolean>> orderedWayNodeLink; // way_id, node_id, order, terminal_point
-        public DataSet<Way> ways;
+        public DataSet<Tuple5<Long, Long, Integer, Boolean, Integer>> orderedWayNodeLink; // way_id, node_id, order, terminal_point, level
+        public DataSet<Way> ways; // ways of the least filtered level
+        public int[] levels;
+
+        public static boolean inLevel(Way.ROAD_CLASS roadClass, int level) {
+            return roadClass.getValue() <= level;
+        }
+    }
+
+    /**
+     * Reader settings of the PBF input.
+     */
+    public static class Options implements Serializable {
+
+        // threads inflating and parsing PBF blobs in each reading task (1 decodes on the task thread)
+        public int decodeThreads = 1;
+
+        // blobs read ahead per reading task, 0 uses twice the number of decoding threads
+        public int decodeQueueDepth = 0;
+
+        // bytes of consecutive blobs grouped in an input split
+        public long splitTargetSize = OSMPBFInputFormat.DEFAULT_SPLIT_TARGET_SIZE;
+
+        // map local input files in memory instead of reading them through a stream
+        public boolean memoryMap = true;
+
+        // set of highway node ids used to drop the other nodes before the join with the ways
+        public NodeFilterMode nodeFilter = NodeFilterMode.NONE;
+
+        // size (log2 of the number of bits) and hash count of the Bloom filter node set
+        public int bloomFilterLog2Bits = 27;
+        public int bloomFilterHashes = 5;
+
+        // how node locations are matched with the ways
+        public NodeStoreMode nodeStore = NodeStoreMode.JOIN;
+
+        // file of the dense node store, a temporary file by default
+        public String nodeStoreFile;
+
+        // only keep the nodes in this region and the ways touching it (null reads the whole file)
+        public ClipRegion clipRegion;
+
+        // read the input once in order, without seeking (always the case for the standard input)
+        public boolean streamInput = false;
+
+        // the streamed input has locations on ways, its header is only read once the job runs
+        public boolean streamLocationsOnWays = false;
+
+        // keep all the tags of the ways, the builder only needs their classification and name
+        public boolean allWayTags = false;
+
+    }
+
+    public enum NodeFilterMode {
+        // join all the nodes of the file with the way-node links
+        NONE,
+        // exact paged bitset of the node ids
+        BITSET,
+        // Bloom filter of the node ids, bounded size for distributed runs
+        BLOOM
+
+    }
+
+    public enum NodeStoreMode {
+        // join the way-node links with the node positions
+        JOIN,
+        // memory mapped array indexed by node id, for builds on a single machine
+        DENSE,
+        // node locations sorted by id and broadcast to the way tasks, for small extracts
+        SPARSE
+
     }
 
     private String inputFile;
     private ExecutionEnvironment env;
+    private Options options;
 
-    // input stream
+    // input streams
+    private OSMPBFNodePositionInputFormat inputNodePositions;
     private OSMPBFNodeInputFormat inputNodes;
-    private OSMPBFWayInputFormat inputWays;
-    private OSMPBFRelationInputFormat inputRelations;
+    private OSMPBFEntityInputFormat inputEntities;
 
-    // nodes
+    // nodes, without their tags when the input is streamed
     public DataSet<NodeEntity> nodes;
-    public DataSet<Tuple3<Long, Double, Double>> nodePositions; // node_id, x, y
+    public DataSet<Tuple2<Long, Long>> nodePositions; // node_id, packed fixed point lat/lon (see FixedPoint)
 
     // ways
     private DataSet<WayEntity> rawWays;
+    private DataSet<WayEntity> highways;
+
+    // way blocks carry the coordinates of the way nodes
+    private boolean locationsOnWays;
+
+    // node id ranges of sorted input files (null for unsorted files)
+    private NodeIdRangePartitioner nodeIdPartitioner;
 
     DataSet<Tuple4<Long, Long, Integer, Boolean>> unfilteredOrderedWayNodeLink;
     DataSet<Tuple2<Long, NodePosition[]>> wayNodes;
 
+    // way_id, NodePosition[] written with the delta encoded array serializer
+    private static final TupleTypeInfo<Tuple2<Long, NodePosition[]>> WAY_NODES =
+            new TupleTypeInfo<>(BasicTypeInfo.LONG_TYPE_INFO, NodePositionArraySerializer.TYPE_INFO);
+
     //public DataSet<Tuple4<Long, Long, Integer, Boolean>> orderedWayNodeLink; // way_id, node_id, order, terminal_point
     //public DataSet<Way> ways;
 
@@ -57,71 +182,281 @@ public class OSMDataStream {
 
 
     public OSMDataStream(String inputFile, ExecutionEnvironment env) {
+        this(inputFile, env, new Options());
+    }
+
+    public OSMDataStream(String inputFile, ExecutionEnvironment env, Options options) {
 
         this.inputFile = inputFile;
         this.env = env;
+        this.options = options;
+
+        if (options.streamInput || OSMPBFStreamInputFormat.STDIN.equals(inputFile))
+            createStreamInput();
+        else
+            createFileInput();
+
+
 
-        // create input streams
+        buildWayNodeLinks();
 
-        // node inputs
+        if (locationsOnWays) {
+            buildWayLocations();
+        } else {
+            buildNodes();
+
+            if (options.nodeStore == NodeStoreMode.JOIN)
+                buildWays();
+            else
+                buildWaysFromStore();
+        }
+
+        // skipping relations for now
+        //buildRelations();
+
+    }
+
+    /**
+     * read the input file through the splittable input formats, nodes are read apart from the ways and relations
+     */
+    private void createFileInput() {
+
+        // index the input blobs once on the client, the input formats plan their splits from the sidecar index
+        BlobIndex index = null;
+        try {
+            index = BlobIndex.loadOrBuild(new Path(inputFile), options.decodeThreads);
+        } catch (IOException e) {
+            LOG.warn("Could not index {}, splits will be planned at job start: {}", inputFile, e.getLocalizedMessage());
+        }
+
+        // files with node coordinates stored on the ways do not need the node pass and join
+        OSMPBFHeader header;
+        try {
+            header = OSMPBFHeader.read(new Path(inputFile));
+        } catch (IOException e) {
+            LOG.warn("Could not read header of {}: {}", inputFile, e.getLocalizedMessage());
+            header = new OSMPBFHeader();
+        }
+        locationsOnWays = header.hasLocationsOnWays();
+
+        // ids of files sorted by type then id follow the node blocks, the node join is range partitioned on them
+        if (header.isSorted() && index != null) {
+            nodeIdPartitioner = NodeIdRangePartitioner.fromIndex(index, Math.max(1, env.getParallelism()));
+            LOG.info("Input sorted by id, joining nodes in id ranges");
+        }
+
+        // node positions, read without building node entities
+        inputNodePositions = new OSMPBFNodePositionInputFormat();
+        inputNodePositions.setFilePath(this.inputFile);
+        configureInput(inputNodePositions);
+        nodePositions = env.createInput(inputNodePositions,
+                new TupleTypeInfo<Tuple2<Long, Long>>(BasicTypeInfo.LONG_TYPE_INFO, BasicTypeInfo.LONG_TYPE_INFO));
+
+        // nodes with their tags, only read if used
         inputNodes = new OSMPBFNodeInputFormat();
         inputNodes.setFilePath(this.inputFile);
+        configureInput(inputNodes);
         nodes = env.createInput(inputNodes, new GenericTypeInfo<NodeEntity>(NodeEntity.class));
 
-        // way inputs
-        inputWays = new OSMPBFWayInputFormat();
-        inputWays.setFilePath(this.inputFile);
-        rawWays = env.createInput(inputWays, new GenericTypeInfo<WayEntity>(WayEntity.class)).partitionByHash(new KeySelector<WayEntity, Long >() {
+        // ways and relations input stream, each block is decoded once and its entities split by type
+        inputEntities = new OSMPBFEntityInputFormat();
+        inputEntities.setFilePath(this.inputFile);
+        inputEntities.setEntityTypes(false, true, true);
+        inputEntities.setWayLocations(locationsOnWays);
+        inputEntities.setWayTags(options.allWayTags);
+        configureInput(inputEntities);
+        // only highways are used, other ways are dropped while parsing
+        inputEntities.setWayFilter(new TagFilter("highway"));
+        DataSet<OSMEntity> entities = env.createInput(inputEntities, new GenericTypeInfo<OSMEntity>(OSMEntity.class));
+
+        // ways
+        rawWays = partitionWays(entities.flatMap(new FlatMapFunction<OSMEntity, WayEntity>() {
+            @Override
+            public void flatMap(OSMEntity value, Collector<WayEntity> out) throws Exception {
+                if (value.type == OSMEntity.Type.WAY)
+                    out.collect(value.way);
+            }
+        }).returns(TypeInformation.of(WayEntity.class)));
+
+        // relations
+        relations = entities.flatMap(new FlatMapFunction<OSMEntity, Relation>() {
+            @Override
+            public void flatMap(OSMEntity value, Collector<Relation> out) throws Exception {
+                if (value.type == OSMEntity.Type.RELATION)
+                    out.collect(value.relation);
+            }
+        }).returns(new GenericTypeInfo<Relation>(Relation.class));
+    }
+
+    /**
+     * read a stream with a single task, its blobs are decoded by parallel parsers and all entities go through one dataset
+     */
+    private void createStreamInput() {
+
+        // no index or header to plan from, the node join is hash partitioned
+        locationsOnWays = options.streamLocationsOnWays;
+
+        OSMPBFStreamInputFormat input = new OSMPBFStreamInputFormat(inputFile);
+        input.setWayLocations(locationsOnWays);
+
+        OSMPBFBlobParser parser = new OSMPBFBlobParser();
+        parser.setWayFilter(new TagFilter("highway"));
+        parser.setWayLocations(locationsOnWays);
+        parser.setWayTags(options.allWayTags);
+        parser.setClipRegion(options.clipRegion);
+
+        // node positions on the left, ways and relations on the right
+        DataSet<Either<Tuple2<Long, Long>, OSMEntity>> records = env.createInput(input, PrimitiveArrayTypeInfo.BYTE_PRIMITIVE_ARRAY_TYPE_INFO)
+                .setParallelism(1)
+                .rebalance()
+                .flatMap(parser);
+
+        // positions of the nodes, their tags are not decoded
+        nodePositions = records.flatMap(new FlatMapFunction<Either<Tuple2<Long, Long>, OSMEntity>, Tuple2<Long, Long>>() {
+            @Override
+            public void flatMap(Either<Tuple2<Long, Long>, OSMEntity> value, Collector<Tuple2<Long, Long>> out) throws Exception {
+                if (value.isLeft())
+                    out.collect(value.left());
+            }
+        }).returns(new TupleTypeInfo<Tuple2<Long, Long>>(BasicTypeInfo.LONG_TYPE_INFO, BasicTypeInfo.LONG_TYPE_INFO));
+
+        // nodes without their tags, only built if used
+        nodes = nodePositions.map(new MapFunction<Tuple2<Long, Long>, NodeEntity>() {
+            @Override
+            public NodeEntity map(Tuple2<Long, Long> value) throws Exception {
+                NodeEntity node = new NodeEntity();
+                node.id = value.f0;
+                node.y = FixedPoint.unpackLat(value.f1);
+                node.x = FixedPoint.unpackLon(value.f1);
+                return node;
+            }
+        }).returns(new GenericTypeInfo<NodeEntity>(NodeEntity.class));
+
+        // ways
+        rawWays = partitionWays(records.flatMap(new FlatMapFunction<Either<Tuple2<Long, Long>, OSMEntity>, WayEntity>() {
+            @Override
+            public void flatMap(Either<Tuple2<Long, Long>, OSMEntity> value, Collector<WayEntity> out) throws Exception {
+                if (value.isRight() && value.right().type == OSMEntity.Type.WAY)
+                    out.collect(value.right().way);
+            }
+        }).returns(TypeInformation.of(WayEntity.class)));
+
+        // relations
+        relations = records.flatMap(new FlatMapFunction<Either<Tuple2<Long, Long>, OSMEntity>, Relation>() {
+            @Override
+            public void flatMap(Either<Tuple2<Long, Long>, OSMEntity> value, Collector<Relation> out) throws Exception {
+                if (value.isRight() && value.right().type == OSMEntity.Type.RELATION)
+                    out.collect(value.right().relation);
+            }
+        }).returns(new GenericTypeInfo<Relation>(Relation.class));
+    }
+
+    private static DataSet<WayEntity> partitionWays(DataSet<WayEntity> ways) {
+
+        return ways.partitionByHash(new KeySelector<WayEntity, Long>() {
             @Override
             public Long getKey(WayEntity value) throws Exception {
                 return value.id;
             }
         });
+    }
 
-        // relation inputs
-        inputRelations = new OSMPBFRelationInputFormat();
-        inputRelations.setFilePath(this.inputFile);
-        relations = env.createInput(inputRelations, new GenericTypeInfo<Relation>(Relation.class));
+    static NodeLocationStore createNodeLocationStore(Options options) {
 
+        if (options.nodeStore == NodeStoreMode.DENSE)
+            return new DenseNodeLocationStore(options.nodeStoreFile);
 
+        return new SparseNodeLocationStore();
+    }
 
-        buildNodes();
+    static NodeIdFilter createNodeIdFilter(Options options) {
 
-        buildWays();
+        if (options.nodeFilter == NodeFilterMode.BLOOM)
+            return new NodeIdBloomFilter(options.bloomFilterLog2Bits, options.bloomFilterHashes);
 
-        // skipping relations for now
-        //buildRelations();
+        return new NodeIdBitSet();
+    }
 
+    private void configureInput(OSMPBFInputFormat<?> input) {
+        input.setDecodeThreads(options.decodeThreads);
+        input.setDecodeQueueDepth(options.decodeQueueDepth);
+        input.setSplitTargetSize(options.splitTargetSize);
+        input.setMemoryMap(options.memoryMap);
+        input.setClipRegion(options.clipRegion);
     }
 
     private void buildNodes() {
 
-        // get only the positions of the nodes
-        nodePositions = nodes
-                .map(new RichMapFunction<NodeEntity, Tuple3<Long, Double, Double>>() {
+        final boolean useNodeIdFilter = options.nodeFilter != NodeFilterMode.NONE;
+
+        DataSet<NodeIdFilter> nodeIdFilter = null;
+
+        if (useNodeIdFilter) {
+
+            final Options filterOptions = options;
+
+            // set of the node ids referenced by highways, built per partition and merged
+            nodeIdFilter = unfilteredOrderedWayNodeLink
+                    .mapPartition(new MapPartitionFunction<Tuple4<Long, Long, Integer, Boolean>, NodeIdFilter>() {
+                        @Override
+                        public void mapPartition(Iterable<Tuple4<Long, Long, Integer, Boolean>> values, Collector<NodeIdFilter> out) throws Exception {
+
+                            NodeIdFilter filter = createNodeIdFilter(filterOptions);
+                            for (Tuple4<Long, Long, Integer, Boolean> link : values) {
+                                filter.add(link.f1);
+                            }
+                            out.collect(filter);
+                        }
+                    }).returns(new GenericTypeInfo<NodeIdFilter>(NodeIdFilter.class))
+                    .reduce(new ReduceFunction<NodeIdFilter>() {
+                        @Override
+                        public NodeIdFilter reduce(NodeIdFilter value1, NodeIdFilter value2) throws Exception {
+                            value1.merge(value2);
+                            return value1;
+                        }
+                    });
+        }
+
+        // count the node positions, dropping the nodes no highway refers to before they are shuffled to the join
+        FilterOperator<Tuple2<Long, Long>> filteredPositions = nodePositions
+                .filter(new RichFilterFunction<Tuple2<Long, Long>>() {
+
                     private Counter counter;
 
+                    private NodeIdFilter filter;
+
                     @Override
                     public void open(Configuration config) {
                         this.counter = getRuntimeContext()
                                 .getMetricGroup()
                                 .addGroup("OSM")
                                 .counter("Nodes");
+
+                        if (useNodeIdFilter) {
+                            List<NodeIdFilter> filters = getRuntimeContext().getBroadcastVariable(NODE_ID_FILTER);
+                            // no highway at all
+                            this.filter = filters.isEmpty() ? new NodeIdBitSet() : filters.get(0);
+                        }
                     }
 
                     @Override
-                    public Tuple3< Long, Double, Double> map(NodeEntity value) throws Exception {
+                    public boolean filter(Tuple2<Long, Long> value) throws Exception {
                         counter.inc();
-                        return new Tuple3<Long, Double, Double>(value.id, value.y, value.x);
+                        return filter == null || filter.mightContain(value.f0);
                     }
                 });
 
+        if (useNodeIdFilter)
+            filteredPositions = filteredPositions.withBroadcastSet(nodeIdFilter, NODE_ID_FILTER);
+
+        nodePositions = filteredPositions;
+
     }
 
-    private void buildWays() {
+    private void buildWayNodeLinks() {
 
         // filter out all ways without "highway=" tag
-        DataSet<WayEntity> filteredWays = rawWays.filter(new RichFilterFunction<WayEntity>() {
+        highways = rawWays.filter(new RichFilterFunction<WayEntity>() {
 
             private Counter counter;
 
@@ -152,7 +487,7 @@ public class OSMDataStream {
 
         // link way id to node ids with ordering
         // way_id, node_id, order, terminating
-        unfilteredOrderedWayNodeLink = filteredWays
+        unfilteredOrderedWayNodeLink = highways
                 .flatMap(new FlatMapFunction<WayEntity, Tuple4<Long, Long, Integer, Boolean>>() {
                     @Override
                     public void flatMap(WayEntity value, Collector<Tuple4<Long, Long, Integer, Boolean>> out) throws Exception {
@@ -169,57 +504,300 @@ public class OSMDataStream {
                             }
                         }
                     }
-                }).partitionByHash(0);
-        
+                });
+
+        // sorted input: the join shuffles the links by node id range, a hash partition by way id would be lost
+        if (nodeIdPartitioner == null)
+            unfilteredOrderedWayNodeLink = unfilteredOrderedWayNodeLink.partitionByHash(0);
+
+    }
+
+    private void buildWays() {
+
         // join ways with node positions
-        // way_id, order, node_id, lat, lon
-        DataSet<Tuple5<Long, Integer, Long, Double, Double>> joinedWaysWithPoints = unfilteredOrderedWayNodeLink
-                .joinWithHuge(nodePositions)
-                .where(1)
-                .equalTo(0).map(new MapFunction<Tuple2<Tuple4<Long, Long, Integer, Boolean>, Tuple3<Long, Double, Double>>, Tuple5<Long, Integer, Long, Double, Double>>() {
+        DataSet<Tuple2<Tuple4<Long, Long, Integer, Boolean>, Tuple2<Long, Long>>> linksWithPositions;
+
+        if (nodeIdPartitioner != null) {
+            // sorted input: both sides in node id ranges, merged on id
+            linksWithPositions = unfilteredOrderedWayNodeLink
+                    .join(nodePositions, JoinHint.REPARTITION_SORT_MERGE)
+                    .where(1)
+                    .equalTo(0)
+                    .withPartitioner(nodeIdPartitioner);
+        } else {
+            linksWithPositions = unfilteredOrderedWayNodeLink
+                    .joinWithHuge(nodePositions)
+                    .where(1)
+                    .equalTo(0);
+        }
+
+        // way_id, order, node_id, packed lat/lon
+        // the join output is spread by node id, this shuffle by way id remains to gather the nodes of each way
+        DataSet<Tuple4<Long, Integer, Long, Long>> joinedWaysWithPoints = linksWithPositions.map(new MapFunction<Tuple2<Tuple4<Long, Long, Integer, Boolean>, Tuple2<Long, Long>>, Tuple4<Long, Integer, Long, Long>>() {
                     @Override
-                    public Tuple5<Long, Integer, Long, Double, Double> map(Tuple2<Tuple4<Long, Long, Integer, Boolean>, Tuple3<Long, Double, Double>> value) throws Exception {
+                    public Tuple4<Long, Integer, Long, Long> map(Tuple2<Tuple4<Long, Long, Integer, Boolean>, Tuple2<Long, Long>> value) throws Exception {
 
-                        return new Tuple5<Long, Integer, Long, Double, Double>(value.f0.f0, value.f0.f2, value.f1.f0, value.f1.f1, value.f1.f2);
+                        return new Tuple4<Long, Integer, Long, Long>(value.f0.f0, value.f0.f2, value.f1.f0, value.f1.f1);
                     }
                 }).partitionByHash(0);
 
-        // group nodes by way id and sort on node field order
+        // group nodes by way id, each node placed at its order in the way (no sort of the group)
         // way_id, NodePosition[]
         wayNodes = joinedWaysWithPoints
                 .groupBy(0)
-                .sortGroup(1, Order.ASCENDING)
-                .reduceGroup(new GroupReduceFunction<Tuple5<Long, Integer, Long, Double, Double>, Tuple2<Long, NodePosition[]>>() {
+                .reduceGroup(new GroupReduceFunction<Tuple4<Long, Integer, Long, Long>, Tuple2<Long, NodePosition[]>>() {
                     @Override
-                    public void reduce(Iterable<Tuple5<Long, Integer, Long, Double, Double>> values,
+                    public void reduce(Iterable<Tuple4<Long, Integer, Long, Long>> values,
                                        Collector<Tuple2<Long, NodePosition[]>> out) throws Exception {
                         long id = -1;
 
-                        ArrayList<NodePosition> positionsArray = new ArrayList<>();
+                        NodePosition[] slots = new NodePosition[16];
+                        int count = 0;
 
-                        for (Tuple5<Long, Integer, Long, Double, Double> t : values) {
+                        for (Tuple4<Long, Integer, Long, Long> t : values) {
                             id = t.f0;
                             NodePosition p = new NodePosition();
                             p.nodeId = t.f2;
-                            p.lat = t.f3;
-                            p.lon = t.f4;
+                            p.lat = FixedPoint.unpackLat(t.f3);
+                            p.lon = FixedPoint.unpackLon(t.f3);
+
+                            if (t.f1 >= slots.length)
+                                slots = Arrays.copyOf(slots, Math.max(2 * slots.length, t.f1 + 1));
+                            slots[t.f1] = p;
+                            count++;
+                        }
+
+                        // nodes missing from the file leave holes
+                        NodePosition[] elements = new NodePosition[count];
+                        int i = 0;
+                        for (NodePosition p : slots) {
+                            if (p != null)
+                                elements[i++] = p;
+                        }
+
+                        out.collect(new Tuple2<Long, NodePosition[]>(id, elements));
+
+                    }
+                }).returns(WAY_NODES).partitionByHash(0);
+
+    }
+
+    /**
+     * store the node locations, then look up the nodes of each way instead of joining the links with the positions
+     */
+    private void buildWaysFromStore() {
+
+        final Options storeOptions = options;
+
+        if (options.nodeStore == NodeStoreMode.DENSE) {
+
+            if (!(env instanceof LocalEnvironment))
+                LOG.warn("Dense node store in {}, all the tasks must run on this machine", options.nodeStoreFile);
+
+            try {
+                if (storeOptions.nodeStoreFile == null) {
+                    File file = File.createTempFile("nodes", ".locations");
+                    file.deleteOnExit();
+                    storeOptions.nodeStoreFile = file.getAbsolutePath();
+                } else {
+                    // locations of a previous build would be read as nodes of this one
+                    try (RandomAccessFile file = new RandomAccessFile(storeOptions.nodeStoreFile, "rw")) {
+                        file.setLength(0);
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Could not create the node store file: " + e.getMessage(), e);
+            }
+
+            LOG.info("Node locations stored in {}", storeOptions.nodeStoreFile);
+        }
+
+        // each partition of the positions fills a store, merged into one
+        DataSet<NodeLocationStore> nodeStore = nodePositions
+                .mapPartition(new MapPartitionFunction<Tuple2<Long, Long>, NodeLocationStore>() {
+                    @Override
+                    public void mapPartition(Iterable<Tuple2<Long, Long>> values, Collector<NodeLocationStore> out) throws Exception {
+
+                        NodeLocationStore store = createNodeLocationStore(storeOptions);
+                        for (Tuple2<Long, Long> position : values) {
+                            store.put(position.f0, position.f1);
+                        }
+                        store.finish();
+                        out.collect(store);
+                    }
+                }).returns(new GenericTypeInfo<NodeLocationStore>(NodeLocationStore.class))
+                .reduce(new ReduceFunction<NodeLocationStore>() {
+                    @Override
+                    public NodeLocationStore reduce(NodeLocationStore value1, NodeLocationStore value2) throws Exception {
+                        value1.merge(value2);
+                        return value1;
+                    }
+                });
+
+        // way_id, NodePosition[] of the nodes found in the store
+        wayNodes = highways
+                .flatMap(new RichFlatMapFunction<WayEntity, Tuple2<Long, NodePosition[]>>() {
+
+                    private NodeLocationStore store;
+
+                    @Override
+                    public void open(Configuration config) {
+                        store = getNodeLocationStore(getRuntimeContext().<NodeLocationStore>getBroadcastVariable(NODE_STORE));
+                    }
+
+                    @Override
+                    public void flatMap(WayEntity value, Collector<Tuple2<Long, NodePosition[]>> out) throws Exception {
+
+                        if (value.relatedObjects == null)
+                            return;
+
+                        ArrayList<NodePosition> positionsArray = new ArrayList<>();
+
+                        for (RelatedObject r : value.relatedObjects) {
+
+                            long location = store.get(r.relatedId);
+
+                            // nodes missing from the file leave holes
+                            if (!FixedPoint.isValid(location))
+                                continue;
+
+                            NodePosition p = new NodePosition();
+                            p.nodeId = r.relatedId;
+                            p.lat = FixedPoint.unpackLat(location);
+                            p.lon = FixedPoint.unpackLon(location);
                             positionsArray.add(p);
                         }
 
+                        if (positionsArray.isEmpty())
+                            return;
+
                         NodePosition[] elements = new NodePosition[positionsArray.size()];
                         elements = positionsArray.toArray(elements);
 
-                        out.collect(new Tuple2<Long, NodePosition[]>(id, elements));
+                        out.collect(new Tuple2<Long, NodePosition[]>(value.id, elements));
+                    }
+                }).returns(WAY_NODES).withBroadcastSet(nodeStore, NODE_STORE)
+                .partitionByHash(0);
 
+    }
+
+    private static NodeLocationStore getNodeLocationStore(List<NodeLocationStore> stores) {
+        // no node at all
+        return stores.isEmpty() ? new SparseNodeLocationStore() : stores.get(0);
+    }
+
+    private void buildWayLocations() {
+
+        final ClipRegion clipRegion = options.clipRegion;
+
+        // way_id, NodePosition[] from the coordinates stored on the ways
+        wayNodes = highways
+                .flatMap(new FlatMapFunction<WayEntity, Tuple2<Long, NodePosition[]>>() {
+                    @Override
+                    public void flatMap(WayEntity value, Collector<Tuple2<Long, NodePosition[]>> out) throws Exception {
+
+                        if (value.relatedObjects == null || value.locations == null)
+                            return;
+
+                        ArrayList<NodePosition> positionsArray = new ArrayList<>();
+
+                        for (int i = 0; i < value.relatedObjects.length; i++) {
+
+                            // node missing from the extract, as dropped by the node join
+                            if (!FixedPoint.isValid(value.locations[i]))
+                                continue;
+
+                            if (clipRegion != null && !clipRegion.contains(value.locations[i]))
+                                continue;
+
+                            NodePosition p = new NodePosition();
+                            p.nodeId = value.relatedObjects[i].relatedId;
+                            p.lat = FixedPoint.unpackLat(value.locations[i]);
+                            p.lon = FixedPoint.unpackLon(value.locations[i]);
+                            positionsArray.add(p);
+                        }
+
+                        if (positionsArray.isEmpty())
+                            return;
+
+                        NodePosition[] elements = new NodePosition[positionsArray.size()];
+                        elements = positionsArray.toArray(elements);
+
+                        out.collect(new Tuple2<Long, NodePosition[]>(value.id, elements));
                     }
-                }).partitionByHash(0);
+                }).returns(WAY_NODES).partitionByHash(0);
 
     }
 
+    /**
+     * Highways with the coordinates of their nodes in WayEntity.locations, as stored in files with locations on ways.
+     *
+     * Refs to nodes missing from the input, or out of the clip region, are kept with an undefined location.
+     * Ways without any node found are dropped.
+     */
+    public DataSet<WayEntity> getLocatedHighways() {
+
+        return highways.join(wayNodes)
+                .where(new KeySelector<WayEntity, Long>() {
+                    @Override
+                    public Long getKey(WayEntity value) throws Exception {
+                        return value.id;
+                    }
+                }).equalTo(0)
+                .with(new JoinFunction<WayEntity, Tuple2<Long, NodePosition[]>, WayEntity>() {
+                    @Override
+                    public WayEntity join(WayEntity first, Tuple2<Long, NodePosition[]> second) throws Exception {
+
+                        // positions are in ref order, without the nodes not found
+                        NodePosition[] positions = second.f1;
+                        long[] locations = new long[first.relatedObjects.length];
+                        int p = 0;
+                        for (int i = 0; i < locations.length; i++) {
+                            if (p < positions.length && positions[p].nodeId == first.relatedObjects[i].relatedId) {
+                                locations[i] = FixedPoint.pack(positions[p].lat, positions[p].lon);
+                                p++;
+                            } else {
+                                locations[i] = FixedPoint.UNDEFINED;
+                            }
+                        }
+
+                        WayEntity way = new WayEntity();
+                        way.id = first.id;
+                        way.fields = first.fields;
+                        way.classification = first.classification;
+                        way.name = first.name;
+                        way.relatedObjects = first.relatedObjects;
+                        way.locations = locations;
+
+                        return way;
+                    }
+                });
+    }
+
     public FilteredWays getFilteredWays(final Way.ROAD_CLASS filteredClass) {
+        return getFilteredWays(Collections.singletonList(filteredClass));
+    }
+
+    /**
+     * @param filteredClasses road class filter of each level
+     */
+    public FilteredWays getFilteredWays(List<Way.ROAD_CLASS> filteredClasses) {
 
         FilteredWays filteredWays = new FilteredWays();
 
+        final int[] levels = new int[filteredClasses.size()];
+        int maxLevel = -1;
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = filteredClasses.get(i).getValue();
+            maxLevel = Math.max(maxLevel, levels[i]);
+        }
+        filteredWays.levels = levels;
+
+        final int leastFiltered = maxLevel;
+
+        // ways leaving the region are cut into pieces
+        final boolean clipped = options.clipRegion != null;
+
         // create the way entities
         DataSet<Tuple2<Long, Way>> unfilteredWays = rawWays.joinWithHuge(wayNodes)
                 .where(new KeySelector<WayEntity, Long>() {
@@ -237,8 +815,8 @@ public class OSMDataStream {
                             return;
                         }
 
-                        // take only the ways with attributes ??
-                        if (first.fields == null || first.fields.size() == 0) {
+                        // don't include non-highway ways
+                        if (!first.isHighway()) {
                             return;
                         }
 
@@ -247,47 +825,105 @@ public class OSMDataStream {
                             return;
                         }
 
-
-                        Way way = new Way();
-                        way.fields = first.fields;
-                        way.id = first.id;
-                        way.nodes = second.f1;
-
-                        // don't include non-highway ways
-                        if(!way.isHighway())
+                        // don't include tags greater than filter value
+                        if(!FilteredWays.inLevel(WayClassification.roadClass(first.classification), leastFiltered))
                             return;
 
-                        // don't include tags greater than filter value
-                        if(way.roadClass().getValue() > filteredClass.getValue())
+                        if (!clipped) {
+                            out.collect(new Tuple2<>(first.id, createWay(first, second.f1, 0)));
                             return;
+                        }
 
-                        out.collect(new Tuple2<>(way.id, way));
+                        // one way for each run of consecutive refs in the region, the nodes along the gaps are not joined
+                        NodePosition[] positions = second.f1;
+                        int p = 0;
+                        int start = -1;
+                        for (int i = 0; i <= first.relatedObjects.length; i++) {
+
+                            if (i < first.relatedObjects.length && p < positions.length && positions[p].nodeId == first.relatedObjects[i].relatedId) {
+                                if (start < 0)
+                                    start = i;
+                                p++;
+                                continue;
+                            }
+
+                            // the run ends at a gap, or at the end of the way
+                            if (start >= 0 && i - start >= 2) {
+                                NodePosition[] nodes = Arrays.copyOfRange(positions, p - (i - start), p);
+                                out.collect(new Tuple2<>(first.id, createWay(first, nodes, start)));
+                            }
+                            start = -1;
+                        }
                     }
                 }).partitionByHash(0);
 
+        filteredWays.ways = unfilteredWays.map(new MapFunction<Tuple2<Long, Way>, Way>() {
+            @Override
+            public Way map(Tuple2<Long, Way> value) throws Exception {
+                return value.f1;
+            }
+        });
+
+        // links of the pieces of the clipped ways, their first and last nodes are terminal
+        if (clipped) {
+            filteredWays.orderedWayNodeLink = unfilteredWays
+                    .flatMap(new FlatMapFunction<Tuple2<Long, Way>, Tuple5<Long, Long, Integer, Boolean, Integer>>() {
+                        @Override
+                        public void flatMap(Tuple2<Long, Way> value, Collector<Tuple5<Long, Long, Integer, Boolean, Integer>> out) throws Exception {
+
+                            Way way = value.f1;
+                            int max = way.nodes.length - 1;
+                            for (int level : levels) {
+                                if (!FilteredWays.inLevel(way.roadClass(), level))
+                                    continue;
+
+                                for (int i = 0; i <= max; i++)
+                                    out.collect(new Tuple5<>(way.id, way.nodes[i].nodeId, way.firstNodeIndex + i, i == 0 || i == max, level));
+                            }
+                        }
+                    });
+
+            return filteredWays;
+        }
+
+        // way_id, road class of the way
+        DataSet<Tuple2<Long, Way.ROAD_CLASS>> wayClasses = unfilteredWays
+                .map(new MapFunction<Tuple2<Long, Way>, Tuple2<Long, Way.ROAD_CLASS>>() {
+                    @Override
+                    public Tuple2<Long, Way.ROAD_CLASS> map(Tuple2<Long, Way> value) throws Exception {
+                        return new Tuple2<>(value.f0, value.f1.roadClass());
+                    }
+                });
+
+        // links of the ways, once for each level of the way
         filteredWays.orderedWayNodeLink = unfilteredOrderedWayNodeLink
-                .leftOuterJoin(unfilteredWays)
+                .join(wayClasses)
                 .where(0)
                 .equalTo(0)
-                .with(new FlatJoinFunction<Tuple4<Long, Long, Integer, Boolean>, Tuple2<Long, Way>, Tuple4<Long, Long, Integer, Boolean>>() {
+                .with(new FlatJoinFunction<Tuple4<Long, Long, Integer, Boolean>, Tuple2<Long, Way.ROAD_CLASS>, Tuple5<Long, Long, Integer, Boolean, Integer>>() {
                     @Override
-                    public void join(Tuple4<Long, Long, Integer, Boolean> first, Tuple2<Long, Way> second, Collector<Tuple4<Long, Long, Integer, Boolean>> out) throws Exception {
+                    public void join(Tuple4<Long, Long, Integer, Boolean> first, Tuple2<Long, Way.ROAD_CLASS> second, Collector<Tuple5<Long, Long, Integer, Boolean, Integer>> out) throws Exception {
 
-                        if(second != null)
-                            out.collect(first);
+                        for (int level : levels) {
+                            if (FilteredWays.inLevel(second.f1, level))
+                                out.collect(new Tuple5<>(first.f0, first.f1, first.f2, first.f3, level));
+                        }
                     }
                 });
 
-        filteredWays.ways = unfilteredWays.map(new MapFunction<Tuple2<Long, Way>, Way>() {
-            @Override
-            public Way map(Tuple2<Long, Way> value) throws Exception {
-                return value.f1;
-            }
-        });
-
         return filteredWays;
     }
 
+    private static Way createWay(WayEntity entity, NodePosition[] nodes, int firstNodeIndex) {
+
+        Way way = new Way();
+        way.classification = entity.classification;
+        way.name = entity.name;
+        way.id = entity.id;
+        way.nodes = nodes;
+        way.firstNodeIndex = firstNodeIndex;
+        return way;
+    }
 
     private void buildRelations() {
 
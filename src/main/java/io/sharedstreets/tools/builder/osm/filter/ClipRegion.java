@@ -0,0 +1,164 @@
+package io.sharedstreets.tools.builder.osm.filter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jsoniter.JsonIterator;
+import com.jsoniter.any.Any;
+import io.sharedstreets.tools.builder.util.geo.FixedPoint;
+
+/**
+ * Region the input is clipped to, a bounding box optionally refined by a polygon.
+ *
+ * Coordinates are fixed point values (see FixedPoint). Polygons are tested with the even-odd rule over
+ * all their rings, so holes and multipolygon parts are handled as long as the parts do not overlap.
+ */
+public class ClipRegion implements Serializable {
+
+    public int minLat;
+    public int minLon;
+    public int maxLat;
+    public int maxLon;
+
+    // rings as lon, lat vertex pairs in fixed point, null for a plain bounding box
+    private List<int[]> rings;
+
+    public ClipRegion(int minLat, int minLon, int maxLat, int maxLon) {
+        this.minLat = minLat;
+        this.minLon = minLon;
+        this.maxLat = maxLat;
+        this.maxLon = maxLon;
+    }
+
+    /**
+     * @param bbox "min_lon,min_lat,max_lon,max_lat" in degrees
+     */
+    public static ClipRegion fromBBox(String bbox) {
+
+        String[] values = bbox.split(",");
+        if (values.length != 4)
+            throw new IllegalArgumentException("Bounding box has to be min_lon,min_lat,max_lon,max_lat: " + bbox);
+
+        int minLon = FixedPoint.fromDegrees(Double.parseDouble(values[0].trim()));
+        int minLat = FixedPoint.fromDegrees(Double.parseDouble(values[1].trim()));
+        int maxLon = FixedPoint.fromDegrees(Double.parseDouble(values[2].trim()));
+        int maxLat = FixedPoint.fromDegrees(Double.parseDouble(values[3].trim()));
+
+        if (minLon > maxLon || minLat > maxLat)
+            throw new IllegalArgumentException("Empty bounding box: " + bbox);
+
+        return new ClipRegion(minLat, minLon, maxLat, maxLon);
+    }
+
+    /**
+     * read a GeoJSON Polygon or MultiPolygon, alone or in a Feature or FeatureCollection
+     */
+    public static ClipRegion fromGeoJSON(String path) throws IOException {
+
+        String json = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+
+        List<int[]> rings = new ArrayList<>();
+        collectRings(JsonIterator.deserialize(json), rings);
+
+        if (rings.isEmpty())
+            throw new IOException("No polygon in " + path);
+
+        ClipRegion region = new ClipRegion(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE);
+        region.rings = rings;
+
+        for (int[] ring : rings) {
+            for (int i = 0; i < ring.length; i += 2) {
+                region.minLon = Math.min(region.minLon, ring[i]);
+                region.maxLon = Math.max(region.maxLon, ring[i]);
+                region.minLat = Math.min(region.minLat, ring[i + 1]);
+                region.maxLat = Math.max(region.maxLat, ring[i + 1]);
+            }
+        }
+
+        return region;
+    }
+
+    private static void collectRings(Any geojson, List<int[]> rings) throws IOException {
+
+        String type = geojson.toString("type");
+
+        switch (type) {
+            case "FeatureCollection":
+                for (Any feature : geojson.get("features").asList())
+                    collectRings(feature, rings);
+                break;
+            case "Feature":
+                collectRings(geojson.get("geometry"), rings);
+                break;
+            case "Polygon":
+                addPolygon(geojson.get("coordinates"), rings);
+                break;
+            case "MultiPolygon":
+                for (Any polygon : geojson.get("coordinates").asList())
+                    addPolygon(polygon, rings);
+                break;
+            default:
+                throw new IOException("Unsupported GeoJSON type for the clip region: " + type);
+        }
+    }
+
+    private static void addPolygon(Any coordinates, List<int[]> rings) {
+
+        for (Any ring : coordinates.asList()) {
+
+            List<Any> points = ring.asList();
+            int[] vertices = new int[2 * points.size()];
+
+            for (int i = 0; i < points.size(); i++) {
+                vertices[2 * i] = FixedPoint.fromDegrees(points.get(i).toDouble(0));
+                vertices[2 * i + 1] = FixedPoint.fromDegrees(points.get(i).toDouble(1));
+            }
+
+            rings.add(vertices);
+        }
+    }
+
+    public boolean contains(int lat, int lon) {
+
+        if (lat < minLat || lat > maxLat || lon < minLon || lon > maxLon)
+            return false;
+
+        if (rings == null)
+            return true;
+
+        // even-odd ray casting along the longitude axis
+        boolean inside = false;
+        for (int[] ring : rings) {
+            for (int i = 0, j = ring.length - 2; i < ring.length; j = i, i += 2) {
+                long lonI = ring[i], latI = ring[i + 1];
+                long lonJ = ring[j], latJ = ring[j + 1];
+
+                if ((latI > lat) != (latJ > lat)) {
+                    // point left of the edge, on the side of the ray
+                    double cross = (lon - lonI) * (double) (latJ - latI) - (lonJ - lonI) * (double) (lat - latI);
+                    if ((cross < 0) == (latJ > latI))
+                        inside = !inside;
+                }
+            }
+        }
+
+        return inside;
+    }
+
+    public boolean contains(long packed) {
+        return contains(FixedPoint.unpackLat(packed), FixedPoint.unpackLon(packed));
+    }
+
+    /**
+     * @return true if the bounding box of the region overlaps the given box
+     */
+    public boolean intersects(int minLat, int minLon, int maxLat, int maxLon) {
+        return minLat <= this.maxLat && maxLat >= this.minLat && minLon <= this.maxLon && maxLon >= this.minLon;
+    }
+
+}
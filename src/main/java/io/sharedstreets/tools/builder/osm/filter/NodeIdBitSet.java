@@ -0,0 +1,67 @@
+package io.sharedstreets.tools.builder.osm.filter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exact node id set, a bitset split in pages allocated only for the id ranges in use.
+ *
+ * Ids are dense within a region of the planet, a page holds 64k consecutive ids in 8kB.
+ */
+public class NodeIdBitSet implements NodeIdFilter {
+
+    private static final int PAGE_BITS = 16;
+
+    private static final int PAGE_WORDS = (1 << PAGE_BITS) / 64;
+
+    private static final long OFFSET_MASK = (1L << PAGE_BITS) - 1;
+
+    private Map<Long, long[]> pages = new HashMap<>();
+
+    @Override
+    public void add(long nodeId) {
+
+        Long page = nodeId >> PAGE_BITS;
+
+        long[] words = pages.get(page);
+        if (words == null) {
+            words = new long[PAGE_WORDS];
+            pages.put(page, words);
+        }
+
+        int offset = (int) (nodeId & OFFSET_MASK);
+        words[offset >>> 6] |= 1L << offset;
+    }
+
+    @Override
+    public boolean mightContain(long nodeId) {
+
+        long[] words = pages.get(nodeId >> PAGE_BITS);
+        if (words == null)
+            return false;
+
+        int offset = (int) (nodeId & OFFSET_MASK);
+        return (words[offset >>> 6] & (1L << offset)) != 0;
+    }
+
+    @Override
+    public void merge(NodeIdFilter other) {
+
+        for (Map.Entry<Long, long[]> e : ((NodeIdBitSet) other).pages.entrySet()) {
+
+            long[] words = pages.get(e.getKey());
+            if (words == null) {
+                pages.put(e.getKey(), e.getValue().clone());
+            } else {
+                long[] otherWords = e.getValue();
+                for (int i = 0; i < PAGE_WORDS; i++)
+                    words[i] |= otherWords[i];
+            }
+        }
+    }
+
+    public int getPageCount() {
+        return pages.size();
+    }
+
+}
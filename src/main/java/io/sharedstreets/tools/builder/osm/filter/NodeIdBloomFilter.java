@@ -0,0 +1,83 @@
+package io.sharedstreets.tools.builder.osm.filter;
+
+/**
+ * Fixed size Bloom filter over node ids, for planet sized runs where an exact set is too large to broadcast.
+ *
+ * With m bits, k hash functions and n ids the false positive rate is about (1 - e^(-kn/m))^k,
+ * e.g. 10 bits per id and 5 hashes give about 1%.
+ */
+public class NodeIdBloomFilter implements NodeIdFilter {
+
+    private final long[] words;
+
+    private final long bitMask;
+
+    private final int hashes;
+
+    /**
+     * @param log2Bits log2 of the size of the filter in bits
+     * @param hashes number of bits set per id
+     */
+    public NodeIdBloomFilter(int log2Bits, int hashes) {
+
+        if (log2Bits < 6 || log2Bits > 36)
+            throw new IllegalArgumentException("Bloom filter size has to be between 2^6 and 2^36 bits.");
+
+        if (hashes < 1)
+            throw new IllegalArgumentException("Number of hashes has to be at least 1.");
+
+        this.words = new long[(int) ((1L << log2Bits) / 64)];
+        this.bitMask = (1L << log2Bits) - 1;
+        this.hashes = hashes;
+    }
+
+    @Override
+    public void add(long nodeId) {
+
+        long h1 = mix(nodeId);
+        long h2 = mix(h1) | 1;
+
+        for (int i = 0; i < hashes; i++) {
+            long bit = (h1 + i * h2) & bitMask;
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    @Override
+    public boolean mightContain(long nodeId) {
+
+        long h1 = mix(nodeId);
+        long h2 = mix(h1) | 1;
+
+        for (int i = 0; i < hashes; i++) {
+            long bit = (h1 + i * h2) & bitMask;
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public void merge(NodeIdFilter other) {
+
+        NodeIdBloomFilter o = (NodeIdBloomFilter) other;
+
+        if (o.words.length != words.length || o.hashes != hashes)
+            throw new IllegalArgumentException("Cannot merge Bloom filters of different sizes.");
+
+        for (int i = 0; i < words.length; i++)
+            words[i] |= o.words[i];
+    }
+
+    // 64 bit finalizer of MurmurHash3
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
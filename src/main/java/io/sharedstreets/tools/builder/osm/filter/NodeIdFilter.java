@@ -0,0 +1,22 @@
+package io.sharedstreets.tools.builder.osm.filter;
+
+import java.io.Serializable;
+
+/**
+ * Compact set of node ids, built from the way-node links and used to drop the nodes no way refers to.
+ *
+ * Implementations may return false positives but never false negatives: nodes that get through by
+ * mistake are dropped later by the join with the way-node links.
+ */
+public interface NodeIdFilter extends Serializable {
+
+    void add(long nodeId);
+
+    boolean mightContain(long nodeId);
+
+    /**
+     * add all the ids of another filter of the same kind and size
+     */
+    void merge(NodeIdFilter other);
+
+}
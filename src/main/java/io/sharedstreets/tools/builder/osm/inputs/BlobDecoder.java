@@ -0,0 +1,333 @@
+package io.sharedstreets.tools.builder.osm.inputs;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.github.luben.zstd.ZstdDecompressCtx;
+import io.sharedstreets.tools.builder.osm.parser.PrimitiveBlockReader;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+/**
+ * Decompress and parse the data blobs of an OSM PBF file.
+ *
+ * Supports raw, zlib, lz4 and zstd blobs. The decompressors are kept per thread and reused from
+ * one blob to the next, the methods can be called from several decoding threads at once.
+ *
+ * Blob headers and blobs are read in place from byte buffers, which may be slices of a memory mapped file.
+ */
+public class BlobDecoder {
+
+    private static final String OSM_DATA_HEADER = "OSMData";
+
+    // BlobHeader fields
+    private static final int TYPE_FIELD = 1;
+    private static final int DATASIZE_FIELD = 3;
+
+    // Blob fields
+    private static final int RAW_FIELD = 1;
+    private static final int RAW_SIZE_FIELD = 2;
+    private static final int ZLIB_DATA_FIELD = 3;
+    private static final int LZMA_DATA_FIELD = 4;
+    private static final int LZ4_DATA_FIELD = 6;
+    private static final int ZSTD_DATA_FIELD = 7;
+
+    // protobuf wire types
+    private static final int WIRETYPE_VARINT = 0;
+    private static final int WIRETYPE_FIXED64 = 1;
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+    private static final int WIRETYPE_FIXED32 = 5;
+
+    private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private static final ThreadLocal<ZstdDecompressCtx> ZSTD_CONTEXTS = new ThreadLocal<ZstdDecompressCtx>() {
+        @Override
+        protected ZstdDecompressCtx initialValue() {
+            return new ZstdDecompressCtx();
+        }
+    };
+
+    // compressed bytes of mapped blobs, for the codecs only taking arrays
+    private static final ThreadLocal<byte[][]> INPUT_BUFFERS = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            return new byte[1][0];
+        }
+    };
+
+    // stateless, shared by all the threads
+    private static final LZ4SafeDecompressor LZ4_DECOMPRESSOR = LZ4Factory.fastestInstance().safeDecompressor();
+
+    /**
+     * data part of a blob, a slice of the serialized Blob message
+     */
+    private static class BlobData {
+        int codec = -1;
+        int rawSize = -1;
+        ByteBuffer data;
+    }
+
+    /**
+     * Parse a serialized blob, decompress it and open the primitive block it contains.
+     *
+     * @param blobBytes serialized Blob message, as read after the BlobHeader
+     * @return the decoded block, its entities are parsed in place by the parsers
+     * @throws Exception
+     */
+    public static PrimitiveBlockReader decode(byte[] blobBytes) throws Exception {
+
+        assert blobBytes != null;
+
+        return decode(ByteBuffer.wrap(blobBytes), null);
+    }
+
+    /**
+     * Decompress a blob into an array of the buffer pool and open the primitive block it contains.
+     * The array is to be released to the pool once the block has been parsed.
+     *
+     * @param blob serialized Blob message, from the buffer position to its limit
+     * @param buffers pool of the arrays holding the inflated blocks (null to allocate an array per block)
+     */
+    public static PrimitiveBlockReader decode(ByteBuffer blob, BlockBufferPool buffers) throws Exception {
+
+        BlobData data = parseBlob(blob);
+
+        byte[] raw = buffers != null ? buffers.take(data.rawSize) : new byte[data.rawSize];
+        inflate(data, raw);
+
+        return new PrimitiveBlockReader(raw, data.rawSize);
+    }
+
+    /**
+     * decompress the data of a serialized blob
+     *
+     * @param blobBytes serialized Blob message
+     * @return the serialized block held by the blob
+     * @throws Exception
+     */
+    public static byte[] inflate(byte[] blobBytes) throws Exception {
+
+        BlobData data = parseBlob(ByteBuffer.wrap(blobBytes));
+
+        byte[] raw = new byte[data.rawSize];
+        inflate(data, raw);
+
+        return raw;
+    }
+
+    /**
+     * type and size of a blob, as declared by its BlobHeader
+     */
+    public static class BlobHeader {
+
+        public String type;
+        public int dataSize = -1;
+
+        public boolean isData() {
+            return OSM_DATA_HEADER.equals(type);
+        }
+    }
+
+    /**
+     * read the blob at the position of a file buffer, and move the position past it
+     *
+     * @param file buffer positioned on the length prefix of a blob header
+     * @return a slice holding the Blob message of a data block, or null for other block types
+     */
+    public static ByteBuffer nextDataBlob(ByteBuffer file) throws Exception {
+
+        int headerSize = file.getInt();
+
+        BlobHeader header = parseBlobHeader(slice(file, headerSize));
+
+        ByteBuffer blob = slice(file, header.dataSize);
+
+        return header.isData() ? blob : null;
+    }
+
+    /**
+     * @param header serialized BlobHeader message, from the buffer position to its limit
+     */
+    public static BlobHeader parseBlobHeader(ByteBuffer header) throws Exception {
+
+        BlobHeader result = new BlobHeader();
+        ByteBuffer in = header.duplicate();
+
+        while (in.hasRemaining()) {
+
+            int tag = readVarint32(in);
+
+            switch (tag >>> 3) {
+                case TYPE_FIELD:
+                    byte[] typeBytes = new byte[readVarint32(in)];
+                    in.get(typeBytes);
+                    result.type = new String(typeBytes, StandardCharsets.UTF_8);
+                    break;
+                case DATASIZE_FIELD:
+                    result.dataSize = readVarint32(in);
+                    break;
+                default:
+                    skipField(in, tag);
+            }
+        }
+
+        if (result.dataSize < 0)
+            throw new Exception("blob header without data size");
+
+        return result;
+    }
+
+    private static BlobData parseBlob(ByteBuffer blob) throws Exception {
+
+        BlobData result = new BlobData();
+        ByteBuffer in = blob.duplicate();
+
+        while (in.hasRemaining()) {
+
+            int tag = readVarint32(in);
+            int field = tag >>> 3;
+
+            switch (field) {
+                case RAW_FIELD:
+                case ZLIB_DATA_FIELD:
+                case LZMA_DATA_FIELD:
+                case LZ4_DATA_FIELD:
+                case ZSTD_DATA_FIELD:
+                    result.codec = field;
+                    result.data = slice(in, readVarint32(in));
+                    break;
+                case RAW_SIZE_FIELD:
+                    result.rawSize = readVarint32(in);
+                    break;
+                default:
+                    skipField(in, tag);
+            }
+        }
+
+        if (result.data == null)
+            throw new Exception("unsupported blob: no data");
+
+        if (result.codec == RAW_FIELD)
+            result.rawSize = result.data.remaining();
+
+        if (result.rawSize < 0)
+            throw new Exception("unsupported blob: compressed data without raw size");
+
+        return result;
+    }
+
+    private static void inflate(BlobData blob, byte[] raw) throws Exception {
+
+        ByteBuffer data = blob.data;
+        int rawSize = blob.rawSize;
+
+        switch (blob.codec) {
+            case RAW_FIELD:
+                data.duplicate().get(raw, 0, rawSize);
+                break;
+            case ZLIB_DATA_FIELD:
+                inflateZlib(data, raw, rawSize);
+                break;
+            case LZ4_DATA_FIELD:
+                int lz4Size = LZ4_DECOMPRESSOR.decompress(data, data.position(), data.remaining(),
+                        ByteBuffer.wrap(raw), 0, rawSize);
+                if (lz4Size != rawSize)
+                    throw new Exception("corrupted lz4 blob: " + lz4Size + " bytes instead of " + rawSize);
+                break;
+            case ZSTD_DATA_FIELD:
+                byte[] input = inputArray(data);
+                int zstdSize = ZSTD_CONTEXTS.get().decompressByteArray(raw, 0, rawSize,
+                        input, arrayOffset(data), data.remaining());
+                if (zstdSize != rawSize)
+                    throw new Exception("corrupted zstd blob: " + zstdSize + " bytes instead of " + rawSize);
+                break;
+            default:
+                throw new Exception("unsupported blob: lzma compression");
+        }
+    }
+
+    private static void inflateZlib(ByteBuffer data, byte[] raw, int rawSize) throws Exception {
+
+        Inflater decompresser = INFLATERS.get();
+        decompresser.reset();
+        decompresser.setInput(inputArray(data), arrayOffset(data), data.remaining());
+        try {
+            int size = decompresser.inflate(raw, 0, rawSize);
+            if (size != rawSize || !decompresser.finished())
+                throw new Exception("corrupted zlib blob: " + size + " bytes instead of " + rawSize);
+        } catch (DataFormatException e) {
+            throw new Exception(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the array backing the data, or a per thread copy for mapped buffers
+     */
+    private static byte[] inputArray(ByteBuffer data) {
+
+        if (data.hasArray())
+            return data.array();
+
+        byte[][] holder = INPUT_BUFFERS.get();
+        if (holder[0].length < data.remaining())
+            holder[0] = new byte[Integer.highestOneBit(data.remaining()) << 1];
+
+        data.duplicate().get(holder[0], 0, data.remaining());
+        return holder[0];
+    }
+
+    private static int arrayOffset(ByteBuffer data) {
+        return data.hasArray() ? data.arrayOffset() + data.position() : 0;
+    }
+
+    private static ByteBuffer slice(ByteBuffer in, int length) {
+
+        ByteBuffer slice = in.duplicate();
+        slice.limit(in.position() + length);
+        in.position(in.position() + length);
+        return slice.slice();
+    }
+
+    private static int readVarint32(ByteBuffer in) throws Exception {
+
+        int result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            if (shift < 32)
+                result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+        }
+
+        throw new Exception("malformed varint");
+    }
+
+    private static void skipField(ByteBuffer in, int tag) throws Exception {
+
+        switch (tag & 7) {
+            case WIRETYPE_VARINT:
+                readVarint32(in);
+                break;
+            case WIRETYPE_FIXED64:
+                in.position(in.position() + 8);
+                break;
+            case WIRETYPE_LENGTH_DELIMITED:
+                int length = readVarint32(in);
+                in.position(in.position() + length);
+                break;
+            case WIRETYPE_FIXED32:
+                in.position(in.position() + 4);
+                break;
+            default:
+                throw new Exception("unsupported wire type " + (tag & 7));
+        }
+    }
+
+}
@@ -0,0 +1,425 @@
+package io.sharedstreets.tools.builder.osm.inputs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.sharedstreets.shadow.protobuf.CodedInputStream;
+import io.sharedstreets.shadow.protobuf.WireFormat;
+import io.sharedstreets.tools.builder.osm.parser.MessageCursor;
+import io.sharedstreets.tools.builder.osm.parser.PrimitiveBlockReader;
+import io.sharedstreets.tools.builder.util.geo.FixedPoint;
+import org.apache.flink.core.fs.FSDataInputStream;
+import org.apache.flink.core.fs.FSDataOutputStream;
+import org.apache.flink.core.fs.FileStatus;
+import org.apache.flink.core.fs.FileSystem;
+import org.apache.flink.core.fs.Path;
+import org.openstreetmap.osmosis.osmbinary.Fileformat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the blobs of an OSM PBF file, persisted in a sidecar file next to the .pbf (input.pbf.idx).
+ *
+ * For each blob the index stores its position in the file, the kind of entities the block holds,
+ * the range of entity ids and the bounding box of its nodes, so split planning does not have to scan the file and each input format can
+ * leave out the blocks that cannot contain its entity type or region.
+ *
+ * Block contents are only known once a block has been decoded, building the index costs one decoding
+ * pass over the file. The sidecar records the length and modification time of the .pbf and is rebuilt
+ * when they no longer match.
+ */
+public class BlobIndex implements Serializable {
+
+    static Logger LOG = LoggerFactory.getLogger(BlobIndex.class);
+
+    public static final String INDEX_SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x50424958; // "PBIX"
+
+    private static final int VERSION = 2;
+
+    private static final String OSM_DATA_HEADER = "OSMData";
+
+    private static final String OSM_HEADER = "OSMHeader";
+
+    // block content flags
+    public static final int NODES = 1;
+    public static final int DENSE_NODES = 2;
+    public static final int WAYS = 4;
+    public static final int RELATIONS = 8;
+    public static final int CHANGESETS = 16;
+    public static final int HEADER = 32;
+
+    // Node, DenseNodes, Way and Relation fields read to summarize a block
+    private static final int ID_FIELD = 1;
+    private static final int LAT_FIELD = 8;
+    private static final int LON_FIELD = 9;
+
+    public static class Entry implements Serializable {
+
+        // position of the blob header length prefix in the file
+        public long offset;
+
+        // bytes used by the blob: length prefix, header and blob
+        public int length;
+
+        // content flags, see BlobIndex.NODES...
+        public int contents;
+
+        // id range of the entities in the block (0, 0 for blocks without entities)
+        public long minId;
+        public long maxId;
+
+        // fixed point bounding box of the nodes in the block (0, 0, 0, 0 for blocks without nodes)
+        public int minLat;
+        public int minLon;
+        public int maxLat;
+        public int maxLon;
+
+        public boolean contains(int contentMask) {
+            return (contents & contentMask) != 0;
+        }
+
+        public long end() {
+            return offset + length;
+        }
+    }
+
+    public long fileLength;
+    public long modificationTime;
+
+    public Entry[] entries;
+
+    public static Path indexPath(Path pbfPath) {
+        return new Path(pbfPath.toString() + INDEX_SUFFIX);
+    }
+
+    /**
+     * load the sidecar index of a PBF file, building and writing it if missing or stale
+     *
+     * @param pbfPath path of the .pbf file
+     * @param decodeThreads number of threads decoding blocks when the index has to be built
+     * @return the index
+     * @throws IOException
+     */
+    public static BlobIndex loadOrBuild(Path pbfPath, int decodeThreads) throws IOException {
+
+        FileSystem fs = pbfPath.getFileSystem();
+        FileStatus status = fs.getFileStatus(pbfPath);
+
+        BlobIndex index = load(fs, pbfPath, status);
+
+        if (index != null)
+            return index;
+
+        long start = System.currentTimeMillis();
+        index = build(fs, pbfPath, status, decodeThreads);
+        LOG.info("Indexed {} blobs of {} in {} ms", index.entries.length, pbfPath, System.currentTimeMillis() - start);
+
+        try {
+            index.write(fs, indexPath(pbfPath));
+        } catch (IOException e) {
+            // read only input location, the index is kept for this run only
+            LOG.warn("Could not write blob index next to {}: {}", pbfPath, e.getLocalizedMessage());
+        }
+
+        return index;
+    }
+
+    /**
+     * @return the index read from the sidecar file, or null if there is none or it does not match the PBF file
+     */
+    public static BlobIndex load(FileSystem fs, Path pbfPath, FileStatus status) throws IOException {
+
+        Path path = indexPath(pbfPath);
+
+        if (!fs.exists(path))
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(fs.open(path)))) {
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return null;
+
+            BlobIndex index = new BlobIndex();
+            index.fileLength = in.readLong();
+            index.modificationTime = in.readLong();
+
+            if (index.fileLength != status.getLen() || index.modificationTime != status.getModificationTime()) {
+                LOG.info("Blob index {} is out of date", path);
+                return null;
+            }
+
+            index.entries = new Entry[in.readInt()];
+            for (int i = 0; i < index.entries.length; i++) {
+                Entry e = new Entry();
+                e.offset = in.readLong();
+                e.length = in.readInt();
+                e.contents = in.readUnsignedByte();
+                e.minId = in.readLong();
+                e.maxId = in.readLong();
+                e.minLat = in.readInt();
+                e.minLon = in.readInt();
+                e.maxLat = in.readInt();
+                e.maxLon = in.readInt();
+                index.entries[i] = e;
+            }
+
+            return index;
+
+        } catch (IOException e) {
+            LOG.warn("Could not read blob index {}: {}", path, e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    public void write(FileSystem fs, Path path) throws IOException {
+
+        try (FSDataOutputStream stream = fs.create(path, FileSystem.WriteMode.OVERWRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileLength);
+            out.writeLong(modificationTime);
+
+            out.writeInt(entries.length);
+            for (Entry e : entries) {
+                out.writeLong(e.offset);
+                out.writeInt(e.length);
+                out.writeByte(e.contents);
+                out.writeLong(e.minId);
+                out.writeLong(e.maxId);
+                out.writeInt(e.minLat);
+                out.writeInt(e.minLon);
+                out.writeInt(e.maxLat);
+                out.writeInt(e.maxLon);
+            }
+        }
+    }
+
+    /**
+     * scan a PBF file, decoding every data block once to find its contents
+     */
+    public static BlobIndex build(FileSystem fs, Path pbfPath, FileStatus status, int decodeThreads) throws IOException {
+
+        BlobIndex index = new BlobIndex();
+        index.fileLength = status.getLen();
+        index.modificationTime = status.getModificationTime();
+
+        List<Entry> entries = new ArrayList<>();
+
+        // data entries waiting for their block to come back from the decoder pool, in file order
+        ArrayDeque<Entry> decoding = new ArrayDeque<>();
+
+        BlockDecoderPool pool = decodeThreads > 1 ? new BlockDecoderPool(decodeThreads, 2 * decodeThreads) : null;
+
+        BlockBufferPool buffers = new BlockBufferPool(2 * decodeThreads + 1);
+
+        try (FSDataInputStream in = fs.open(pbfPath)) {
+
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+
+            long pos = 0;
+            while (pos < index.fileLength) {
+
+                int headerSize = dis.readInt();
+                byte[] headerBytes = new byte[headerSize];
+                dis.readFully(headerBytes);
+                Fileformat.BlobHeader header = Fileformat.BlobHeader.parseFrom(headerBytes);
+
+                byte[] blob = new byte[header.getDatasize()];
+                dis.readFully(blob);
+
+                Entry entry = new Entry();
+                entry.offset = pos;
+                entry.length = 4 + headerSize + header.getDatasize();
+                entries.add(entry);
+
+                pos += entry.length;
+
+                if (OSM_HEADER.equals(header.getType())) {
+                    entry.contents = HEADER;
+                } else if (OSM_DATA_HEADER.equals(header.getType())) {
+
+                    if (pool == null) {
+                        summarize(entry, BlobDecoder.decode(ByteBuffer.wrap(blob), buffers), buffers);
+                    } else {
+                        if (pool.isFull())
+                            summarize(decoding.pollFirst(), pool.take(), buffers);
+                        pool.submit(ByteBuffer.wrap(blob), buffers);
+                        decoding.add(entry);
+                    }
+                }
+            }
+
+            while (!decoding.isEmpty()) {
+                summarize(decoding.pollFirst(), pool.take(), buffers);
+            }
+
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Could not index " + pbfPath + ": " + e.getMessage(), e);
+        } finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+
+        index.entries = entries.toArray(new Entry[entries.size()]);
+
+        return index;
+    }
+
+    private static void summarize(Entry entry, PrimitiveBlockReader block, BlockBufferPool buffers) throws IOException {
+        summarize(entry, block);
+        buffers.release(block.getData());
+    }
+
+    /**
+     * record the content flags, id range and node bounding box of a decoded block
+     */
+    static void summarize(Entry entry, PrimitiveBlockReader block) throws IOException {
+
+        long[] bounds = {
+                Long.MAX_VALUE, Long.MIN_VALUE, // id
+                Long.MAX_VALUE, Long.MIN_VALUE, // lat, in block coordinate units
+                Long.MAX_VALUE, Long.MIN_VALUE  // lon
+        };
+
+        MessageCursor cursor = new MessageCursor(block,
+                PrimitiveBlockReader.NODES_FIELD, PrimitiveBlockReader.DENSE_FIELD, PrimitiveBlockReader.WAYS_FIELD,
+                PrimitiveBlockReader.RELATIONS_FIELD, PrimitiveBlockReader.CHANGESETS_FIELD);
+
+        int field;
+        while ((field = cursor.next()) != 0) {
+
+            CodedInputStream in = cursor.in();
+
+            switch (field) {
+                case PrimitiveBlockReader.NODES_FIELD:
+                    entry.contents |= NODES;
+                    summarizeNode(in, bounds);
+                    break;
+                case PrimitiveBlockReader.DENSE_FIELD:
+                    if (summarizeDenseNodes(in, bounds))
+                        entry.contents |= DENSE_NODES;
+                    break;
+                case PrimitiveBlockReader.WAYS_FIELD:
+                    entry.contents |= WAYS;
+                    summarizeId(in, bounds);
+                    break;
+                case PrimitiveBlockReader.RELATIONS_FIELD:
+                    entry.contents |= RELATIONS;
+                    summarizeId(in, bounds);
+                    break;
+                case PrimitiveBlockReader.CHANGESETS_FIELD:
+                    entry.contents |= CHANGESETS;
+                    break;
+            }
+        }
+
+        if (bounds[0] <= bounds[1]) {
+            entry.minId = bounds[0];
+            entry.maxId = bounds[1];
+        }
+
+        if (bounds[2] <= bounds[3]) {
+            long granularity = block.getGranularity();
+            entry.minLat = FixedPoint.fromNanodegrees(granularity * bounds[2] + block.getLatOffset());
+            entry.maxLat = FixedPoint.fromNanodegrees(granularity * bounds[3] + block.getLatOffset());
+            entry.minLon = FixedPoint.fromNanodegrees(granularity * bounds[4] + block.getLonOffset());
+            entry.maxLon = FixedPoint.fromNanodegrees(granularity * bounds[5] + block.getLonOffset());
+        }
+    }
+
+    private static void extend(long[] bounds, int index, long value) {
+        bounds[index] = Math.min(bounds[index], value);
+        bounds[index + 1] = Math.max(bounds[index + 1], value);
+    }
+
+    // Node id, lat, lon
+    private static void summarizeNode(CodedInputStream in, long[] bounds) throws IOException {
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case ID_FIELD:
+                    extend(bounds, 0, in.readSInt64());
+                    break;
+                case LAT_FIELD:
+                    extend(bounds, 2, in.readSInt64());
+                    break;
+                case LON_FIELD:
+                    extend(bounds, 4, in.readSInt64());
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+    }
+
+    // DenseNodes id, lat, lon arrays, each bound only depends on its own array
+    private static boolean summarizeDenseNodes(CodedInputStream in, long[] bounds) throws IOException {
+
+        boolean hasNodes = false;
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+
+            int index;
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case ID_FIELD:
+                    index = 0;
+                    break;
+                case LAT_FIELD:
+                    index = 2;
+                    break;
+                case LON_FIELD:
+                    index = 4;
+                    break;
+                default:
+                    in.skipField(tag);
+                    continue;
+            }
+
+            if (WireFormat.getTagWireType(tag) != WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                in.skipField(tag);
+                continue;
+            }
+
+            int limit = in.pushLimit(in.readRawVarint32());
+            long value = 0;
+            while (in.getBytesUntilLimit() > 0) {
+                value += in.readSInt64();
+                extend(bounds, index, value);
+                hasNodes |= index == 0;
+            }
+            in.popLimit(limit);
+        }
+
+        return hasNodes;
+    }
+
+    // Way and Relation id
+    private static void summarizeId(CodedInputStream in, long[] bounds) throws IOException {
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (WireFormat.getTagFieldNumber(tag) == ID_FIELD) {
+                extend(bounds, 0, in.readInt64());
+                return;
+            }
+            in.skipField(tag);
+        }
+    }
+
+}
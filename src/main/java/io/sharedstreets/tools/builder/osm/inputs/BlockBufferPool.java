@@ -0,0 +1,58 @@
+package io.sharedstreets.tools.builder.osm.inputs;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Arrays holding inflated blocks, handed back once a block has been parsed and reused for the next blobs.
+ *
+ * Blocks are up to 32 MB, allocating one array per blob churns through large arrays that G1 places in
+ * humongous regions. Arrays are sized to powers of two so they fit the following blocks of a file.
+ * Arrays can be taken and released from any thread.
+ */
+public class BlockBufferPool {
+
+    private static final int MIN_SIZE = 1 << 16;
+
+    private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger freeCount = new AtomicInteger();
+
+    private final int maxFree;
+
+    /**
+     * @param maxFree number of released arrays kept for reuse, arrays released beyond that are left to the GC
+     */
+    public BlockBufferPool(int maxFree) {
+        this.maxFree = maxFree;
+    }
+
+    /**
+     * @return an array of at least size bytes
+     */
+    public byte[] take(int size) {
+
+        byte[] buffer = free.poll();
+
+        if (buffer != null) {
+            freeCount.decrementAndGet();
+            if (buffer.length >= size)
+                return buffer;
+            // too small for this block, replaced by a larger one
+        }
+
+        int capacity = Math.max(MIN_SIZE, Integer.highestOneBit(Math.max(1, size - 1)) << 1);
+        return new byte[capacity > 0 ? capacity : size];
+    }
+
+    public void release(byte[] buffer) {
+
+        if (freeCount.incrementAndGet() > maxFree) {
+            freeCount.decrementAndGet();
+            return;
+        }
+
+        free.offer(buffer);
+    }
+
+}
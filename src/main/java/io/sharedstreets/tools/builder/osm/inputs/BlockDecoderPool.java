@@ -0,0 +1,128 @@
+package io.sharedstreets.tools.builder.osm.inputs;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.sharedstreets.tools.builder.osm.parser.PrimitiveBlockReader;
+
+/**
+ * Bounded pool of inflate + parse workers.
+ *
+ * The reading thread submits raw blobs in file order and takes the decoded blocks back in the same order,
+ * so the parsers downstream see exactly the sequence they would see with a single threaded decode.
+ * At most queueDepth blobs are in flight, which bounds the memory held by inflated blocks.
+ */
+public class BlockDecoderPool {
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private final ExecutorService workers;
+
+    private final ArrayDeque<Future<PrimitiveBlockReader>> pending;
+
+    private final int queueDepth;
+
+    public BlockDecoderPool(int threads, int queueDepth) {
+
+        if (threads < 1)
+            throw new IllegalArgumentException("Number of decoding threads has to be at least 1.");
+
+        if (queueDepth < threads)
+            throw new IllegalArgumentException("Decoding queue depth has to be at least the number of threads.");
+
+        final int poolId = POOL_COUNT.incrementAndGet();
+
+        this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            private int threadCount = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "pbf-decoder-" + poolId + "-" + threadCount++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        this.pending = new ArrayDeque<>(queueDepth);
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * @return true if no more blobs can be submitted before taking a block
+     */
+    public boolean isFull() {
+        return pending.size() >= queueDepth;
+    }
+
+    /**
+     * @return true if no decoded or in flight blocks are waiting to be taken
+     */
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * queue a serialized blob for decoding
+     *
+     * @param blob serialized Blob message
+     * @param buffers pool of the arrays holding the inflated blocks (null to allocate an array per block)
+     */
+    public void submit(final ByteBuffer blob, final BlockBufferPool buffers) {
+
+        assert !isFull();
+
+        pending.addLast(workers.submit(new Callable<PrimitiveBlockReader>() {
+            @Override
+            public PrimitiveBlockReader call() throws Exception {
+                return BlobDecoder.decode(blob, buffers);
+            }
+        }));
+    }
+
+    /**
+     * wait for the oldest submitted blob and return its decoded block
+     *
+     * @return the decoded block, or null if nothing is pending
+     * @throws Exception the exception raised while decoding the blob
+     */
+    public PrimitiveBlockReader take() throws Exception {
+
+        Future<PrimitiveBlockReader> next = pending.pollFirst();
+
+        if (next == null)
+            return null;
+
+        try {
+            return next.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * drop all pending blocks, used when a split is closed before being fully read
+     */
+    public void clear() {
+
+        for (Future<PrimitiveBlockReader> f : pending) {
+            f.cancel(true);
+        }
+        pending.clear();
+    }
+
+    public void shutdown() {
+        clear();
+        workers.shutdownNow();
+    }
+
+}
@@ -0,0 +1,104 @@
+package io.sharedstreets.tools.builder.osm.inputs;
+
+import java.nio.ByteBuffer;
+
+import io.sharedstreets.tools.builder.osm.filter.ClipRegion;
+import io.sharedstreets.tools.builder.osm.model.OSMEntity;
+import io.sharedstreets.tools.builder.osm.parser.EntityParser;
+import io.sharedstreets.tools.builder.osm.parser.NodePositionParser;
+import io.sharedstreets.tools.builder.osm.parser.PrimitiveBlockReader;
+import io.sharedstreets.tools.builder.osm.parser.RelationParser;
+import io.sharedstreets.tools.builder.osm.parser.TagFilter;
+import io.sharedstreets.tools.builder.osm.parser.WayParser;
+import org.apache.flink.api.common.functions.RichFlatMapFunction;
+import org.apache.flink.api.common.typeinfo.BasicTypeInfo;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.java.typeutils.EitherTypeInfo;
+import org.apache.flink.api.java.typeutils.GenericTypeInfo;
+import org.apache.flink.api.java.typeutils.ResultTypeQueryable;
+import org.apache.flink.api.java.typeutils.TupleTypeInfo;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.types.Either;
+import org.apache.flink.util.Collector;
+
+/**
+ * Decode serialized blobs into entities, for the blobs read by OSMPBFStreamInputFormat.
+ *
+ * Nodes are emitted on the left as (node_id, packed fixed point lat/lon), their tags are not decoded. Ways and
+ * relations are emitted on the right, parsed as by OSMPBFEntityInputFormat.
+ */
+public class OSMPBFBlobParser extends RichFlatMapFunction<byte[], Either<Tuple2<Long, Long>, OSMEntity>>
+        implements ResultTypeQueryable<Either<Tuple2<Long, Long>, OSMEntity>> {
+
+    private TagFilter wayFilter;
+
+    private boolean wayLocations = false;
+
+    private boolean wayTags = true;
+
+    private ClipRegion clipRegion;
+
+    // array of the block being parsed, reused for the next blob
+    private transient BlockBufferPool buffers;
+
+    /**
+     * only parse the ways having all the keys of the filter
+     */
+    public void setWayFilter(TagFilter wayFilter) {
+        this.wayFilter = wayFilter;
+    }
+
+    /**
+     * read the node coordinates stored on the ways
+     */
+    public void setWayLocations(boolean wayLocations) {
+        this.wayLocations = wayLocations;
+    }
+
+    /**
+     * keep all the tags of the ways, otherwise only their classification and name
+     */
+    public void setWayTags(boolean wayTags) {
+        this.wayTags = wayTags;
+    }
+
+    /**
+     * only emit the nodes in the region
+     */
+    public void setClipRegion(ClipRegion clipRegion) {
+        this.clipRegion = clipRegion;
+    }
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+        buffers = new BlockBufferPool(1);
+    }
+
+    @Override
+    public void flatMap(byte[] blob, Collector<Either<Tuple2<Long, Long>, OSMEntity>> out) throws Exception {
+
+        PrimitiveBlockReader block = BlobDecoder.decode(ByteBuffer.wrap(blob), buffers);
+
+        NodePositionParser nodes = new NodePositionParser(block, clipRegion);
+        while (nodes.nextPosition())
+            out.collect(Either.<Tuple2<Long, Long>, OSMEntity>Left(new Tuple2<>(nodes.getId(), nodes.getPosition())));
+
+        EntityParser entities = new EntityParser(null, new WayParser(block, wayFilter, wayLocations, wayTags), new RelationParser(block));
+        OSMEntity entity;
+        while ((entity = entities.next()) != null)
+            out.collect(Either.<Tuple2<Long, Long>, OSMEntity>Right(entity));
+
+        // the entities do not refer to the block array
+        buffers.release(block.getData());
+    }
+
+    @Override
+    public TypeInformation<Either<Tuple2<Long, Long>, OSMEntity>> getProducedType() {
+        // positions go through the tuple serializer, only ways and relations are generic
+        return new EitherTypeInfo<>(
+                new TupleTypeInfo<Tuple2<Long, Long>>(BasicTypeInfo.LONG_TYPE_INFO, BasicTypeInfo.LONG_TYPE_INFO),
+                new GenericTypeInfo<>(OSMEntity.class));
+    }
+
+}
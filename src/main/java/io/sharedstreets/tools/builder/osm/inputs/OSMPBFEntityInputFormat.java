@@ -0,0 +1,88 @@
+package io.sharedstreets.tools.builder.osm.inputs;
+
+
+import java.io.IOException;
+
+import io.sharedstreets.tools.builder.osm.model.OSMEntity;
+import io.sharedstreets.tools.builder.osm.parser.EntityParser;
+import io.sharedstreets.tools.builder.osm.parser.NodeParser;
+import io.sharedstreets.tools.builder.osm.parser.Parser;
+import io.sharedstreets.tools.builder.osm.parser.PrimitiveBlockReader;
+import io.sharedstreets.tools.builder.osm.parser.RelationParser;
+import io.sharedstreets.tools.builder.osm.parser.TagFilter;
+import io.sharedstreets.tools.builder.osm.parser.WayParser;
+
+/**
+ * Reads nodes, ways and relations in a single pass, each block is decoded once and its entities are
+ * emitted as OSMEntity records to be split by type downstream.
+ */
+public class OSMPBFEntityInputFormat extends OSMPBFInputFormat<OSMEntity> {
+
+    private boolean nodes = true;
+    private boolean ways = true;
+    private boolean relations = true;
+
+    private TagFilter wayFilter;
+
+    private boolean wayLocations = false;
+
+    private boolean wayTags = true;
+
+    /**
+     * select the entity types to read, blocks holding none of them are skipped
+     */
+    public void setEntityTypes(boolean nodes, boolean ways, boolean relations) {
+        this.nodes = nodes;
+        this.ways = ways;
+        this.relations = relations;
+    }
+
+    /**
+     * only read the ways having all the keys of the filter, other ways are skipped while parsing
+     */
+    public void setWayFilter(TagFilter wayFilter) {
+        this.wayFilter = wayFilter;
+    }
+
+    public TagFilter getWayFilter() {
+        return wayFilter;
+    }
+
+    /**
+     * read the node coordinates stored on the ways, for files with the LocationsOnWays feature
+     */
+    public void setWayLocations(boolean wayLocations) {
+        this.wayLocations = wayLocations;
+    }
+
+    public boolean getWayLocations() {
+        return wayLocations;
+    }
+
+    /**
+     * keep all the tags of the ways, otherwise only their classification and name are read
+     */
+    public void setWayTags(boolean wayTags) {
+        this.wayTags = wayTags;
+    }
+
+    public boolean getWayTags() {
+        return wayTags;
+    }
+
+    @Override
+    protected Parser<OSMEntity> createParser(PrimitiveBlockReader p) throws IOException {
+        return new EntityParser(
+                nodes ? new NodeParser(p, getClipRegion()) : null,
+                ways ? new WayParser(p, wayFilter, wayLocations, wayTags) : null,
+                relations ? new RelationParser(p) : null);
+    }
+
+    @Override
+    protected int acceptedContents() {
+        return (nodes ? BlobIndex.NODES | BlobIndex.DENSE_NODES : 0)
+                | (ways ? BlobIndex.WAYS : 0)
+                | (relations ? BlobIndex.RELATIONS : 0);
+    }
+
+}
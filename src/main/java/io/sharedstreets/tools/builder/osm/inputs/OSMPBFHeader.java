@@ -0,0 +1,92 @@
+package io.sharedstreets.tools.builder.osm.inputs;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.flink.core.fs.FSDataInputStream;
+import org.apache.flink.core.fs.FileSystem;
+import org.apache.flink.core.fs.Path;
+import org.openstreetmap.osmosis.osmbinary.Fileformat;
+import org.openstreetmap.osmosis.osmbinary.Osmformat;
+
+/**
+ * Features declared in the OSMHeader block of a PBF file.
+ */
+public class OSMPBFHeader {
+
+    private static final String OSM_HEADER = "OSMHeader";
+
+    // ways carry the coordinates of their nodes (lat / lon fields of Way)
+    public static final String LOCATIONS_ON_WAYS = "LocationsOnWays";
+
+    // entities sorted by type (nodes, ways then relations) and id
+    public static final String SORTED = "Sort.Type_then_ID";
+
+    public List<String> requiredFeatures = new ArrayList<>();
+    public List<String> optionalFeatures = new ArrayList<>();
+
+    public boolean hasFeature(String feature) {
+        return requiredFeatures.contains(feature) || optionalFeatures.contains(feature);
+    }
+
+    public boolean hasLocationsOnWays() {
+        return hasFeature(LOCATIONS_ON_WAYS);
+    }
+
+    public boolean isSorted() {
+        return hasFeature(SORTED);
+    }
+
+    /**
+     * read the header block at the start of a PBF file
+     *
+     * @return the header, without any feature if the file does not start with a header block
+     * @throws IOException
+     */
+    public static OSMPBFHeader read(Path pbfPath) throws IOException {
+
+        OSMPBFHeader header = new OSMPBFHeader();
+
+        FileSystem fs = pbfPath.getFileSystem();
+
+        try (FSDataInputStream in = fs.open(pbfPath)) {
+
+            DataInputStream dis = new DataInputStream(in);
+
+            byte[] headerBytes = new byte[dis.readInt()];
+            dis.readFully(headerBytes);
+            Fileformat.BlobHeader blobHeader = Fileformat.BlobHeader.parseFrom(headerBytes);
+
+            if (!OSM_HEADER.equals(blobHeader.getType()))
+                return header;
+
+            byte[] blob = new byte[blobHeader.getDatasize()];
+            dis.readFully(blob);
+
+            return fromBlob(blob);
+
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Could not read header of " + pbfPath + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param blob serialized Blob message of an OSMHeader block
+     */
+    public static OSMPBFHeader fromBlob(byte[] blob) throws Exception {
+
+        OSMPBFHeader header = new OSMPBFHeader();
+
+        Osmformat.HeaderBlock block = Osmformat.HeaderBlock.parseFrom(BlobDecoder.inflate(blob));
+
+        header.requiredFeatures.addAll(block.getRequiredFeaturesList());
+        header.optionalFeatures.addAll(block.getOptionalFeaturesList());
+
+        return header;
+    }
+
+}
@@ -1,31 +1,28 @@
 package io.sharedstreets.tools.builder.osm.inputs;
 
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
 
-import io.sharedstreets.tools.builder.osm.model.AttributedEntity;
-import io.sharedstreets.tools.builder.osm.model.NodeEntity;
+import io.sharedstreets.tools.builder.osm.filter.ClipRegion;
 import io.sharedstreets.tools.builder.osm.parser.Parser;
+import io.sharedstreets.tools.builder.osm.parser.PrimitiveBlockReader;
 import org.apache.flink.api.common.io.FileInputFormat;
+import org.apache.flink.configuration.Configuration;
 import org.apache.flink.core.fs.BlockLocation;
-import org.apache.flink.core.fs.FSDataInputStream;
 import org.apache.flink.core.fs.FileInputSplit;
 import org.apache.flink.core.fs.FileStatus;
 import org.apache.flink.core.fs.FileSystem;
 import org.apache.flink.core.fs.Path;
 
-import io.sharedstreets.shadow.protobuf.ByteString;
-import io.sharedstreets.shadow.protobuf.InvalidProtocolBufferException;
-import org.openstreetmap.osmosis.osmbinary.Fileformat;
-import org.openstreetmap.osmosis.osmbinary.Osmformat;
-
 
 /**
  * OSMPBF Input Format
@@ -35,7 +32,38 @@ import org.openstreetmap.osmosis.osmbinary.Osmformat;
  */
 public abstract class OSMPBFInputFormat<T> extends FileInputFormat<T> {
 
-    private static final String OSM_DATA_HEADER = "OSMData";
+    public static final String DECODE_THREADS_KEY = "osm.pbf.decode.threads";
+
+    public static final String DECODE_QUEUE_DEPTH_KEY = "osm.pbf.decode.queue-depth";
+
+    public static final String SPLIT_TARGET_SIZE_KEY = "osm.pbf.split.target-size";
+
+    public static final long DEFAULT_SPLIT_TARGET_SIZE = 64L * 1024 * 1024;
+
+    public static final String MEMORY_MAP_KEY = "osm.pbf.mmap";
+
+    private int decodeThreads = 1;
+
+    private int decodeQueueDepth = 0;
+
+    private long splitTargetSize = DEFAULT_SPLIT_TARGET_SIZE;
+
+    private ClipRegion clipRegion;
+
+    private boolean memoryMap = true;
+
+    private transient BlockDecoderPool decoderPool;
+
+    // arrays of the inflated blocks, reused once a block is parsed
+    private transient BlockBufferPool buffers;
+
+    // mapped range of the current split, null when reading through the stream
+    private transient ByteBuffer mapped;
+    private transient long mappedStart;
+
+    // blobs of the current split, and the next one to read
+    private transient BlobIndex.Entry[] blobs;
+    private transient int nextBlob;
 
     @Override
     public FileInputSplit[] createInputSplits(int minNumSplits) throws IOException {
@@ -63,60 +91,244 @@ public abstract class OSMPBFInputFormat<T> extends FileInputFormat<T> {
         for (final FileStatus file : files) {
 
             final BlockLocation[] blocks = fs.getFileBlockLocations(file, 0, file.getLen());
-            Set<String> hosts = new HashSet<String>();
-            for (BlockLocation block : blocks) {
-                hosts.addAll(Arrays.asList(block.getHosts()));
-            }
 
-            FSDataInputStream in = fs.open(path);
-            try {
-                DataInputStream dis = new DataInputStream(in);
-                long pos = 0;
-                while (in.available() > 0) {
-                    int len = dis.readInt();
-                    byte[] blobHeader = new byte[len];
-                    in.read(blobHeader);
-                    Fileformat.BlobHeader h = Fileformat.BlobHeader.parseFrom(blobHeader);
-                    FileInputSplit split = new FileInputSplit(splitNum++, file.getPath(), pos, len + h.getDatasize(),
-                            hosts.toArray(new String[hosts.size()]));
-                    inputSplits.add(split);
-                    pos += 4;
-                    pos += len;
-                    pos += h.getDatasize();
-                    in.skip(h.getDatasize());
+            BlobIndex index = BlobIndex.loadOrBuild(file.getPath(), decodeThreads);
+
+            // blobs that can hold entities read by this format
+            List<BlobIndex.Entry> accepted = new ArrayList<>();
+            long acceptedBytes = 0;
+            for (BlobIndex.Entry entry : index.entries) {
+                if (acceptBlob(entry)) {
+                    accepted.add(entry);
+                    acceptedBytes += entry.length;
                 }
-            } catch (IOException e) {
-                System.out.println(e.getLocalizedMessage());
-            } finally {
-                if (in != null) {
-                    try {
-                        in.close();
-                    } catch (Exception e) {
-                    }
+            }
+
+            // group consecutive blobs up to the target size, smaller if needed to get minNumSplits splits
+            long targetSize = Math.max(1, Math.min(splitTargetSize, acceptedBytes / minNumSplits));
+
+            List<BlobIndex.Entry> group = new ArrayList<>();
+            long groupBytes = 0;
+            for (BlobIndex.Entry entry : accepted) {
+
+                if (!group.isEmpty() && groupBytes + entry.length > targetSize) {
+                    inputSplits.add(createSplit(splitNum++, file.getPath(), group, blocks));
+                    group.clear();
+                    groupBytes = 0;
                 }
+
+                group.add(entry);
+                groupBytes += entry.length;
             }
 
+            if (!group.isEmpty())
+                inputSplits.add(createSplit(splitNum++, file.getPath(), group, blocks));
+
         }
         return inputSplits.toArray(new FileInputSplit[inputSplits.size()]);
 
     }
 
+    private OSMPBFInputSplit createSplit(int splitNum, Path path, List<BlobIndex.Entry> group, BlockLocation[] blocks)
+            throws IOException {
+
+        BlobIndex.Entry[] blobs = group.toArray(new BlobIndex.Entry[group.size()]);
+
+        long start = blobs[0].offset;
+        long end = blobs[blobs.length - 1].end();
+
+        // hosts holding any part of the split
+        Set<String> hosts = new HashSet<String>();
+        for (BlockLocation block : blocks) {
+            if (block.getOffset() < end && block.getOffset() + block.getLength() > start)
+                hosts.addAll(Arrays.asList(block.getHosts()));
+        }
+
+        return new OSMPBFInputSplit(splitNum, path, blobs, hosts.toArray(new String[hosts.size()]));
+    }
+
+    /**
+     * Blob content flags (see BlobIndex) of the blocks this format reads, blocks without any of them are skipped.
+     */
+    protected abstract int acceptedContents();
+
+    /**
+     * @return true if the blob may hold entities read by this format
+     */
+    protected boolean acceptBlob(BlobIndex.Entry entry) {
+
+        if (!entry.contains(acceptedContents()))
+            return false;
+
+        // blocks where this format only reads nodes, all of them out of the clip region
+        boolean nodesOnly = (entry.contents & acceptedContents() & ~(BlobIndex.NODES | BlobIndex.DENSE_NODES)) == 0;
+        if (clipRegion != null && nodesOnly)
+            return clipRegion.intersects(entry.minLat, entry.minLon, entry.maxLat, entry.maxLon);
+
+        return true;
+    }
+
+    /**
+     * Only read the nodes in the region. Node blocks out of the region are skipped when planning the splits,
+     * the nodes of the other blocks are filtered while parsing.
+     */
+    public void setClipRegion(ClipRegion clipRegion) {
+        this.clipRegion = clipRegion;
+    }
+
+    public ClipRegion getClipRegion() {
+        return clipRegion;
+    }
+
+    @Override
+    public void configure(Configuration parameters) {
+        super.configure(parameters);
+
+        this.decodeThreads = parameters.getInteger(DECODE_THREADS_KEY, this.decodeThreads);
+        this.decodeQueueDepth = parameters.getInteger(DECODE_QUEUE_DEPTH_KEY, this.decodeQueueDepth);
+        this.splitTargetSize = parameters.getLong(SPLIT_TARGET_SIZE_KEY, this.splitTargetSize);
+        this.memoryMap = parameters.getBoolean(MEMORY_MAP_KEY, this.memoryMap);
+    }
+
+    /**
+     * Map the splits of local files in memory, blobs are then decoded from the mapped pages without
+     * being copied. Other file systems are always read through the input stream.
+     */
+    public void setMemoryMap(boolean memoryMap) {
+        this.memoryMap = memoryMap;
+    }
+
+    public boolean getMemoryMap() {
+        return memoryMap;
+    }
+
+    /**
+     * Target size in bytes of the input splits. Consecutive blobs are grouped in a split up to this size,
+     * splits get smaller when needed to create the requested minimum number of splits.
+     */
+    public void setSplitTargetSize(long splitTargetSize) {
+        if (splitTargetSize < 1)
+            throw new IllegalArgumentException("Split target size has to be positive.");
+        this.splitTargetSize = splitTargetSize;
+    }
+
+    public long getSplitTargetSize() {
+        return splitTargetSize;
+    }
+
+    /**
+     * Number of threads inflating and parsing blobs for each reading task.
+     * With a single thread blobs are decoded inline on the task thread.
+     */
+    public void setDecodeThreads(int decodeThreads) {
+        if (decodeThreads < 1)
+            throw new IllegalArgumentException("Number of decoding threads has to be at least 1.");
+        this.decodeThreads = decodeThreads;
+    }
+
+    public int getDecodeThreads() {
+        return decodeThreads;
+    }
+
+    /**
+     * Maximum number of blobs read ahead and waiting to be decoded, or decoded and waiting to be parsed.
+     * Defaults to twice the number of decoding threads.
+     */
+    public void setDecodeQueueDepth(int decodeQueueDepth) {
+        this.decodeQueueDepth = decodeQueueDepth;
+    }
+
+    public int getDecodeQueueDepth() {
+        return decodeQueueDepth;
+    }
+
+    @Override
+    public void openInputFormat() throws IOException {
+        super.openInputFormat();
+
+        int queueDepth = 0;
+
+        if (decodeThreads > 1) {
+            queueDepth = Math.max(decodeQueueDepth > 0 ? decodeQueueDepth : 2 * decodeThreads, decodeThreads);
+            decoderPool = new BlockDecoderPool(decodeThreads, queueDepth);
+        }
+
+        // blocks in flight plus the one being parsed
+        buffers = new BlockBufferPool(queueDepth + 1);
+    }
+
+    @Override
+    public void closeInputFormat() throws IOException {
+        if (decoderPool != null) {
+            decoderPool.shutdown();
+            decoderPool = null;
+        }
+        buffers = null;
+        super.closeInputFormat();
+    }
+
     @Override
     public void open(FileInputSplit fileSplit) throws IOException {
         super.open(fileSplit);
         current = null;
+        blobs = ((OSMPBFInputSplit) fileSplit).getBlobs();
+        nextBlob = 0;
+
+        mapped = null;
+        if (memoryMap && blobs.length > 0 && !fileSplit.getPath().getFileSystem().isDistributedFS())
+            mapSplit(fileSplit);
+    }
+
+    private void mapSplit(FileInputSplit fileSplit) throws IOException {
+
+        long start = blobs[0].offset;
+        long length = blobs[blobs.length - 1].end() - start;
+
+        if (length > Integer.MAX_VALUE)
+            return;
+
+        File file = new File(fileSplit.getPath().toUri().getPath());
+
+        // the mapping stays valid once the channel is closed
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            mappedStart = start;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (decoderPool != null)
+            decoderPool.clear();
+        releaseBlock();
+        mapped = null;
+        super.close();
+    }
+
+    private void releaseBlock() {
+        if (currentBlock != null && buffers != null)
+            buffers.release(currentBlock.getData());
+        currentBlock = null;
+        current = null;
     }
 
     @Override
     public boolean reachedEnd() throws IOException {
-        return current == null && stream.getPos() >= splitStart + splitLength;
+        return current == null && (decoderPool == null || decoderPool.isEmpty()) && splitExhausted();
+    }
+
+    private boolean splitExhausted() {
+        return nextBlob >= blobs.length;
     }
 
-    Parser<NodeEntity> current;
+    Parser<T> current;
+
+    // block parsed by current
+    private transient PrimitiveBlockReader currentBlock;
 
     // NodeParser current;
 
-    protected abstract Parser createParser(Osmformat.PrimitiveBlock p);
+    protected abstract Parser<T> createParser(PrimitiveBlockReader p) throws IOException;
 
     @Override
     public T nextRecord(T reuse) throws IOException {
@@ -128,33 +340,28 @@ public abstract class OSMPBFInputFormat<T> extends FileInputFormat<T> {
                 if (reachedEnd())
                     return null;
 
-                // System.out.println(currentSplit + "read chunk");
-                Osmformat.PrimitiveBlock p = readChunk(new DataInputStream(stream));
-
-                while (p == null && !reachedEnd()) {
-                    // System.out.println(currentSplit + "non data block,
-                    // continue");
-                    p = readChunk(new DataInputStream(stream));
-                }
+                PrimitiveBlockReader p = nextBlock(new DataInputStream(stream));
 
                 if (p == null)
                     return null;
 
+                currentBlock = p;
                 current = createParser(p);
 
             }
 
             assert current != null;
-            AttributedEntity n = current.next();
+            // parsers supporting it fill the reuse record
+            T n = current.next(reuse);
             if (n == null) {
                 // System.out.println(currentSplit + "end of the split ,parser
                 // returned null");
-                current = null;
+                releaseBlock();
                 return nextRecord(reuse);
             }
 
             // System.out.println("return " + n);
-            return (T) n;
+            return n;
 
         } catch (Exception ex) {
             ex.printStackTrace(System.err);
@@ -164,77 +371,66 @@ public abstract class OSMPBFInputFormat<T> extends FileInputFormat<T> {
     }
 
     /**
-     * read data chunk
+     * get the next decoded data block of the split, either decoding inline or through the decoder pool
      *
      * @param datinput
-     * @throws IOException
-     * @throws InvalidProtocolBufferException
+     * @return the next block, or null if the split has no more data blocks
+     * @throws Exception
      */
-    private Osmformat.PrimitiveBlock readChunk(DataInputStream datinput) throws Exception {
-
-        assert datinput != null;
-
-        int headersize = datinput.readInt();
-
-        byte buf[] = new byte[headersize];
-        datinput.readFully(buf);
-
-        // System.out.format("Read buffer for header of %d bytes\n",buf.length);
-        Fileformat.BlobHeader header = Fileformat.BlobHeader.parseFrom(buf);
+    private PrimitiveBlockReader nextBlock(DataInputStream datinput) throws Exception {
 
-        int datasize = header.getDatasize();
+        if (decoderPool == null) {
 
-        // System.out.println("block type :" + header.getType());
-        // System.out.println("datasize :" + datasize);
-
-        byte b[] = new byte[datasize];
-        datinput.readFully(b);
-
-        Fileformat.Blob blob = Fileformat.Blob.parseFrom(b);
+            while (!splitExhausted()) {
+                ByteBuffer blob = readChunk(datinput);
+                if (blob != null)
+                    return BlobDecoder.decode(blob, buffers);
+                // non data block, continue
+            }
 
-        if (OSM_DATA_HEADER.equals(header.getType())) {
-            return parseData(blob);
+            return null;
         }
 
-        return null;
+        // read ahead so the workers stay busy while the current block is being parsed
+        while (!decoderPool.isFull() && !splitExhausted()) {
+            ByteBuffer blob = readChunk(datinput);
+            if (blob != null)
+                decoderPool.submit(blob, buffers);
+        }
 
+        return decoderPool.take();
     }
 
     /**
-     * Parse out and decompress the data part of a fileblock helper function.
+     * read data chunk, as a slice of the mapped split or read from the stream
+     *
+     * @param datinput
+     * @return the serialized blob for data blocks, null for other block types
+     * @throws Exception
      */
-    private Osmformat.PrimitiveBlock parseData(Fileformat.Blob blob) throws Exception {
+    private ByteBuffer readChunk(DataInputStream datinput) throws Exception {
 
-        assert blob != null;
+        assert datinput != null;
 
-        if (blob.hasRaw()) {
+        BlobIndex.Entry entry = blobs[nextBlob++];
 
-            return parsePrimitiveBlock(blob.getRaw());
+        ByteBuffer chunk;
 
-        } else if (blob.hasZlibData()) {
-            byte buf2[] = new byte[blob.getRawSize()];
-            Inflater decompresser = new Inflater();
-            decompresser.setInput(blob.getZlibData().toByteArray());
-            // decompresser.getRemaining();
-            try {
-                decompresser.inflate(buf2);
-            } catch (DataFormatException e) {
-                e.printStackTrace();
-                throw new Exception(e.getMessage(), e);
-            }
-            assert(decompresser.finished());
-            decompresser.end();
-
-            return parsePrimitiveBlock(ByteString.copyFrom(buf2));
+        if (mapped != null) {
+            chunk = mapped.duplicate();
+            chunk.position((int) (entry.offset - mappedStart));
+        } else {
+            if (stream.getPos() != entry.offset)
+                stream.seek(entry.offset);
 
+            // length prefix, header and blob in one read
+            byte b[] = new byte[entry.length];
+            datinput.readFully(b);
+            chunk = ByteBuffer.wrap(b);
         }
 
-        throw new Exception("unsupported blob");
-    }
-
-    private Osmformat.PrimitiveBlock parsePrimitiveBlock(ByteString datas) throws Exception {
+        return BlobDecoder.nextDataBlob(chunk);
 
-        return Osmformat.PrimitiveBlock.parseFrom(datas);
     }
 
-}
\ No newline at end of file
+}
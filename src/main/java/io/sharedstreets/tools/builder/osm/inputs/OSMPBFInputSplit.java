@@ -0,0 +1,27 @@
+package io.sharedstreets.tools.builder.osm.inputs;
+
+import org.apache.flink.core.fs.FileInputSplit;
+import org.apache.flink.core.fs.Path;
+
+/**
+ * Input split over a list of blobs of a PBF file.
+ *
+ * The split covers the bytes from its first to its last blob, blobs in between that are not listed
+ * are skipped by the reader.
+ */
+public class OSMPBFInputSplit extends FileInputSplit {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BlobIndex.Entry[] blobs;
+
+    public OSMPBFInputSplit(int num, Path file, BlobIndex.Entry[] blobs, String[] hosts) {
+        super(num, file, blobs[0].offset, blobs[blobs.length - 1].end() - blobs[0].offset, hosts);
+        this.blobs = blobs;
+    }
+
+    public BlobIndex.Entry[] getBlobs() {
+        return blobs;
+    }
+
+}
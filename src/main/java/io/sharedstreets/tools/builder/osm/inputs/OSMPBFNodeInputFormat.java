@@ -1,16 +1,23 @@
 package io.sharedstreets.tools.builder.osm.inputs;
 
 
+import java.io.IOException;
+
 import io.sharedstreets.tools.builder.osm.model.NodeEntity;
 import io.sharedstreets.tools.builder.osm.parser.NodeParser;
 import io.sharedstreets.tools.builder.osm.parser.Parser;
-import org.openstreetmap.osmosis.osmbinary.Osmformat;
+import io.sharedstreets.tools.builder.osm.parser.PrimitiveBlockReader;
 
 public class OSMPBFNodeInputFormat extends OSMPBFInputFormat<NodeEntity> {
 
     @Override
-    protected Parser createParser(Osmformat.PrimitiveBlock p) {
-        return new NodeParser(p);
+    protected Parser<NodeEntity> createParser(PrimitiveBlockReader p) throws IOException {
+        return new NodeParser(p, getClipRegion());
+    }
+
+    @Override
+    protected int acceptedContents() {
+        return BlobIndex.NODES | BlobIndex.DENSE_NODES;
     }
 
 }
\ No newline at end of file
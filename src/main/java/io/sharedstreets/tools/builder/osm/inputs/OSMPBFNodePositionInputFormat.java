@@ -0,0 +1,24 @@
+package io.sharedstreets.tools.builder.osm.inputs;
+
+
+import io.sharedstreets.tools.builder.osm.parser.NodePositionParser;
+import io.sharedstreets.tools.builder.osm.parser.Parser;
+import org.apache.flink.api.java.tuple.Tuple2;
+import io.sharedstreets.tools.builder.osm.parser.PrimitiveBlockReader;
+
+/**
+ * Reads the node positions only, as (node_id, packed fixed point lat/lon), without building node entities or decoding tags.
+ */
+public class OSMPBFNodePositionInputFormat extends OSMPBFInputFormat<Tuple2<Long, Long>> {
+
+    @Override
+    protected Parser<Tuple2<Long, Long>> createParser(PrimitiveBlockReader p) {
+        return new NodePositionParser(p, getClipRegion());
+    }
+
+    @Override
+    protected int acceptedContents() {
+        return BlobIndex.NODES | BlobIndex.DENSE_NODES;
+    }
+
+}
@@ -1,17 +1,24 @@
 package io.sharedstreets.tools.builder.osm.inputs;
 
 
+import java.io.IOException;
+
 import io.sharedstreets.tools.builder.osm.model.Relation;
 import io.sharedstreets.tools.builder.osm.parser.Parser;
 import io.sharedstreets.tools.builder.osm.parser.RelationParser;
-import org.openstreetmap.osmosis.osmbinary.Osmformat;
+import io.sharedstreets.tools.builder.osm.parser.PrimitiveBlockReader;
 
 
 public class OSMPBFRelationInputFormat extends OSMPBFInputFormat<Relation> {
 
     @Override
-    protected Parser createParser(Osmformat.PrimitiveBlock p) {
+    protected Parser<Relation> createParser(PrimitiveBlockReader p) throws IOException {
         return new RelationParser(p);
     }
 
+    @Override
+    protected int acceptedContents() {
+        return BlobIndex.RELATIONS;
+    }
+
 }
\ No newline at end of file
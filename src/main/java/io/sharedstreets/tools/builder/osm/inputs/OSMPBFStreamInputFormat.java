@@ -0,0 +1,158 @@
+package io.sharedstreets.tools.builder.osm.inputs;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.flink.api.common.io.GenericInputFormat;
+import org.apache.flink.api.common.io.NonParallelInput;
+import org.apache.flink.core.io.GenericInputSplit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the data blobs of a PBF stream in order, from the standard input or a named pipe.
+ *
+ * The stream is read once by a single task without seeking, the serialized blobs are emitted as is and decoded
+ * downstream in parallel by OSMPBFBlobParser. The header block is checked against the expected features.
+ */
+public class OSMPBFStreamInputFormat extends GenericInputFormat<byte[]> implements NonParallelInput {
+
+    static Logger LOG = LoggerFactory.getLogger(OSMPBFStreamInputFormat.class);
+
+    // path read from the standard input
+    public static final String STDIN = "-";
+
+    // size limits of the PBF format
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+    private static final String OSM_HEADER = "OSMHeader";
+
+    private final String path;
+
+    private boolean wayLocations = false;
+
+    private transient DataInputStream in;
+
+    // next data blob, null at the end of the stream
+    private transient byte[] next;
+
+    /**
+     * @param path named pipe or file read sequentially, or STDIN
+     */
+    public OSMPBFStreamInputFormat(String path) {
+        this.path = path;
+    }
+
+    /**
+     * the stream is expected to hold the node coordinates on the ways (LocationsOnWays feature)
+     */
+    public void setWayLocations(boolean wayLocations) {
+        this.wayLocations = wayLocations;
+    }
+
+    public boolean getWayLocations() {
+        return wayLocations;
+    }
+
+    @Override
+    public void open(GenericInputSplit split) throws IOException {
+        super.open(split);
+
+        InputStream source = STDIN.equals(path) ? System.in : new FileInputStream(path);
+        in = new DataInputStream(new BufferedInputStream(source, 1 << 16));
+
+        next = readDataBlob();
+    }
+
+    @Override
+    public boolean reachedEnd() throws IOException {
+        return next == null;
+    }
+
+    @Override
+    public byte[] nextRecord(byte[] reuse) throws IOException {
+
+        byte[] blob = next;
+        next = readDataBlob();
+        return blob;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        // the standard input is left open
+        if (in != null && !STDIN.equals(path))
+            in.close();
+
+        in = null;
+        next = null;
+    }
+
+    /**
+     * read blobs up to the next data blob, checking the header block on the way
+     *
+     * @return the serialized Blob message of the data block, or null at the end of the stream
+     */
+    private byte[] readDataBlob() throws IOException {
+
+        while (true) {
+
+            int first = in.read();
+            if (first < 0)
+                return null;
+
+            int headerSize = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+            if (headerSize < 0 || headerSize > MAX_HEADER_SIZE)
+                throw new IOException("invalid blob header size " + headerSize + " in " + path);
+
+            byte[] headerBytes = new byte[headerSize];
+            BlobDecoder.BlobHeader header;
+            byte[] blob;
+            try {
+                in.readFully(headerBytes);
+
+                header = BlobDecoder.parseBlobHeader(ByteBuffer.wrap(headerBytes));
+                if (header.dataSize > MAX_BLOB_SIZE)
+                    throw new IOException("invalid blob size " + header.dataSize + " in " + path);
+
+                blob = new byte[header.dataSize];
+                in.readFully(blob);
+            } catch (EOFException e) {
+                throw new IOException("truncated PBF stream " + path, e);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e.getMessage(), e);
+            }
+
+            if (header.isData())
+                return blob;
+
+            if (OSM_HEADER.equals(header.type))
+                checkHeader(blob);
+        }
+    }
+
+    private void checkHeader(byte[] blob) throws IOException {
+
+        OSMPBFHeader header;
+        try {
+            header = OSMPBFHeader.fromBlob(blob);
+        } catch (Exception e) {
+            throw new IOException("Could not read header of " + path + ": " + e.getMessage(), e);
+        }
+
+        if (wayLocations && !header.hasLocationsOnWays())
+            throw new IOException("PBF stream " + path + " has no locations on ways");
+
+        if (!wayLocations && header.hasLocationsOnWays())
+            LOG.warn("PBF stream {} has locations on ways, reading them was not requested: nodes are joined instead", path);
+    }
+
+}
@@ -1,16 +1,37 @@
 package io.sharedstreets.tools.builder.osm.inputs;
 
 
+import java.io.IOException;
+
 import io.sharedstreets.tools.builder.osm.model.WayEntity;
 import io.sharedstreets.tools.builder.osm.parser.Parser;
+import io.sharedstreets.tools.builder.osm.parser.TagFilter;
 import io.sharedstreets.tools.builder.osm.parser.WayParser;
-import org.openstreetmap.osmosis.osmbinary.Osmformat;
+import io.sharedstreets.tools.builder.osm.parser.PrimitiveBlockReader;
 
 public class OSMPBFWayInputFormat extends OSMPBFInputFormat<WayEntity> {
 
+    private TagFilter wayFilter;
+
+    /**
+     * only read the ways having all the keys of the filter, other ways are skipped while parsing
+     */
+    public void setWayFilter(TagFilter wayFilter) {
+        this.wayFilter = wayFilter;
+    }
+
+    public TagFilter getWayFilter() {
+        return wayFilter;
+    }
+
+    @Override
+    protected Parser<WayEntity> createParser(PrimitiveBlockReader p) throws IOException {
+        return new WayParser(p, wayFilter);
+    }
+
     @Override
-    protected Parser createParser(Osmformat.PrimitiveBlock p) {
-        return new WayParser(p);
+    protected int acceptedContents() {
+        return BlobIndex.WAYS;
     }
 
 }
\ No newline at end of file
@@ -2,15 +2,17 @@ package io.sharedstreets.tools.builder.osm.model;
 
 import com.esri.core.geometry.Geometry;
 import com.esri.core.geometry.Point;
+import io.sharedstreets.tools.builder.util.geo.FixedPoint;
 
 public class NodeEntity extends SpatialEntity {
 
-    public double x;
-    public double y;
+    // fixed point longitude and latitude, see FixedPoint
+    public int x;
+    public int y;
 
     @Override
     public Geometry constructGeometry() {
-        Point p = new Point(x, y);
+        Point p = new Point(FixedPoint.toDegrees(x), FixedPoint.toDegrees(y));
         return p;
     }
 
@@ -5,7 +5,9 @@ package io.sharedstreets.tools.builder.osm.model;
  */
 public class NodePosition {
 
-    public Long nodeId;
-    public Double lat;
-    public Double lon;
+    public long nodeId;
+
+    // fixed point coordinates, see FixedPoint
+    public int lat;
+    public int lon;
 }
@@ -0,0 +1,51 @@
+package io.sharedstreets.tools.builder.osm.model;
+
+/**
+ * Tagged union of the entities read from a PBF file, so nodes, ways and relations can travel in a single DataSet.
+ */
+public class OSMEntity {
+
+    public enum Type {
+        NODE,
+        WAY,
+        RELATION
+    }
+
+    public Type type;
+
+    public NodeEntity node;
+    public WayEntity way;
+    public Relation relation;
+
+    public static OSMEntity of(AttributedEntity entity) {
+
+        OSMEntity e = new OSMEntity();
+
+        if (entity instanceof NodeEntity) {
+            e.type = Type.NODE;
+            e.node = (NodeEntity) entity;
+        } else if (entity instanceof WayEntity) {
+            e.type = Type.WAY;
+            e.way = (WayEntity) entity;
+        } else if (entity instanceof Relation) {
+            e.type = Type.RELATION;
+            e.relation = (Relation) entity;
+        } else
+            throw new IllegalArgumentException("unsupported entity " + entity.getClass().getName());
+
+        return e;
+    }
+
+    public AttributedEntity getEntity() {
+
+        switch (type) {
+            case NODE:
+                return node;
+            case WAY:
+                return way;
+            default:
+                return relation;
+        }
+    }
+
+}
@@ -1,7 +1,10 @@
 package io.sharedstreets.tools.builder.osm.model;
 
 import com.esri.core.geometry.Geometry;
+import io.sharedstreets.tools.builder.serialization.WaySerializer;
+import org.apache.flink.api.common.typeinfo.TypeInfo;
 
+@TypeInfo(WaySerializer.Factory.class)
 public class Way extends SpatialEntity {
 
     public enum ROAD_CLASS {
@@ -30,103 +33,41 @@ public class Way extends SpatialEntity {
 
     public NodePosition[] nodes;
 
-    public boolean isHighway() {
-
-        if (fields == null)
-            return false;
+    // road class and flags of the way, see WayClassification
+    public int classification;
 
-        assert fields != null;
+    // trimmed name tag, null without name
+    public String name;
 
-        return fields.containsKey("highway");
+    // index of the first node, for the pieces of a way cut by the clip region the index of their first ref (0 otherwise)
+    public int firstNodeIndex;
 
+    public boolean isHighway() {
+        return WayClassification.isHighway(classification);
     }
 
     public boolean isLink() {
-
-        if (fields.containsKey("highway") && fields.get("highway").toLowerCase().trim().endsWith("_link"))
-            return true;
-
-        return false;
-
+        return WayClassification.isLink(classification);
     }
 
     public String getName() {
 
-        if(fields.containsKey("name"))
-             return fields.get("name").trim();
+        if(name != null)
+             return name;
         else
             return "";
     }
 
     public ROAD_CLASS roadClass() {
-
-        if (fields.containsKey("highway") && fields.get("highway").toLowerCase().trim().startsWith("motorway"))
-            return ROAD_CLASS.ClassMotorway;
-        else if (fields.containsKey("highway") && fields.get("highway").toLowerCase().trim().startsWith("trunk"))
-            return ROAD_CLASS.ClassTrunk;
-        else if (fields.containsKey("highway") && fields.get("highway").toLowerCase().trim().startsWith("primary"))
-            return ROAD_CLASS.ClassPrimary;
-        else if (fields.containsKey("highway") && fields.get("highway").toLowerCase().trim().startsWith("secondary"))
-            return ROAD_CLASS.ClassSecondary;
-        else if (fields.containsKey("highway") && fields.get("highway").toLowerCase().trim().startsWith("tertiary"))
-            return ROAD_CLASS.ClassTertiary;
-        else if (fields.containsKey("highway") && fields.get("highway").toLowerCase().trim().startsWith("unclassified"))
-            return ROAD_CLASS.ClassUnclassified;
-        else if (fields.containsKey("highway") && fields.get("highway").toLowerCase().trim().startsWith("residential"))
-            return ROAD_CLASS.ClassResidential;
-        else if (fields.containsKey("highway") && fields.get("highway").toLowerCase().trim().startsWith("service")) {
-
-            // attempt to exclude parking lots, driveways and other private driveways to keep just public services roads
-            // not consistently mapped in OSM... https://taginfo.openstreetmap.org/keys/?key=service#values
-            if (fields.containsKey("service") && (fields.get("service").toLowerCase().trim().startsWith("parking") ||
-                    fields.get("service").toLowerCase().trim().startsWith("driveway") ||
-                    fields.get("service").toLowerCase().trim().startsWith("drive-through")))
-                return ROAD_CLASS.ClassOther;
-            else
-                return ROAD_CLASS.ClassService;
-
-
-        }
-        else if (fields.containsKey("highway") && fields.get("highway").toLowerCase().trim().startsWith("living_street"))
-            return ROAD_CLASS.ClassResidential;
-        else
-            return ROAD_CLASS.ClassOther;
+        return WayClassification.roadClass(classification);
     }
 
     public boolean isRoundabout() {
-
-        if (fields.containsKey("junction") && fields.get("junction").toLowerCase().trim().equals("roundabout"))
-            return true;
-
-        return false;
+        return WayClassification.isRoundabout(classification);
     }
 
     public boolean isOneWay() {
-
-        if (fields == null)
-            return false;
-
-        assert fields != null;
-
-        String oneway = new String();
-        if(fields.containsKey("oneway"))
-            oneway = fields.get("oneway").toLowerCase().trim();
-
-        // follow explicit case
-        if(oneway.equals("yes") || oneway.equals("1") || oneway.equals("true"))
-            return true;
-        if(oneway.equals("no") || oneway.equals("0") || oneway.equals("false"))
-            return false;
-
-        // if not explicitly set, check for implied oneways
-        if(fields.containsKey("highway") && fields.get("highway").toLowerCase().trim().equals("motorway"))
-            return true;
-        if(fields.containsKey("junction") && fields.get("junction").toLowerCase().trim().equals("roundabout"))
-            return true;
-
-        // otherwise false
-        return false;
-
+        return WayClassification.isOneWay(classification);
     }
 
     @Override
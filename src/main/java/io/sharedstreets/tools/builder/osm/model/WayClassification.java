@@ -0,0 +1,134 @@
+package io.sharedstreets.tools.builder.osm.model;
+
+import java.util.Map;
+
+/**
+ * Road class, oneway, link and roundabout flags of a way, classified once from its tags and packed in an int.
+ *
+ * The low bits hold the road class value plus one, 0 for a way without highway tag.
+ */
+public class WayClassification {
+
+    // keys read by the builder, the other tags of the ways are not needed
+    public static final String[] KEYS = {"highway", "service", "oneway", "junction", "name"};
+
+    public static final int HIGHWAY_KEY = 0;
+    public static final int SERVICE_KEY = 1;
+    public static final int ONEWAY_KEY = 2;
+    public static final int JUNCTION_KEY = 3;
+    public static final int NAME_KEY = 4;
+
+    private static final int ROAD_CLASS_MASK = 0xF;
+    private static final int ONE_WAY = 0x10;
+    private static final int LINK = 0x20;
+    private static final int ROUNDABOUT = 0x40;
+
+    private static final Way.ROAD_CLASS[] ROAD_CLASSES = Way.ROAD_CLASS.values();
+
+    /**
+     * @param values values of the KEYS, null for the keys the way does not have
+     */
+    public static int classify(String[] values) {
+
+        String highway = normalize(values[HIGHWAY_KEY]);
+        String service = normalize(values[SERVICE_KEY]);
+        String oneway = normalize(values[ONEWAY_KEY]);
+        String junction = normalize(values[JUNCTION_KEY]);
+
+        int classification = 0;
+
+        if (highway != null) {
+            classification |= roadClass(highway, service).getValue() + 1;
+
+            if (highway.endsWith("_link"))
+                classification |= LINK;
+        }
+
+        boolean roundabout = "roundabout".equals(junction);
+        if (roundabout)
+            classification |= ROUNDABOUT;
+
+        // follow explicit case, if not explicitly set check for implied oneways
+        if ("yes".equals(oneway) || "1".equals(oneway) || "true".equals(oneway))
+            classification |= ONE_WAY;
+        else if (!"no".equals(oneway) && !"0".equals(oneway) && !"false".equals(oneway) && ("motorway".equals(highway) || roundabout))
+            classification |= ONE_WAY;
+
+        return classification;
+    }
+
+    public static int classify(Map<String, String> fields) {
+
+        String[] values = new String[KEYS.length];
+
+        if (fields != null) {
+            for (int k = 0; k < KEYS.length; k++)
+                values[k] = fields.get(KEYS[k]);
+        }
+
+        return classify(values);
+    }
+
+    private static String normalize(String value) {
+        return value == null ? null : value.toLowerCase().trim();
+    }
+
+    private static Way.ROAD_CLASS roadClass(String highway, String service) {
+
+        if (highway.startsWith("motorway"))
+            return Way.ROAD_CLASS.ClassMotorway;
+        else if (highway.startsWith("trunk"))
+            return Way.ROAD_CLASS.ClassTrunk;
+        else if (highway.startsWith("primary"))
+            return Way.ROAD_CLASS.ClassPrimary;
+        else if (highway.startsWith("secondary"))
+            return Way.ROAD_CLASS.ClassSecondary;
+        else if (highway.startsWith("tertiary"))
+            return Way.ROAD_CLASS.ClassTertiary;
+        else if (highway.startsWith("unclassified"))
+            return Way.ROAD_CLASS.ClassUnclassified;
+        else if (highway.startsWith("residential"))
+            return Way.ROAD_CLASS.ClassResidential;
+        else if (highway.startsWith("service")) {
+
+            // attempt to exclude parking lots, driveways and other private driveways to keep just public services roads
+            // not consistently mapped in OSM... https://taginfo.openstreetmap.org/keys/?key=service#values
+            if (service != null && (service.startsWith("parking") ||
+                    service.startsWith("driveway") ||
+                    service.startsWith("drive-through")))
+                return Way.ROAD_CLASS.ClassOther;
+            else
+                return Way.ROAD_CLASS.ClassService;
+        }
+        else if (highway.startsWith("living_street"))
+            return Way.ROAD_CLASS.ClassResidential;
+        else
+            return Way.ROAD_CLASS.ClassOther;
+    }
+
+    public static boolean isHighway(int classification) {
+        return (classification & ROAD_CLASS_MASK) != 0;
+    }
+
+    /**
+     * @return the road class, ClassOther for a way without highway tag
+     */
+    public static Way.ROAD_CLASS roadClass(int classification) {
+
+        int value = classification & ROAD_CLASS_MASK;
+        return value == 0 ? Way.ROAD_CLASS.ClassOther : ROAD_CLASSES[value - 1];
+    }
+
+    public static boolean isOneWay(int classification) {
+        return (classification & ONE_WAY) != 0;
+    }
+
+    public static boolean isLink(int classification) {
+        return (classification & LINK) != 0;
+    }
+
+    public static boolean isRoundabout(int classification) {
+        return (classification & ROUNDABOUT) != 0;
+    }
+
+}
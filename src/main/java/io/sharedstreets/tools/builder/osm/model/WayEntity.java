@@ -1,15 +1,21 @@
 package io.sharedstreets.tools.builder.osm.model;
 
-public class WayEntity extends Relation {
+import io.sharedstreets.tools.builder.serialization.WayEntitySerializer;
+import org.apache.flink.api.common.typeinfo.TypeInfo;
 
-    public boolean isHighway() {
+@TypeInfo(WayEntitySerializer.Factory.class)
+public class WayEntity extends Relation {
 
-        if (fields == null)
-            return false;
+    // packed fixed point coordinates of the nodes, for files with locations on ways (null otherwise)
+    public long[] locations;
 
-        assert fields != null;
+    // classified while parsing, see WayClassification
+    public int classification;
 
-        return fields.containsKey("highway");
+    // trimmed name tag, null without name
+    public String name;
 
+    public boolean isHighway() {
+        return WayClassification.isHighway(classification);
     }
 }
\ No newline at end of file
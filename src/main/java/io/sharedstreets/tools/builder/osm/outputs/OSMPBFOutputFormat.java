@@ -0,0 +1,61 @@
+package io.sharedstreets.tools.builder.osm.outputs;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+
+import io.sharedstreets.tools.builder.osm.model.OSMEntity;
+import org.apache.flink.api.common.io.FileOutputFormat;
+import org.apache.flink.core.fs.Path;
+
+/**
+ * Write nodes and ways to a single PBF file, sorted by type then id and with the locations of the nodes on the ways.
+ *
+ * The file is written by one task, the entities must reach it sorted.
+ */
+public class OSMPBFOutputFormat extends FileOutputFormat<OSMEntity> {
+
+    private transient OSMPBFWriter writer;
+
+    public OSMPBFOutputFormat(Path outputPath) {
+        super(outputPath);
+    }
+
+    @Override
+    public void open(int taskNumber, int numTasks) throws IOException {
+
+        if (numTasks > 1)
+            throw new IOException("PBF files are written by a single task, got a parallelism of " + numTasks);
+
+        super.open(taskNumber, numTasks);
+
+        writer = new OSMPBFWriter(new BufferedOutputStream(stream, 1 << 16), true, true);
+    }
+
+    @Override
+    public void writeRecord(OSMEntity record) throws IOException {
+
+        switch (record.type) {
+            case NODE:
+                writer.writeNode(record.node);
+                break;
+            case WAY:
+                writer.writeWay(record.way);
+                break;
+            default:
+                throw new IOException("unsupported entity type " + record.type);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        // the file stream is closed by the base class
+        if (writer != null) {
+            writer.flush();
+            writer = null;
+        }
+
+        super.close();
+    }
+
+}
@@ -0,0 +1,371 @@
+package io.sharedstreets.tools.builder.osm.outputs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import io.sharedstreets.shadow.protobuf.CodedOutputStream;
+import io.sharedstreets.shadow.protobuf.WireFormat;
+import io.sharedstreets.tools.builder.osm.inputs.OSMPBFHeader;
+import io.sharedstreets.tools.builder.osm.model.NodeEntity;
+import io.sharedstreets.tools.builder.osm.model.OSMEntity;
+import io.sharedstreets.tools.builder.osm.model.WayEntity;
+import io.sharedstreets.tools.builder.util.geo.FixedPoint;
+import org.openstreetmap.osmosis.osmbinary.Osmformat;
+
+/**
+ * Write nodes and ways to an OSM PBF stream.
+ *
+ * Entities are buffered into blocks of one type, nodes are written as dense nodes with their coordinates only,
+ * ways with their tags, refs and optionally the locations of their nodes. Blocks use the default granularity,
+ * fixed point coordinates are stored as is. Blobs are zlib compressed.
+ */
+public class OSMPBFWriter implements Closeable {
+
+    // entities per block
+    public static final int BLOCK_SIZE = 8000;
+
+    private static final String OSM_HEADER = "OSMHeader";
+    private static final String OSM_DATA = "OSMData";
+
+    private static final String WRITING_PROGRAM = "sharedstreets-builder";
+
+    // BlobHeader fields
+    private static final int TYPE_FIELD = 1;
+    private static final int DATASIZE_FIELD = 3;
+
+    // Blob fields
+    private static final int RAW_SIZE_FIELD = 2;
+    private static final int ZLIB_DATA_FIELD = 3;
+
+    // PrimitiveBlock fields
+    private static final int STRINGTABLE_FIELD = 1;
+    private static final int PRIMITIVEGROUP_FIELD = 2;
+
+    // StringTable fields
+    private static final int STRING_FIELD = 1;
+
+    // PrimitiveGroup fields
+    private static final int DENSE_FIELD = 2;
+    private static final int WAYS_FIELD = 3;
+
+    // DenseNodes fields
+    private static final int DENSE_ID_FIELD = 1;
+    private static final int DENSE_LAT_FIELD = 8;
+    private static final int DENSE_LON_FIELD = 9;
+
+    // Way fields
+    private static final int WAY_ID_FIELD = 1;
+    private static final int WAY_KEYS_FIELD = 2;
+    private static final int WAY_VALS_FIELD = 3;
+    private static final int WAY_REFS_FIELD = 8;
+    private static final int WAY_LAT_FIELD = 9;
+    private static final int WAY_LON_FIELD = 10;
+
+    private final DataOutputStream out;
+
+    private final boolean locationsOnWays;
+    private final boolean sorted;
+
+    private final Deflater deflater = new Deflater();
+    private final byte[] deflateBuffer = new byte[1 << 16];
+
+    // nodes of the current block
+    private final long[] nodeIds = new long[BLOCK_SIZE];
+    private final long[] nodeLats = new long[BLOCK_SIZE];
+    private final long[] nodeLons = new long[BLOCK_SIZE];
+    private int nodeCount = 0;
+
+    // ways of the current block
+    private final List<WayEntity> ways = new ArrayList<>();
+
+    // last entity written, checked against the sort order
+    private OSMEntity.Type lastType;
+    private long lastId;
+
+    /**
+     * @param locationsOnWays write the coordinates of the way nodes on the ways
+     * @param sorted the entities are written sorted by type then id, declared in the header and checked
+     */
+    public OSMPBFWriter(OutputStream out, boolean locationsOnWays, boolean sorted) throws IOException {
+
+        assert out != null;
+
+        this.out = new DataOutputStream(out);
+        this.locationsOnWays = locationsOnWays;
+        this.sorted = sorted;
+
+        writeHeader();
+    }
+
+    public void writeNode(NodeEntity node) throws IOException {
+
+        checkOrder(OSMEntity.Type.NODE, node.id);
+
+        if (!ways.isEmpty())
+            flush();
+
+        nodeIds[nodeCount] = node.id;
+        nodeLats[nodeCount] = node.y;
+        nodeLons[nodeCount] = node.x;
+        nodeCount++;
+
+        if (nodeCount == BLOCK_SIZE)
+            flush();
+    }
+
+    /**
+     * @param way way with its refs, and their locations if written with locations on ways
+     */
+    public void writeWay(WayEntity way) throws IOException {
+
+        checkOrder(OSMEntity.Type.WAY, way.id);
+
+        if (nodeCount > 0)
+            flush();
+
+        ways.add(way);
+
+        if (ways.size() == BLOCK_SIZE)
+            flush();
+    }
+
+    /**
+     * write the buffered entities as a block
+     */
+    public void flush() throws IOException {
+
+        if (nodeCount > 0)
+            writeNodeBlock();
+
+        if (!ways.isEmpty())
+            writeWayBlock();
+
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        deflater.end();
+        out.close();
+    }
+
+    private void checkOrder(OSMEntity.Type type, long id) {
+
+        if (sorted && lastType != null) {
+            int order = type.compareTo(lastType);
+            if (order < 0 || (order == 0 && id <= lastId))
+                throw new IllegalArgumentException("entities are not sorted: " + type + " " + id
+                        + " after " + lastType + " " + lastId);
+        }
+
+        lastType = type;
+        lastId = id;
+    }
+
+    private void writeHeader() throws IOException {
+
+        Osmformat.HeaderBlock.Builder header = Osmformat.HeaderBlock.newBuilder()
+                .addRequiredFeatures("OsmSchema-V0.6")
+                .addRequiredFeatures("DenseNodes")
+                .setWritingprogram(WRITING_PROGRAM);
+
+        if (locationsOnWays)
+            header.addOptionalFeatures(OSMPBFHeader.LOCATIONS_ON_WAYS);
+
+        if (sorted)
+            header.addOptionalFeatures(OSMPBFHeader.SORTED);
+
+        writeBlob(OSM_HEADER, header.build().toByteArray());
+    }
+
+    private void writeNodeBlock() throws IOException {
+
+        Message dense = new Message();
+        writePackedDeltas(dense.out, DENSE_ID_FIELD, nodeIds, nodeCount);
+        writePackedDeltas(dense.out, DENSE_LAT_FIELD, nodeLats, nodeCount);
+        writePackedDeltas(dense.out, DENSE_LON_FIELD, nodeLons, nodeCount);
+
+        Message group = new Message();
+        group.out.writeByteArray(DENSE_FIELD, dense.toByteArray());
+
+        // nodes are written without tags, the string table only has the empty string at index 0
+        List<String> strings = new ArrayList<>();
+        strings.add("");
+
+        writeBlock(strings, group.toByteArray());
+
+        nodeCount = 0;
+    }
+
+    private void writeWayBlock() throws IOException {
+
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> stringIds = new HashMap<>();
+        strings.add("");
+        stringIds.put("", 0);
+
+        Message group = new Message();
+
+        for (WayEntity way : ways) {
+
+            Message w = new Message();
+            w.out.writeInt64(WAY_ID_FIELD, way.id);
+
+            if (way.fields != null && !way.fields.isEmpty()) {
+                int[] keys = new int[way.fields.size()];
+                int[] vals = new int[keys.length];
+                int i = 0;
+                for (Map.Entry<String, String> field : way.fields.entrySet()) {
+                    keys[i] = stringId(field.getKey(), strings, stringIds);
+                    vals[i] = stringId(field.getValue(), strings, stringIds);
+                    i++;
+                }
+                writePackedInts(w.out, WAY_KEYS_FIELD, keys, keys.length);
+                writePackedInts(w.out, WAY_VALS_FIELD, vals, vals.length);
+            }
+
+            if (way.relatedObjects != null) {
+
+                int count = way.relatedObjects.length;
+
+                long[] refs = new long[count];
+                for (int i = 0; i < count; i++)
+                    refs[i] = way.relatedObjects[i].relatedId;
+                writePackedDeltas(w.out, WAY_REFS_FIELD, refs, count);
+
+                if (locationsOnWays && way.locations != null) {
+                    long[] lats = new long[count];
+                    long[] lons = new long[count];
+                    for (int i = 0; i < count; i++) {
+                        lats[i] = FixedPoint.unpackLat(way.locations[i]);
+                        lons[i] = FixedPoint.unpackLon(way.locations[i]);
+                    }
+                    writePackedDeltas(w.out, WAY_LAT_FIELD, lats, count);
+                    writePackedDeltas(w.out, WAY_LON_FIELD, lons, count);
+                }
+            }
+
+            group.out.writeByteArray(WAYS_FIELD, w.toByteArray());
+        }
+
+        writeBlock(strings, group.toByteArray());
+
+        ways.clear();
+    }
+
+    private static int stringId(String s, List<String> strings, Map<String, Integer> stringIds) {
+
+        Integer id = stringIds.get(s);
+        if (id == null) {
+            id = strings.size();
+            strings.add(s);
+            stringIds.put(s, id);
+        }
+
+        return id;
+    }
+
+    private void writeBlock(List<String> strings, byte[] group) throws IOException {
+
+        Message table = new Message();
+        for (String s : strings)
+            table.out.writeByteArray(STRING_FIELD, s.getBytes(StandardCharsets.UTF_8));
+
+        // default granularity and offsets, not written
+        Message block = new Message();
+        block.out.writeByteArray(STRINGTABLE_FIELD, table.toByteArray());
+        block.out.writeByteArray(PRIMITIVEGROUP_FIELD, group);
+
+        writeBlob(OSM_DATA, block.toByteArray());
+    }
+
+    private void writeBlob(String type, byte[] raw) throws IOException {
+
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2);
+        while (!deflater.finished()) {
+            int size = deflater.deflate(deflateBuffer);
+            compressed.write(deflateBuffer, 0, size);
+        }
+
+        Message blob = new Message();
+        blob.out.writeInt32(RAW_SIZE_FIELD, raw.length);
+        blob.out.writeByteArray(ZLIB_DATA_FIELD, compressed.toByteArray());
+        byte[] blobBytes = blob.toByteArray();
+
+        Message header = new Message();
+        header.out.writeString(TYPE_FIELD, type);
+        header.out.writeInt32(DATASIZE_FIELD, blobBytes.length);
+        byte[] headerBytes = header.toByteArray();
+
+        out.writeInt(headerBytes.length);
+        out.write(headerBytes);
+        out.write(blobBytes);
+    }
+
+    /**
+     * write values as a packed field of sint64 deltas
+     */
+    private static void writePackedDeltas(CodedOutputStream out, int field, long[] values, int count) throws IOException {
+
+        int size = 0;
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            size += CodedOutputStream.computeSInt64SizeNoTag(values[i] - previous);
+            previous = values[i];
+        }
+
+        out.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(size);
+
+        previous = 0;
+        for (int i = 0; i < count; i++) {
+            out.writeSInt64NoTag(values[i] - previous);
+            previous = values[i];
+        }
+    }
+
+    /**
+     * write values as a packed uint32 field
+     */
+    private static void writePackedInts(CodedOutputStream out, int field, int[] values, int count) throws IOException {
+
+        int size = 0;
+        for (int i = 0; i < count; i++)
+            size += CodedOutputStream.computeUInt32SizeNoTag(values[i]);
+
+        out.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(size);
+
+        for (int i = 0; i < count; i++)
+            out.writeUInt32NoTag(values[i]);
+    }
+
+    /**
+     * message serialized into an array, to be nested in its parent message
+     */
+    private static class Message {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+
+        byte[] toByteArray() throws IOException {
+            out.flush();
+            return bytes.toByteArray();
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package io.sharedstreets.tools.builder.osm.parser;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import io.sharedstreets.tools.builder.osm.model.AttributedEntity;
+import io.sharedstreets.tools.builder.osm.model.OSMEntity;
+
+/**
+ * parse all the nodes, then ways, then relations of a block, sharing the string table of the block
+ */
+public class EntityParser extends Parser<OSMEntity> {
+
+    private List<Parser<? extends AttributedEntity>> parsers;
+
+    private int currentParser = 0;
+
+    public EntityParser(PrimitiveBlockReader block, boolean nodes, boolean ways, boolean relations) throws IOException {
+
+        assert block != null;
+
+        this.parsers = Arrays.<Parser<? extends AttributedEntity>>asList(
+                nodes ? new NodeParser(block) : null,
+                ways ? new WayParser(block) : null,
+                relations ? new RelationParser(block) : null);
+    }
+
+    /**
+     * @param parsers node, way and relation parsers of the same block, in that order (null to skip an entity type)
+     */
+    public EntityParser(NodeParser nodes, WayParser ways, RelationParser relations) {
+
+        this.parsers = Arrays.<Parser<? extends AttributedEntity>>asList(nodes, ways, relations);
+    }
+
+    @Override
+    public OSMEntity next() throws Exception {
+
+        while (currentParser < parsers.size()) {
+
+            Parser<? extends AttributedEntity> parser = parsers.get(currentParser);
+            if (parser != null) {
+                AttributedEntity entity = parser.next();
+                if (entity != null)
+                    return OSMEntity.of(entity);
+            }
+
+            currentParser++;
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,188 @@
+package io.sharedstreets.tools.builder.osm.parser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import io.sharedstreets.shadow.protobuf.CodedInputStream;
+import io.sharedstreets.shadow.protobuf.WireFormat;
+
+/**
+ * Cursor over the entity messages of a block, group after group.
+ *
+ * Each call to next() moves to the next message of the selected group fields, the stream is then limited
+ * to that message. The part of a message left unread is skipped by the following call.
+ */
+public class MessageCursor {
+
+    private final PrimitiveBlockReader block;
+
+    // bit set of the selected group fields
+    private final int fieldMask;
+
+    private int nextGroup = 0;
+
+    private CodedInputStream in;
+
+    private int groupOffset;
+
+    // limit of the enclosing group while a message is open, -1 otherwise
+    private int limit = -1;
+
+    /**
+     * @param fields group fields of the messages to visit, see PrimitiveBlockReader.NODES_FIELD...
+     */
+    public MessageCursor(PrimitiveBlockReader block, int... fields) {
+
+        this.block = block;
+
+        int mask = 0;
+        for (int field : fields)
+            mask |= 1 << field;
+        this.fieldMask = mask;
+    }
+
+    /**
+     * move to the next message
+     *
+     * @return the group field of the message, or 0 at the end of the block
+     */
+    public int next() throws IOException {
+
+        if (limit >= 0) {
+            in.skipRawBytes(in.getBytesUntilLimit());
+            in.popLimit(limit);
+            limit = -1;
+        }
+
+        while (true) {
+
+            if (in == null) {
+                if (nextGroup >= block.getGroupCount())
+                    return 0;
+                groupOffset = block.getGroupOffset(nextGroup);
+                in = block.openGroup(nextGroup++);
+            }
+
+            int tag = in.readTag();
+
+            if (tag == 0) {
+                in = null;
+                continue;
+            }
+
+            int field = WireFormat.getTagFieldNumber(tag);
+
+            if (field < 32 && (fieldMask & (1 << field)) != 0
+                    && WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                limit = in.pushLimit(in.readRawVarint32());
+                return field;
+            }
+
+            in.skipField(tag);
+        }
+    }
+
+    /**
+     * @return the stream, limited to the current message
+     */
+    public CodedInputStream in() {
+        return in;
+    }
+
+    /**
+     * open a separate stream over a packed field of the current message, and skip the field in the current stream.
+     * Used to walk the parallel arrays of dense nodes side by side.
+     *
+     * @param tag tag of the field, just read from the current stream
+     * @return a stream over the packed values, or null if the field is not packed
+     */
+    public CodedInputStream openPacked(int tag) throws IOException {
+
+        if (WireFormat.getTagWireType(tag) != WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+            in.skipField(tag);
+            return null;
+        }
+
+        int length = in.readRawVarint32();
+        int offset = groupOffset + in.getTotalBytesRead();
+        in.skipRawBytes(length);
+
+        return CodedInputStream.newInstance(block.getData(), offset, length);
+    }
+
+    /**
+     * Growable list of int values, reused from one message to the next.
+     */
+    public static class Ints {
+
+        public int[] values = new int[16];
+        public int size = 0;
+
+        public void clear() {
+            size = 0;
+        }
+
+        public void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, 2 * size);
+            values[size++] = value;
+        }
+
+        /**
+         * append the values of a packed (or single) varint field
+         */
+        public void read(CodedInputStream in, int tag) throws IOException {
+
+            if (WireFormat.getTagWireType(tag) != WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                add(in.readRawVarint32());
+                return;
+            }
+
+            int limit = in.pushLimit(in.readRawVarint32());
+            while (in.getBytesUntilLimit() > 0)
+                add(in.readRawVarint32());
+            in.popLimit(limit);
+        }
+    }
+
+    /**
+     * Growable list of long values, reused from one message to the next.
+     */
+    public static class Longs {
+
+        public long[] values = new long[16];
+        public int size = 0;
+
+        public void clear() {
+            size = 0;
+        }
+
+        public void add(long value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, 2 * size);
+            values[size++] = value;
+        }
+
+        /**
+         * append the values of a packed (or single) delta coded sint64 field, as absolute values
+         */
+        public void readDeltas(CodedInputStream in, int tag) throws IOException {
+
+            // deltas continue from the last value when a field is split
+            long last = size > 0 ? values[size - 1] : 0;
+
+            if (WireFormat.getTagWireType(tag) != WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                add(last + in.readSInt64());
+                return;
+            }
+
+            int limit = in.pushLimit(in.readRawVarint32());
+            while (in.getBytesUntilLimit() > 0) {
+                last += in.readSInt64();
+                add(last);
+            }
+            in.popLimit(limit);
+        }
+    }
+
+}
@@ -1,196 +1,270 @@
 package io.sharedstreets.tools.builder.osm.parser;
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 
+import io.sharedstreets.shadow.protobuf.CodedInputStream;
+import io.sharedstreets.shadow.protobuf.WireFormat;
 import io.sharedstreets.tools.builder.osm.OSMContext;
+import io.sharedstreets.tools.builder.osm.filter.ClipRegion;
 import io.sharedstreets.tools.builder.osm.model.NodeEntity;
-import org.openstreetmap.osmosis.osmbinary.Osmformat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * this object parse the nodes, and their associated elements
  *
+ * Nodes are decoded one at a time from the bytes of the block, dense nodes by walking their id, lat, lon
+ * and keys_vals arrays side by side.
+ *
  * @author pfreydiere
  *
  */
 public class NodeParser extends Parser<NodeEntity> {
 
-    private Osmformat.PrimitiveGroup current;
+    static Logger LOG = LoggerFactory.getLogger(NodeParser.class);
 
-    public abstract class State {
-        public abstract NodeEntity next();
-    }
+    // Node and DenseNodes fields
+    private static final int ID_FIELD = 1;
+    private static final int KEYS_FIELD = 2;
+    private static final int VALS_FIELD = 3;
+    private static final int LAT_FIELD = 8;
+    private static final int LON_FIELD = 9;
+    private static final int KEYS_VALS_FIELD = 10;
 
-    public class DenseNodeState extends State {
-        private int i = 0;
+    private OSMContext ctx;
 
-        long lastId = 0;
-        long lastLat = 0;
-        long lastLon = 0;
-        int j = 0;
+    private MessageCursor cursor;
 
-        @Override
-        public NodeEntity next() {
-            Osmformat.DenseNodes denseNodes = current.getDense();
-            if (i >= denseNodes.getIdCount())
-                return null;
+    // nodes out of the region are skipped (null to read all nodes)
+    private ClipRegion clipRegion;
 
-            lastId += denseNodes.getId(i);
-            lastLat += denseNodes.getLat(i);
-            lastLon += denseNodes.getLon(i);
+    // arrays of the current dense nodes, denseIds is null when not in dense nodes
+    private CodedInputStream denseIds;
+    private CodedInputStream denseLats;
+    private CodedInputStream denseLons;
+    private CodedInputStream denseKeysVals;
 
-            Map<String, String> flds = null;
+    private long lastId;
+    private long lastLat;
+    private long lastLon;
 
-            try {
-                if (denseNodes.getKeysValsCount() > 0) {
-                    while (denseNodes.getKeysVals(j) != 0) {
-                        int keyid = denseNodes.getKeysVals(j++);
-                        int valid = denseNodes.getKeysVals(j++);
-                        String k = "";
-                        if (keyid < ctx.getStringLength())
-                            k = ctx.getStringById(keyid);
-                        else
-                            System.out.println("error in encoding");
+    // keys and values of the current plain node
+    private final MessageCursor.Ints keys = new MessageCursor.Ints();
+    private final MessageCursor.Ints vals = new MessageCursor.Ints();
 
-                        String v = "";
-                        if (valid < ctx.getStringLength())
-                            v = ctx.getStringById(valid);
-                        else
-                            System.out.println("error in encoding");
+    public NodeParser(PrimitiveBlockReader block) throws IOException {
+        this(block, null);
+    }
 
-                        if (flds == null) {
-                            flds = new HashMap<String, String>();
-                        }
+    /**
+     * @param block the block to parse
+     * @param clipRegion nodes out of the region are skipped (null to read all nodes)
+     */
+    public NodeParser(PrimitiveBlockReader block, ClipRegion clipRegion) throws IOException {
+        assert block != null;
 
-                        flds.put(k, v);
+        this.clipRegion = clipRegion;
 
-                        // System.out.println(k + "->" + v);
-
-                    }
-                    j++; // Skip over the '0' delimiter.
-                }
-            } catch (Exception ex) {
-                System.out.println("error in creating dense points : " + ex.getMessage());
-                ex.printStackTrace(System.err);
-            }
-
-            NodeEntity ne = new NodeEntity();
-            ne.fields = flds;
-            ne.id = lastId;
-            ne.x = ctx.parseLon(lastLon);
-            ne.y = ctx.parseLat(lastLat);
-            i++;
-            return ne;
-        }
+        this.ctx = block.getContext();
 
+        this.cursor = new MessageCursor(block, PrimitiveBlockReader.NODES_FIELD, PrimitiveBlockReader.DENSE_FIELD);
     }
 
-    public class NodesState extends State {
+    public NodeEntity next() throws Exception {
 
-        private int currentNode = 0;
+        try {
 
-        public NodesState() {
+            while (true) {
 
-        }
+                if (denseIds != null) {
 
-        @Override
-        public NodeEntity next() {
+                    if (denseIds.isAtEnd() || denseLats.isAtEnd() || denseLons.isAtEnd()) {
+                        denseIds = null;
+                        continue;
+                    }
 
-            if (current.getNodesCount() > currentNode) {
-                Osmformat.Node n = current.getNodes(currentNode);
-                currentNode++;
+                    NodeEntity n = nextDenseNode();
+                    if (n != null)
+                        return n;
 
-                return constructNode(n);
-            }
+                    continue;
+                }
 
-            return null;
-        }
+                int field = cursor.next();
 
-        private NodeEntity constructNode(Osmformat.Node n) {
-            Map<String, String> fields = null;
+                if (field == 0)
+                    return null;
 
-            for (int i = 0; i < n.getKeysCount(); i++) {
-                int keys = n.getKeys(i);
-                String k = ctx.getStringById(keys);
-                String v = ctx.getStringById(n.getVals(i));
-                if (fields == null) {
-                    fields = new HashMap<String, String>();
+                if (field == PrimitiveBlockReader.DENSE_FIELD) {
+                    openDense();
+                    continue;
                 }
-                fields.put(k, v);
+
+                NodeEntity n = readNode(cursor.in());
+                if (n != null)
+                    return n;
             }
 
-            NodeEntity ne = new NodeEntity();
-            ne.fields = fields;
-            ne.id = n.getId();
-            ne.x = ctx.parseLon(n.getLon());
-            ne.y = ctx.parseLat(n.getLat());
-            return ne;
+        } catch (Exception ex) {
+            LOG.error("Error parsing nodes: {}", ex.getMessage());
+            throw ex;
         }
+    }
 
+    private boolean inRegion(int lat, int lon) {
+        return clipRegion == null || clipRegion.contains(lat, lon);
     }
 
-    private List<Osmformat.PrimitiveGroup> groups;
-    private OSMContext ctx;
+    /**
+     * @return the next dense node, or null if it is out of the region
+     */
+    private NodeEntity nextDenseNode() throws IOException {
 
-    public NodeParser(Osmformat.PrimitiveBlock block) {
-        assert block != null;
+        lastId += denseIds.readSInt64();
+        lastLat += denseLats.readSInt64();
+        lastLon += denseLons.readSInt64();
 
-        this.ctx = createOSMContext(block);
+        int lat = ctx.fixedLat(lastLat);
+        int lon = ctx.fixedLon(lastLon);
 
-        groups = new ArrayList<Osmformat.PrimitiveGroup>(block.getPrimitivegroupList());
+        boolean keep = inRegion(lat, lon);
 
-    }
+        Map<String, String> flds = null;
 
-    private State currentState = null;
+        // key / value pairs of the node, up to a 0 delimiter, strings are only decoded for kept nodes
+        if (denseKeysVals != null && !denseKeysVals.isAtEnd()) {
+            int keyid;
+            while (!denseKeysVals.isAtEnd() && (keyid = denseKeysVals.readRawVarint32()) != 0) {
+                int valid = denseKeysVals.readRawVarint32();
 
-    public NodeEntity next() throws Exception {
+                if (!keep)
+                    continue;
 
-        try {
+                if (flds == null) {
+                    flds = new HashMap<String, String>();
+                }
 
-            if (groups == null) { // end of group read
-                return null;
+                flds.put(getString(keyid), getString(valid));
             }
+        }
 
-            // next primitive group
-            if (current == null) {
+        if (!keep)
+            return null;
 
-                if (groups.size() == 0) {
-                    groups = null;
-                    return null;
-                }
+        NodeEntity ne = new NodeEntity();
+        ne.fields = flds;
+        ne.id = lastId;
+        ne.x = lon;
+        ne.y = lat;
+        return ne;
+    }
+
+    private String getString(int id) throws IOException {
 
-                assert groups.size() > 0;
-                Osmformat.PrimitiveGroup g = groups.get(0);
-                current = g;
+        if (id < 0 || id >= ctx.getStringLength())
+            throw new IOException("string id " + id + " out of the string table of the block");
 
-                currentState = new NodesState();
-                groups.remove(0);
+        return ctx.getStringById(id);
+    }
 
+    private void openDense() throws IOException {
+
+        CodedInputStream in = cursor.in();
+
+        CodedInputStream ids = null;
+        CodedInputStream lats = null;
+        CodedInputStream lons = null;
+        CodedInputStream keysVals = null;
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case ID_FIELD:
+                    ids = cursor.openPacked(tag);
+                    break;
+                case LAT_FIELD:
+                    lats = cursor.openPacked(tag);
+                    break;
+                case LON_FIELD:
+                    lons = cursor.openPacked(tag);
+                    break;
+                case KEYS_VALS_FIELD:
+                    keysVals = cursor.openPacked(tag);
+                    break;
+                default:
+                    in.skipField(tag);
             }
+        }
 
-            assert currentState != null;
-
-            NodeEntity n = currentState.next();
-            if (n == null) {
-                if (currentState instanceof NodesState) {
-                    // next, switching to denseNodeState
-                    currentState = new DenseNodeState();
-                    return next();
-                } else {
-                    // next group
-                    current = null;
-                    return next();
-                }
+        if (ids == null || lats == null || lons == null)
+            return;
+
+        denseIds = ids;
+        denseLats = lats;
+        denseLons = lons;
+        denseKeysVals = keysVals;
+        lastId = 0;
+        lastLat = 0;
+        lastLon = 0;
+    }
+
+    /**
+     * @return the node, or null if it is out of the region
+     */
+    private NodeEntity readNode(CodedInputStream in) throws IOException {
+
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        keys.clear();
+        vals.clear();
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case ID_FIELD:
+                    id = in.readSInt64();
+                    break;
+                case KEYS_FIELD:
+                    keys.read(in, tag);
+                    break;
+                case VALS_FIELD:
+                    vals.read(in, tag);
+                    break;
+                case LAT_FIELD:
+                    lat = in.readSInt64();
+                    break;
+                case LON_FIELD:
+                    lon = in.readSInt64();
+                    break;
+                default:
+                    in.skipField(tag);
             }
+        }
 
-            assert n != null;
-            return n;
-        } catch (Exception ex) {
-            System.out.println(" error parsing entity :" + ex.getMessage());
-            throw ex;
+        NodeEntity ne = new NodeEntity();
+        ne.id = id;
+        ne.x = ctx.fixedLon(lon);
+        ne.y = ctx.fixedLat(lat);
+
+        if (!inRegion(ne.y, ne.x))
+            return null;
+
+        Map<String, String> fields = null;
+
+        for (int i = 0; i < keys.size && i < vals.size; i++) {
+            String k = ctx.getStringById(keys.values[i]);
+            String v = ctx.getStringById(vals.values[i]);
+            if (fields == null) {
+                fields = new HashMap<String, String>();
+            }
+            fields.put(k, v);
         }
+
+        ne.fields = fields;
+        return ne;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,198 @@
+package io.sharedstreets.tools.builder.osm.parser;
+
+import io.sharedstreets.shadow.protobuf.CodedInputStream;
+import io.sharedstreets.shadow.protobuf.WireFormat;
+import io.sharedstreets.tools.builder.osm.OSMContext;
+import io.sharedstreets.tools.builder.osm.filter.ClipRegion;
+import io.sharedstreets.tools.builder.util.geo.FixedPoint;
+import org.apache.flink.api.java.tuple.Tuple2;
+
+/**
+ * parse only the id and position of the nodes of a block, as (node_id, packed fixed point lat/lon)
+ *
+ * Dense nodes are read straight from the delta coded id/lat/lon arrays, tags and the string table are not decoded.
+ */
+public class NodePositionParser extends Parser<Tuple2<Long, Long>> {
+
+    // Node and DenseNodes fields
+    private static final int ID_FIELD = 1;
+    private static final int LAT_FIELD = 8;
+    private static final int LON_FIELD = 9;
+
+    private final OSMContext ctx;
+
+    private final MessageCursor cursor;
+
+    // nodes out of the region are skipped (null to read all nodes)
+    private final ClipRegion clipRegion;
+
+    // id/lat/lon arrays of the current dense nodes, null when not in dense nodes
+    private CodedInputStream denseIds;
+    private CodedInputStream denseLats;
+    private CodedInputStream denseLons;
+
+    // delta decoding state of the dense nodes
+    private long lastId;
+    private long lastLat;
+    private long lastLon;
+
+    public NodePositionParser(PrimitiveBlockReader block) {
+        this(block, null);
+    }
+
+    public NodePositionParser(PrimitiveBlockReader block, ClipRegion clipRegion) {
+
+        assert block != null;
+
+        this.clipRegion = clipRegion;
+
+        // coordinates settings only, the string table is not needed
+        this.ctx = new OSMContext(block.getGranularity(), block.getLatOffset(), block.getLonOffset(),
+                block.getDateGranularity(), (String[]) null);
+
+        this.cursor = new MessageCursor(block, PrimitiveBlockReader.NODES_FIELD, PrimitiveBlockReader.DENSE_FIELD);
+    }
+
+    // id and packed position of the current node
+    private long id;
+    private long position;
+
+    @Override
+    public Tuple2<Long, Long> next() throws Exception {
+        return next(null);
+    }
+
+    @Override
+    public Tuple2<Long, Long> next(Tuple2<Long, Long> reuse) throws Exception {
+
+        if (!nextPosition())
+            return null;
+
+        if (reuse == null)
+            return new Tuple2<Long, Long>(id, position);
+
+        reuse.f0 = id;
+        reuse.f1 = position;
+        return reuse;
+    }
+
+    /**
+     * move to the next node in the region, its id and position are then read with getId and getPosition
+     *
+     * @return false at the end of the block
+     */
+    public boolean nextPosition() throws Exception {
+
+        while (true) {
+
+            if (denseIds != null) {
+
+                if (denseIds.isAtEnd() || denseLats.isAtEnd() || denseLons.isAtEnd()) {
+                    denseIds = null;
+                    continue;
+                }
+
+                lastId += denseIds.readSInt64();
+                lastLat += denseLats.readSInt64();
+                lastLon += denseLons.readSInt64();
+
+                long packed = FixedPoint.pack(ctx.fixedLat(lastLat), ctx.fixedLon(lastLon));
+                if (clipRegion == null || clipRegion.contains(packed)) {
+                    id = lastId;
+                    position = packed;
+                    return true;
+                }
+
+                continue;
+            }
+
+            int field = cursor.next();
+
+            if (field == 0)
+                return false;
+
+            if (field == PrimitiveBlockReader.DENSE_FIELD) {
+                openDense();
+                continue;
+            }
+
+            // plain node
+            CodedInputStream in = cursor.in();
+            long nodeId = 0;
+            long lat = 0;
+            long lon = 0;
+
+            int tag;
+            while ((tag = in.readTag()) != 0) {
+                switch (WireFormat.getTagFieldNumber(tag)) {
+                    case ID_FIELD:
+                        nodeId = in.readSInt64();
+                        break;
+                    case LAT_FIELD:
+                        lat = in.readSInt64();
+                        break;
+                    case LON_FIELD:
+                        lon = in.readSInt64();
+                        break;
+                    default:
+                        in.skipField(tag);
+                }
+            }
+
+            long packed = FixedPoint.pack(ctx.fixedLat(lat), ctx.fixedLon(lon));
+            if (clipRegion == null || clipRegion.contains(packed)) {
+                id = nodeId;
+                position = packed;
+                return true;
+            }
+        }
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the packed fixed point lat/lon of the node, see FixedPoint
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    private void openDense() throws Exception {
+
+        CodedInputStream in = cursor.in();
+
+        CodedInputStream ids = null;
+        CodedInputStream lats = null;
+        CodedInputStream lons = null;
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case ID_FIELD:
+                    ids = cursor.openPacked(tag);
+                    break;
+                case LAT_FIELD:
+                    lats = cursor.openPacked(tag);
+                    break;
+                case LON_FIELD:
+                    lons = cursor.openPacked(tag);
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+
+        if (ids == null || lats == null || lons == null)
+            return;
+
+        denseIds = ids;
+        denseLats = lats;
+        denseLons = lons;
+        lastId = 0;
+        lastLat = 0;
+        lastLon = 0;
+    }
+
+}
@@ -1,11 +1,6 @@
 package io.sharedstreets.tools.builder.osm.parser;
 
-import org.openstreetmap.osmosis.osmbinary.Osmformat;
-
-import io.sharedstreets.tools.builder.osm.OSMContext;
-import io.sharedstreets.tools.builder.osm.model.AttributedEntity;
-
-public abstract class Parser<T extends AttributedEntity> {
+public abstract class Parser<T> {
 
     /**
      * retrieve the next entity
@@ -15,20 +10,15 @@ public abstract class Parser<T extends AttributedEntity> {
      */
     public abstract T next() throws Exception;
 
-    protected OSMContext createOSMContext(Osmformat.PrimitiveBlock block) {
-        assert block != null;
-        Osmformat.StringTable stablemessage = block.getStringtable();
-        String[] strings = new String[stablemessage.getSCount()];
-
-        for (int i = 0; i < strings.length; i++) {
-            strings[i] = stablemessage.getS(i).toStringUtf8();
-        }
-
-        int granularity = block.getGranularity();
-        long lat_offset = block.getLatOffset();
-        long lon_offset = block.getLonOffset();
-        int date_granularity = block.getDateGranularity();
-
-        return new OSMContext(granularity, lat_offset, lon_offset, date_granularity, strings);
+    /**
+     * retrieve the next entity, filling reuse when the parser supports it
+     *
+     * @param reuse record to fill, may be null
+     * @return the entity, reuse or a new record, null at the end of the block
+     * @throws Exception
+     */
+    public T next(T reuse) throws Exception {
+        return next();
     }
+
 }
@@ -0,0 +1,161 @@
+package io.sharedstreets.tools.builder.osm.parser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import io.sharedstreets.shadow.protobuf.CodedInputStream;
+import io.sharedstreets.shadow.protobuf.WireFormat;
+import io.sharedstreets.tools.builder.osm.OSMContext;
+
+/**
+ * Inflated PrimitiveBlock, read in place.
+ *
+ * Only the block settings and the position of the string table and of the groups are read up front,
+ * the parsers then decode the entities straight from the bytes of the groups (see MessageCursor).
+ */
+public class PrimitiveBlockReader {
+
+    // PrimitiveBlock fields
+    private static final int STRINGTABLE_FIELD = 1;
+    private static final int PRIMITIVEGROUP_FIELD = 2;
+    private static final int GRANULARITY_FIELD = 17;
+    private static final int DATE_GRANULARITY_FIELD = 18;
+    private static final int LAT_OFFSET_FIELD = 19;
+    private static final int LON_OFFSET_FIELD = 20;
+
+    // PrimitiveGroup fields
+    public static final int NODES_FIELD = 1;
+    public static final int DENSE_FIELD = 2;
+    public static final int WAYS_FIELD = 3;
+    public static final int RELATIONS_FIELD = 4;
+    public static final int CHANGESETS_FIELD = 5;
+
+    private final byte[] data;
+
+    private final int length;
+
+    private int stringTableOffset = 0;
+    private int stringTableLength = 0;
+
+    private int[] groupOffsets = new int[4];
+    private int[] groupLengths = new int[4];
+    private int groupCount = 0;
+
+    private int granularity = 100;
+    private int dateGranularity = 1000;
+    private long latOffset = 0;
+    private long lonOffset = 0;
+
+    private OSMContext context;
+
+    /**
+     * @param data serialized PrimitiveBlock, as inflated from a data blob
+     */
+    public PrimitiveBlockReader(byte[] data) throws IOException {
+        this(data, data.length);
+    }
+
+    /**
+     * @param data array starting with the serialized PrimitiveBlock, possibly larger (reused arrays)
+     * @param length length of the block in data
+     */
+    public PrimitiveBlockReader(byte[] data, int length) throws IOException {
+
+        assert data != null;
+
+        this.data = data;
+        this.length = length;
+
+        CodedInputStream in = CodedInputStream.newInstance(data, 0, length);
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case STRINGTABLE_FIELD:
+                    stringTableLength = in.readRawVarint32();
+                    stringTableOffset = in.getTotalBytesRead();
+                    in.skipRawBytes(stringTableLength);
+                    break;
+                case PRIMITIVEGROUP_FIELD:
+                    if (groupCount == groupOffsets.length) {
+                        groupOffsets = Arrays.copyOf(groupOffsets, 2 * groupCount);
+                        groupLengths = Arrays.copyOf(groupLengths, 2 * groupCount);
+                    }
+                    groupLengths[groupCount] = in.readRawVarint32();
+                    groupOffsets[groupCount] = in.getTotalBytesRead();
+                    in.skipRawBytes(groupLengths[groupCount]);
+                    groupCount++;
+                    break;
+                case GRANULARITY_FIELD:
+                    granularity = in.readInt32();
+                    break;
+                case DATE_GRANULARITY_FIELD:
+                    dateGranularity = in.readInt32();
+                    break;
+                case LAT_OFFSET_FIELD:
+                    latOffset = in.readInt64();
+                    break;
+                case LON_OFFSET_FIELD:
+                    lonOffset = in.readInt64();
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getGroupCount() {
+        return groupCount;
+    }
+
+    int getGroupOffset(int group) {
+        return groupOffsets[group];
+    }
+
+    /**
+     * @return a stream over the fields of a group
+     */
+    CodedInputStream openGroup(int group) {
+        return CodedInputStream.newInstance(data, groupOffsets[group], groupLengths[group]);
+    }
+
+    public int getGranularity() {
+        return granularity;
+    }
+
+    public int getDateGranularity() {
+        return dateGranularity;
+    }
+
+    public long getLatOffset() {
+        return latOffset;
+    }
+
+    public long getLonOffset() {
+        return lonOffset;
+    }
+
+    /**
+     * string table and coordinate settings of the block, shared by the parsers of the block.
+     * Strings are only decoded when looked up.
+     */
+    public OSMContext getContext() throws IOException {
+
+        if (context == null) {
+            StringTable strings = new StringTable(data, stringTableOffset, stringTableLength);
+            context = new OSMContext(granularity, latOffset, lonOffset, dateGranularity, strings);
+        }
+
+        return context;
+    }
+
+}
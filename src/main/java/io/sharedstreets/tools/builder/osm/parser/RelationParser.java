@@ -1,152 +1,153 @@
 package io.sharedstreets.tools.builder.osm.parser;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.List;
-
-import org.openstreetmap.osmosis.osmbinary.Osmformat;
 
+import io.sharedstreets.shadow.protobuf.CodedInputStream;
+import io.sharedstreets.shadow.protobuf.WireFormat;
 import io.sharedstreets.tools.builder.osm.OSMContext;
 import io.sharedstreets.tools.builder.osm.model.RelatedObject;
 import io.sharedstreets.tools.builder.osm.model.Relation;
 
 public class RelationParser extends Parser<Relation> {
 
+    // Relation fields
+    private static final int ID_FIELD = 1;
+    private static final int KEYS_FIELD = 2;
+    private static final int VALS_FIELD = 3;
+    private static final int ROLES_SID_FIELD = 8;
+    private static final int MEMIDS_FIELD = 9;
+    private static final int TYPES_FIELD = 10;
+
+    // Relation.MemberType values
+    private static final int NODE_TYPE = 0;
+    private static final int WAY_TYPE = 1;
+    private static final int RELATION_TYPE = 2;
+
     private OSMContext ctx;
 
-    private List<Osmformat.PrimitiveGroup> groups;
+    private MessageCursor cursor;
 
-    public RelationParser(Osmformat.PrimitiveBlock block) {
+    // fields of the current relation, reused from one relation to the next
+    private final MessageCursor.Ints keys = new MessageCursor.Ints();
+    private final MessageCursor.Ints vals = new MessageCursor.Ints();
+    private final MessageCursor.Ints roles = new MessageCursor.Ints();
+    private final MessageCursor.Longs memids = new MessageCursor.Longs();
+    private final MessageCursor.Ints types = new MessageCursor.Ints();
+
+    public RelationParser(PrimitiveBlockReader block) throws IOException {
         assert block != null;
-        this.ctx = createOSMContext(block);
-        groups = new ArrayList<Osmformat.PrimitiveGroup>(block.getPrimitivegroupList());
+        this.ctx = block.getContext();
+        cursor = new MessageCursor(block, PrimitiveBlockReader.RELATIONS_FIELD);
     }
 
-    public class RelationParserDecomposer {
-
-        private ArrayList<Osmformat.Relation> left;
+    @Override
+    public Relation next() throws Exception {
 
-        public RelationParserDecomposer(List<Osmformat.Relation> rels) {
-            assert rels != null;
-            left = new ArrayList<Osmformat.Relation>(rels);
+        if (cursor == null) { // end of group read
+            return null;
         }
 
-        public Relation next() {
-
-            if (left.size() == 0)
-                return null;
-
-            Osmformat.Relation r = left.get(0);
-            left.remove(0);
-
-            // handling fields
+        if (cursor.next() == 0) {
+            cursor = null;
+            return null;
+        }
 
-            long id = r.getId();
+        return readRelation(cursor.in());
+    }
 
-            HashMap<String, String> flds = null;
-            for (int i = 0; i < r.getKeysCount(); i++) {
-                String k = ctx.getStringById(r.getKeys(i));
-                String v = ctx.getStringById(r.getVals(i));
-                if (flds == null) {
-                    flds = new HashMap<String, String>();
-                }
-                flds.put(k, v);
+    private Relation readRelation(CodedInputStream in) throws IOException {
+
+        long id = 0;
+        keys.clear();
+        vals.clear();
+        roles.clear();
+        memids.clear();
+        types.clear();
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case ID_FIELD:
+                    id = in.readInt64();
+                    break;
+                case KEYS_FIELD:
+                    keys.read(in, tag);
+                    break;
+                case VALS_FIELD:
+                    vals.read(in, tag);
+                    break;
+                case ROLES_SID_FIELD:
+                    roles.read(in, tag);
+                    break;
+                case MEMIDS_FIELD:
+                    memids.readDeltas(in, tag);
+                    break;
+                case TYPES_FIELD:
+                    types.read(in, tag);
+                    break;
+                default:
+                    in.skipField(tag);
             }
+        }
 
-            // ok we have fields
-
-            // extract outer and inner ways relations
-
-            long rid = 0;
-            List<RelatedObject> relatedObjects = null;
-            for (int i = 0; i < r.getMemidsCount(); i++) {
-                rid += r.getMemids(i);
-                String role = ctx.getStringById(r.getRolesSid(i));
-                Osmformat.Relation.MemberType mt = r.getTypes(i);
-
-                String stringType = null;
-                switch (mt) {
-
-                    case NODE:
-                        stringType = "node";
-                        break;
-                    case WAY:
-                        stringType = "way";
-                        break;
-                    case RELATION:
-                        stringType = "relation";
-                        break;
-                    default:
-                        String msg = "unknown relation type for object " + id + " and relation " + rid;
-
-                        throw new RuntimeException(msg);
-                }
-
-                if (relatedObjects == null) {
-                    relatedObjects = new ArrayList<>();
-                }
-
-                RelatedObject ro = new RelatedObject();
-                ro.relatedId = rid;
-                ro.role = role;
-                ro.type = stringType;
-
-                // add relation
-                relatedObjects.add(ro);
+        // handling fields
 
+        HashMap<String, String> flds = null;
+        for (int i = 0; i < keys.size && i < vals.size; i++) {
+            String k = ctx.getStringById(keys.values[i]);
+            String v = ctx.getStringById(vals.values[i]);
+            if (flds == null) {
+                flds = new HashMap<String, String>();
             }
-
-            long wid = r.getId();
-
-            Relation returnValue = new Relation();
-            returnValue.fields = flds;
-            returnValue.id = wid;
-            returnValue.relatedObjects = (relatedObjects == null ? null
-                    : relatedObjects.toArray(new RelatedObject[relatedObjects.size()]));
-
-            return returnValue;
+            flds.put(k, v);
         }
 
-    }
-
-    private Osmformat.PrimitiveGroup current;
-
-    private RelationParserDecomposer decomposer;
+        // extract outer and inner ways relations
 
-    @Override
-    public Relation next() throws Exception {
-
-        if (groups == null) { // end of group read
-            return null;
+        RelatedObject[] relatedObjects = null;
+        if (memids.size > 0) {
+            relatedObjects = new RelatedObject[memids.size];
         }
 
-        // next primitive group
-        if (current == null) {
-
-            if (groups.size() == 0) {
-                groups = null;
-                return null;
+        for (int i = 0; i < memids.size; i++) {
+            long rid = memids.values[i];
+            String role = ctx.getStringById(roles.values[i]);
+
+            String stringType = null;
+            switch (types.values[i]) {
+
+                case NODE_TYPE:
+                    stringType = "node";
+                    break;
+                case WAY_TYPE:
+                    stringType = "way";
+                    break;
+                case RELATION_TYPE:
+                    stringType = "relation";
+                    break;
+                default:
+                    String msg = "unknown relation type for object " + id + " and relation " + rid;
+
+                    throw new RuntimeException(msg);
             }
 
-            assert groups.size() > 0;
-            Osmformat.PrimitiveGroup g = groups.get(0);
-            current = g;
-            decomposer = new RelationParserDecomposer(g.getRelationsList());
-            groups.remove(0);
+            RelatedObject ro = new RelatedObject();
+            ro.relatedId = rid;
+            ro.role = role;
+            ro.type = stringType;
 
-        }
-
-        assert decomposer != null;
+            // add relation
+            relatedObjects[i] = ro;
 
-        Relation w = decomposer.next();
-
-        if (w == null) {
-            // next group
-            current = null;
-            return next();
         }
 
-        return w;
+        Relation returnValue = new Relation();
+        returnValue.fields = flds;
+        returnValue.id = id;
+        returnValue.relatedObjects = relatedObjects;
+
+        return returnValue;
     }
 
-}
\ No newline at end of file
+}
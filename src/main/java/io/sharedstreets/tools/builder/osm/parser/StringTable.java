@@ -0,0 +1,124 @@
+package io.sharedstreets.tools.builder.osm.parser;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import io.sharedstreets.shadow.protobuf.CodedInputStream;
+import io.sharedstreets.shadow.protobuf.WireFormat;
+
+/**
+ * String table of a block, decoded lazily.
+ *
+ * The table is scanned once for the position of each string, a string is decoded the first time
+ * its index is looked up. Lookups by value compare the UTF-8 bytes without decoding the table.
+ */
+public class StringTable implements Serializable {
+
+    // StringTable fields
+    private static final int S_FIELD = 1;
+
+    private final byte[] data;
+
+    // position of each string in data, null for a table built from decoded strings
+    private final int[] offsets;
+    private final int[] lengths;
+
+    // decoded strings, null until looked up
+    private final String[] strings;
+
+    public StringTable(String[] strings) {
+        this.data = null;
+        this.offsets = null;
+        this.lengths = null;
+        this.strings = strings;
+    }
+
+    /**
+     * @param data bytes holding the serialized StringTable message
+     * @param offset position of the message in data
+     * @param length length of the message
+     */
+    public StringTable(byte[] data, int offset, int length) throws IOException {
+
+        int[] offsets = new int[256];
+        int[] lengths = new int[256];
+        int count = 0;
+
+        CodedInputStream in = CodedInputStream.newInstance(data, offset, length);
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+
+            if (WireFormat.getTagFieldNumber(tag) != S_FIELD) {
+                in.skipField(tag);
+                continue;
+            }
+
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * count);
+                lengths = Arrays.copyOf(lengths, 2 * count);
+            }
+
+            lengths[count] = in.readRawVarint32();
+            offsets[count] = offset + in.getTotalBytesRead();
+            in.skipRawBytes(lengths[count]);
+            count++;
+        }
+
+        this.data = data;
+        this.offsets = Arrays.copyOf(offsets, count);
+        this.lengths = Arrays.copyOf(lengths, count);
+        this.strings = new String[count];
+    }
+
+    public int size() {
+        return strings.length;
+    }
+
+    public String get(int id) {
+
+        String s = strings[id];
+
+        if (s == null) {
+            s = new String(data, offsets[id], lengths[id], StandardCharsets.UTF_8);
+            strings[id] = s;
+        }
+
+        return s;
+    }
+
+    /**
+     * @return the index of the string in the table, or -1 if missing
+     */
+    public int indexOf(String value) {
+
+        if (data == null) {
+            for (int i = 0; i < strings.length; i++) {
+                if (value.equals(strings[i]))
+                    return i;
+            }
+            return -1;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        for (int i = 0; i < offsets.length; i++) {
+
+            if (lengths[i] != bytes.length)
+                continue;
+
+            int offset = offsets[i];
+            int j = 0;
+            while (j < bytes.length && data[offset + j] == bytes[j])
+                j++;
+
+            if (j == bytes.length)
+                return i;
+        }
+
+        return -1;
+    }
+
+}
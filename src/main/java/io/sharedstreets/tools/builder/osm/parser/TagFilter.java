@@ -0,0 +1,70 @@
+package io.sharedstreets.tools.builder.osm.parser;
+
+import java.io.Serializable;
+
+import io.sharedstreets.tools.builder.osm.OSMContext;
+
+/**
+ * Keys an entity must carry to be parsed.
+ *
+ * The keys are looked up in the string table once per block, entities are then matched on string ids
+ * without decoding their tags.
+ */
+public class TagFilter implements Serializable {
+
+    private final String[] requiredKeys;
+
+    public TagFilter(String... requiredKeys) {
+        this.requiredKeys = requiredKeys;
+    }
+
+    public String[] getRequiredKeys() {
+        return requiredKeys;
+    }
+
+    /**
+     * find the string ids of the required keys in the block string table
+     *
+     * @return the key ids, or null if a key is not in the table and no entity of the block can match
+     */
+    public int[] resolve(OSMContext ctx) {
+
+        int[] keyIds = new int[requiredKeys.length];
+
+        for (int k = 0; k < requiredKeys.length; k++) {
+
+            keyIds[k] = ctx.getStringId(requiredKeys[k]);
+
+            if (keyIds[k] == -1)
+                return null;
+        }
+
+        return keyIds;
+    }
+
+    /**
+     * @param keys key ids of the entity
+     * @param keyCount number of keys
+     * @param keyIds key ids resolved for the block of the entity
+     * @return true if the entity has all the required keys
+     */
+    public static boolean matches(int[] keys, int keyCount, int[] keyIds) {
+
+        for (int keyId : keyIds) {
+
+            boolean found = false;
+            for (int i = 0; i < keyCount; i++) {
+                if (keys[i] == keyId) {
+                    found = true;
+                    break;
+                }
+            }
+
+            if (!found)
+                return false;
+        }
+
+        return true;
+    }
+
+}
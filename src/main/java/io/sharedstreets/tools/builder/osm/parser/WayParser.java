@@ -1,128 +1,241 @@
 package io.sharedstreets.tools.builder.osm.parser;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import io.sharedstreets.tools.builder.osm.OSMContext;
 import io.sharedstreets.tools.builder.osm.model.RelatedObject;
+import io.sharedstreets.tools.builder.osm.model.WayClassification;
 import io.sharedstreets.tools.builder.osm.model.WayEntity;
-import org.openstreetmap.osmosis.osmbinary.Osmformat;
+import io.sharedstreets.shadow.protobuf.CodedInputStream;
+import io.sharedstreets.shadow.protobuf.WireFormat;
+import io.sharedstreets.tools.builder.util.geo.FixedPoint;
 
 public class WayParser extends Parser<WayEntity> {
 
+    // Way fields, lat / lon are the LocationsOnWays feature
+    private static final int ID_FIELD = 1;
+    private static final int KEYS_FIELD = 2;
+    private static final int VALS_FIELD = 3;
+    private static final int REFS_FIELD = 8;
+    private static final int LAT_FIELD = 9;
+    private static final int LON_FIELD = 10;
+
     private OSMContext ctx;
-    private List<Osmformat.PrimitiveGroup> groups;
 
-    public WayParser(Osmformat.PrimitiveBlock block) {
+    // null once the block is read, or if no way of the block can match the filter
+    private MessageCursor cursor;
 
-        assert block != null;
+    // string ids of the keys a way must have, null to parse all ways
+    private int[] requiredKeyIds;
 
-        this.ctx = createOSMContext(block);
+    // read the node coordinates stored on the ways
+    private boolean readLocations;
 
-        groups = new ArrayList<Osmformat.PrimitiveGroup>(block.getPrimitivegroupList());
+    // keep all the tags of the ways, otherwise only their classification and name
+    private boolean readTags;
 
-    }
+    // string ids of WayClassification.KEYS in the block, -1 for the keys it does not use
+    private final int[] classificationKeyIds = new int[WayClassification.KEYS.length];
+    private final String[] classificationValues = new String[WayClassification.KEYS.length];
 
-    public class WayParserDecomposer {
+    // fields of the current way, reused from one way to the next
+    private final MessageCursor.Ints keys = new MessageCursor.Ints();
+    private final MessageCursor.Ints vals = new MessageCursor.Ints();
+    private final MessageCursor.Longs refs = new MessageCursor.Longs();
+    private final MessageCursor.Longs lats = new MessageCursor.Longs();
+    private final MessageCursor.Longs lons = new MessageCursor.Longs();
 
-        private ArrayList<Osmformat.Way> left;
+    public WayParser(PrimitiveBlockReader block) throws IOException {
+        this(block, null);
+    }
 
-        public WayParserDecomposer(List<Osmformat.Way> ways) {
-            assert ways != null;
-            left = new ArrayList<Osmformat.Way>(ways);
-        }
+    /**
+     * @param filter ways without the required keys are skipped before their refs and tags are decoded (null to parse all ways)
+     */
+    public WayParser(PrimitiveBlockReader block, TagFilter filter) throws IOException {
+        this(block, filter, false);
+    }
 
-        public WayEntity next() {
+    /**
+     * @param readLocations read the node coordinates of the ways, for files with the LocationsOnWays feature
+     */
+    public WayParser(PrimitiveBlockReader block, TagFilter filter, boolean readLocations) throws IOException {
+        this(block, filter, readLocations, true);
+    }
 
-            if (left.size() == 0)
-                return null;
+    /**
+     * @param readTags keep all the tags of the ways, the ways are classified and named either way
+     */
+    public WayParser(PrimitiveBlockReader block, TagFilter filter, boolean readLocations, boolean readTags) throws IOException {
 
-            Osmformat.Way w = left.get(0);
-            left.remove(0);
+        assert block != null;
 
-            long lastRef = 0;
-            List<Long> l = w.getRefsList();
+        this.ctx = block.getContext();
+        this.readLocations = readLocations;
+        this.readTags = readTags;
 
-            long[] refids = new long[l.size()];
-            // liste des references ...
+        for (int k = 0; k < classificationKeyIds.length; k++)
+            classificationKeyIds[k] = ctx.getStringId(WayClassification.KEYS[k]);
 
-            List<RelatedObject> rels = null;
+        if (filter != null) {
+            requiredKeyIds = filter.resolve(this.ctx);
 
-            int cpt = 0;
-            for (Long theid : l) {
-                if (rels == null)
-                    rels = new ArrayList<RelatedObject>();
-                lastRef += theid;
-                refids[cpt++] = lastRef;
-                RelatedObject relo = new RelatedObject();
-                relo.relatedId = lastRef;
-                rels.add(relo);
+            if (requiredKeyIds == null) {
+                // a required key is not in the string table, no way of the block can match
+                return;
             }
+        }
 
-            Map<String, String> flds = null;
+        cursor = new MessageCursor(block, PrimitiveBlockReader.WAYS_FIELD);
 
-            for (int i = 0; i < w.getKeysCount(); i++) {
-                String k = ctx.getStringById(w.getKeys(i));
-                String v = ctx.getStringById(w.getVals(i));
-                if (flds == null) {
-                    flds = new HashMap<String, String>();
-                }
-                flds.put(k, v);
-            }
-
-            long wid = w.getId();
+    }
 
-            WayEntity r = new WayEntity();
+    @Override
+    public WayEntity next() throws Exception {
 
-            r.fields = flds;
-            r.id = wid;
-            r.relatedObjects = (rels == null ? null : rels.toArray(new RelatedObject[rels.size()]));
+        if (cursor == null) { // end of group read
+            return null;
+        }
 
-            return r;
+        while (cursor.next() != 0) {
+            WayEntity w = readWay(cursor.in());
+            if (w != null)
+                return w;
         }
 
+        cursor = null;
+        return null;
     }
 
-    private Osmformat.PrimitiveGroup current;
+    /**
+     * @return the way, or null if it does not match the filter
+     */
+    private WayEntity readWay(CodedInputStream in) throws IOException {
 
-    private WayParserDecomposer decomposer;
+        long wid = 0;
+        keys.clear();
+        vals.clear();
+        refs.clear();
+        lats.clear();
+        lons.clear();
 
-    @Override
-    public WayEntity next() throws Exception {
+        // keys come before the refs, ways are matched as soon as the refs are reached
+        boolean matched = requiredKeyIds == null;
+
+        int tag;
+        while ((tag = in.readTag()) != 0) {
 
-        if (groups == null) { // end of group read
+            int field = WireFormat.getTagFieldNumber(tag);
+
+            if (!matched && field > VALS_FIELD) {
+                if (!TagFilter.matches(keys.values, keys.size, requiredKeyIds))
+                    return null;
+                matched = true;
+            }
+
+            switch (field) {
+                case ID_FIELD:
+                    wid = in.readInt64();
+                    break;
+                case KEYS_FIELD:
+                    keys.read(in, tag);
+                    break;
+                case VALS_FIELD:
+                    vals.read(in, tag);
+                    break;
+                case REFS_FIELD:
+                    refs.readDeltas(in, tag);
+                    break;
+                case LAT_FIELD:
+                    if (readLocations)
+                        lats.readDeltas(in, tag);
+                    else
+                        in.skipField(tag);
+                    break;
+                case LON_FIELD:
+                    if (readLocations)
+                        lons.readDeltas(in, tag);
+                    else
+                        in.skipField(tag);
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+
+        if (!matched && !TagFilter.matches(keys.values, keys.size, requiredKeyIds))
             return null;
+
+        RelatedObject[] rels = null;
+
+        if (refs.size > 0) {
+            rels = new RelatedObject[refs.size];
+            for (int i = 0; i < refs.size; i++) {
+                RelatedObject relo = new RelatedObject();
+                relo.relatedId = refs.values[i];
+                rels[i] = relo;
+            }
         }
 
-        // next primitive group
-        if (current == null) {
+        Map<String, String> flds = null;
 
-            if (groups.size() == 0) {
-                groups = null;
-                return null;
+        Arrays.fill(classificationValues, null);
+
+        for (int i = 0; i < keys.size && i < vals.size; i++) {
+
+            // only the values of the classification keys are decoded
+            for (int k = 0; k < classificationKeyIds.length; k++) {
+                if (keys.values[i] == classificationKeyIds[k]) {
+                    classificationValues[k] = ctx.getStringById(vals.values[i]);
+                    break;
+                }
             }
 
-            assert groups.size() > 0;
-            Osmformat.PrimitiveGroup g = groups.get(0);
-            current = g;
-            decomposer = new WayParserDecomposer(g.getWaysList());
-            groups.remove(0);
+            if (!readTags)
+                continue;
 
+            String k = ctx.getStringById(keys.values[i]);
+            String v = ctx.getStringById(vals.values[i]);
+            if (flds == null) {
+                flds = new HashMap<String, String>();
+            }
+            flds.put(k, v);
         }
 
-        assert decomposer != null;
+        WayEntity r = new WayEntity();
+
+        r.fields = flds;
+        r.classification = WayClassification.classify(classificationValues);
+        if (classificationValues[WayClassification.NAME_KEY] != null)
+            r.name = classificationValues[WayClassification.NAME_KEY].trim();
+        r.id = wid;
+        r.relatedObjects = rels;
 
-        WayEntity w = decomposer.next();
+        if (readLocations)
+            r.locations = packLocations();
+
+        return r;
+    }
+
+    /**
+     * @return the packed fixed point coordinates of the way nodes, or null if the way has none
+     */
+    private long[] packLocations() {
+
+        if (lats.size == 0 || lons.size == 0)
+            return null;
 
-        if (w == null) {
-            // next group
-            current = null;
-            return next();
+        long[] locations = new long[refs.size];
+        for (int i = 0; i < locations.length; i++) {
+            long lat = i < lats.size ? lats.values[i] : 0;
+            long lon = i < lons.size ? lons.values[i] : 0;
+            locations[i] = FixedPoint.pack(ctx.fixedLat(lat), ctx.fixedLon(lon));
         }
 
-        return w;
+        return locations;
     }
 
-}
\ No newline at end of file
+}
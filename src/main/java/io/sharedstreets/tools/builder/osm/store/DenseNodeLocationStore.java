@@ -0,0 +1,124 @@
+package io.sharedstreets.tools.builder.osm.store;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import io.sharedstreets.tools.builder.util.geo.FixedPoint;
+
+/**
+ * Node locations in a memory mapped file, an array of 8 byte locations indexed by node id.
+ *
+ * The file is mapped in 1 GB chunks as ids are written, the ranges without any node are left as holes of the file.
+ * All the tasks share the file through the page cache, the store is only usable when they run on the same machine.
+ * Negative node ids are not supported.
+ */
+public class DenseNodeLocationStore implements NodeLocationStore {
+
+    // locations per chunk
+    private static final int CHUNK_BITS = 27;
+
+    private static final long CHUNK_BYTES = 8L << CHUNK_BITS;
+
+    private static final long OFFSET_MASK = (1L << CHUNK_BITS) - 1;
+
+    private String path;
+
+    // mapped chunks, replaced by a larger copy when a chunk is added
+    private transient volatile MappedByteBuffer[] chunks;
+
+    /**
+     * @param path file holding the locations, expected to be empty when the nodes are written
+     */
+    public DenseNodeLocationStore(String path) {
+        this.path = path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public void put(long nodeId, long location) throws IOException {
+
+        if (nodeId < 0)
+            throw new IllegalArgumentException("negative node id " + nodeId + " in a dense node store");
+
+        MappedByteBuffer chunk = chunk((int) (nodeId >>> CHUNK_BITS), true);
+
+        // stored xor the undefined location, so that the holes of the file read as undefined
+        chunk.putLong((int) ((nodeId & OFFSET_MASK) << 3), location ^ FixedPoint.UNDEFINED);
+    }
+
+    @Override
+    public long get(long nodeId) throws IOException {
+
+        if (nodeId < 0)
+            return FixedPoint.UNDEFINED;
+
+        MappedByteBuffer chunk = chunk((int) (nodeId >>> CHUNK_BITS), false);
+
+        int offset = (int) ((nodeId & OFFSET_MASK) << 3);
+        if (chunk == null || offset + 8 > chunk.capacity())
+            return FixedPoint.UNDEFINED;
+
+        return chunk.getLong(offset) ^ FixedPoint.UNDEFINED;
+    }
+
+    @Override
+    public void finish() {
+        // written pages are shared through the page cache, the file is dropped once the build is done
+        chunks = null;
+    }
+
+    @Override
+    public void merge(NodeLocationStore other) {
+
+        if (!path.equals(((DenseNodeLocationStore) other).path))
+            throw new IllegalArgumentException("dense node stores in different files");
+    }
+
+    private MappedByteBuffer chunk(int index, boolean write) throws IOException {
+
+        MappedByteBuffer[] c = chunks;
+        if (c != null && index < c.length && c[index] != null)
+            return c[index];
+
+        return mapChunk(index, write);
+    }
+
+    private synchronized MappedByteBuffer mapChunk(int index, boolean write) throws IOException {
+
+        MappedByteBuffer[] c = chunks;
+        if (c != null && index < c.length && c[index] != null)
+            return c[index];
+
+        long start = index * CHUNK_BYTES;
+
+        MappedByteBuffer chunk;
+
+        // the mapping stays valid once the file is closed
+        try (RandomAccessFile file = new RandomAccessFile(path, write ? "rw" : "r")) {
+
+            if (write) {
+                // extends the file, the unwritten pages are holes
+                chunk = file.getChannel().map(FileChannel.MapMode.READ_WRITE, start, CHUNK_BYTES);
+            } else {
+                long length = Math.min(CHUNK_BYTES, file.length() - start);
+                if (length <= 0)
+                    return null;
+                chunk = file.getChannel().map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+
+        MappedByteBuffer[] grown = c == null ? new MappedByteBuffer[index + 1]
+                : Arrays.copyOf(c, Math.max(c.length, index + 1));
+        grown[index] = chunk;
+        chunks = grown;
+
+        return chunk;
+    }
+
+}
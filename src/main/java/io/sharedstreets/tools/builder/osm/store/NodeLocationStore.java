@@ -0,0 +1,31 @@
+package io.sharedstreets.tools.builder.osm.store;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Packed fixed point locations of nodes (see FixedPoint), looked up by node id when building the ways.
+ *
+ * Each partition of the node positions fills a store, the stores are then merged and broadcast to the tasks
+ * reading the ways.
+ */
+public interface NodeLocationStore extends Serializable {
+
+    void put(long nodeId, long location) throws IOException;
+
+    /**
+     * @return the packed location of the node, FixedPoint.UNDEFINED if the node is not in the store
+     */
+    long get(long nodeId) throws IOException;
+
+    /**
+     * called once all the nodes of a partition are stored, before the store is merged and read
+     */
+    void finish() throws IOException;
+
+    /**
+     * add all the nodes of another store of the same kind
+     */
+    void merge(NodeLocationStore other);
+
+}
@@ -0,0 +1,125 @@
+package io.sharedstreets.tools.builder.osm.store;
+
+import java.util.Arrays;
+
+import io.sharedstreets.tools.builder.util.geo.FixedPoint;
+
+/**
+ * Node locations in arrays sorted by id, looked up by binary search.
+ *
+ * Sized to the nodes actually stored, for extracts whose node ids are spread over the whole id range.
+ */
+public class SparseNodeLocationStore implements NodeLocationStore {
+
+    private long[] ids = new long[1024];
+    private long[] locations = new long[1024];
+    private int size = 0;
+
+    private boolean sorted = true;
+
+    @Override
+    public void put(long nodeId, long location) {
+
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, 2 * size);
+            locations = Arrays.copyOf(locations, 2 * size);
+        }
+
+        if (size > 0 && nodeId < ids[size - 1])
+            sorted = false;
+
+        ids[size] = nodeId;
+        locations[size] = location;
+        size++;
+    }
+
+    @Override
+    public long get(long nodeId) {
+
+        int i = Arrays.binarySearch(ids, 0, size, nodeId);
+
+        return i >= 0 ? locations[i] : FixedPoint.UNDEFINED;
+    }
+
+    @Override
+    public void finish() {
+
+        if (!sorted)
+            sort(0, size - 1);
+        sorted = true;
+
+        ids = Arrays.copyOf(ids, size);
+        locations = Arrays.copyOf(locations, size);
+    }
+
+    @Override
+    public void merge(NodeLocationStore other) {
+
+        SparseNodeLocationStore o = (SparseNodeLocationStore) other;
+
+        long[] mergedIds = new long[size + o.size];
+        long[] mergedLocations = new long[mergedIds.length];
+
+        int i = 0, j = 0, k = 0;
+        while (i < size || j < o.size) {
+            if (j == o.size || (i < size && ids[i] <= o.ids[j])) {
+                mergedIds[k] = ids[i];
+                mergedLocations[k++] = locations[i++];
+            } else {
+                mergedIds[k] = o.ids[j];
+                mergedLocations[k++] = o.locations[j++];
+            }
+        }
+
+        ids = mergedIds;
+        locations = mergedLocations;
+        size = k;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * quicksort of the ids, moving the locations along
+     */
+    private void sort(int low, int high) {
+
+        while (low < high) {
+
+            long pivot = ids[(low + high) >>> 1];
+            int i = low, j = high;
+
+            while (i <= j) {
+                while (ids[i] < pivot)
+                    i++;
+                while (ids[j] > pivot)
+                    j--;
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+
+            // recurse on the smaller side
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+
+        long id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+
+        long location = locations[i];
+        locations[i] = locations[j];
+        locations[j] = location;
+    }
+
+}
@@ -0,0 +1,112 @@
+package io.sharedstreets.tools.builder.serialization;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+import io.sharedstreets.tools.builder.model.BaseSegment;
+import io.sharedstreets.tools.builder.model.WaySection;
+import org.apache.flink.api.common.typeinfo.TypeInfoFactory;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+/**
+ * BaseSegment with its flags in one byte and its way sections inline.
+ */
+public class BaseSegmentSerializer extends ModelSerializer<BaseSegment> {
+
+    public static final BaseSegmentSerializer INSTANCE = new BaseSegmentSerializer();
+
+    private static final int ONE_WAY = 1;
+    private static final int ROUNDABOUT = 2;
+    private static final int LINK = 4;
+
+    @Override
+    public BaseSegment createInstance() {
+        return new BaseSegment();
+    }
+
+    @Override
+    public BaseSegment copy(BaseSegment from) {
+
+        if (from == null)
+            return null;
+
+        BaseSegment segment = new BaseSegment();
+        segment.id = from.id;
+        segment.fields = copyFields(from.fields);
+        segment.oneWay = from.oneWay;
+        segment.roundabout = from.roundabout;
+        segment.link = from.link;
+        segment.level = from.level;
+
+        if (from.waySections != null) {
+            segment.waySections = new WaySection[from.waySections.length];
+            for (int i = 0; i < from.waySections.length; i++)
+                segment.waySections[i] = WaySectionSerializer.copySection(from.waySections[i]);
+        }
+
+        return segment;
+    }
+
+    @Override
+    public void serialize(BaseSegment record, DataOutputView target) throws IOException {
+
+        target.writeLong(record.id);
+        writeFields(record.fields, target);
+        target.writeByte((record.oneWay ? ONE_WAY : 0) | (record.roundabout ? ROUNDABOUT : 0) | (record.link ? LINK : 0));
+        writeVarInt(record.level, target);
+
+        writeLength(record.waySections, target);
+        if (record.waySections != null) {
+            for (WaySection section : record.waySections)
+                WaySectionSerializer.writeSection(section, target);
+        }
+    }
+
+    @Override
+    public BaseSegment deserialize(DataInputView source) throws IOException {
+
+        BaseSegment segment = new BaseSegment();
+        segment.id = source.readLong();
+        segment.fields = readFields(source);
+
+        int flags = source.readByte();
+        segment.oneWay = (flags & ONE_WAY) != 0;
+        segment.roundabout = (flags & ROUNDABOUT) != 0;
+        segment.link = (flags & LINK) != 0;
+        segment.level = readVarInt(source);
+
+        int count = readLength(source);
+        if (count >= 0) {
+            segment.waySections = new WaySection[count];
+            for (int i = 0; i < count; i++)
+                segment.waySections[i] = WaySectionSerializer.readSection(source);
+        }
+
+        return segment;
+    }
+
+    @Override
+    public void copy(DataInputView source, DataOutputView target) throws IOException {
+
+        target.writeLong(source.readLong());
+        copyFields(source, target);
+        target.writeByte(source.readByte());
+        copyVarInt(source, target);
+
+        int count = copyLength(source, target);
+        for (int i = 0; i < count; i++)
+            WaySectionSerializer.copySection(source, target);
+    }
+
+    public static class Factory extends TypeInfoFactory<BaseSegment> {
+
+        @Override
+        public TypeInformation<BaseSegment> createTypeInfo(Type t, Map<String, TypeInformation<?>> genericParameters) {
+            return new ModelTypeInfo<>(BaseSegment.class, INSTANCE);
+        }
+    }
+
+}
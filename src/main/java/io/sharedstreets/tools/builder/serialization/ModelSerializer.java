@@ -0,0 +1,326 @@
+package io.sharedstreets.tools.builder.serialization;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.esri.core.geometry.Point;
+import io.sharedstreets.tools.builder.util.UniqueId;
+import org.apache.flink.api.common.typeutils.base.TypeSerializerSingleton;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+import org.apache.flink.types.StringValue;
+
+/**
+ * Base of the serializers of the builder model types, with the encodings they share.
+ *
+ * Integers are written as varints, signed values zigzag encoded. Nullable values and arrays are prefixed by a
+ * presence flag or by their length plus one, 0 standing for null. Records are mutable, copies are deep copies of
+ * their fields. Serialized records are copied through a record unless the serializer streams them field by field.
+ */
+public abstract class ModelSerializer<T> extends TypeSerializerSingleton<T> {
+
+    @Override
+    public boolean isImmutableType() {
+        return false;
+    }
+
+    @Override
+    public int getLength() {
+        return -1;
+    }
+
+    @Override
+    public T copy(T from, T reuse) {
+        return copy(from);
+    }
+
+    @Override
+    public T deserialize(T reuse, DataInputView source) throws IOException {
+        return deserialize(source);
+    }
+
+    @Override
+    public void copy(DataInputView source, DataOutputView target) throws IOException {
+        serialize(deserialize(source), target);
+    }
+
+    @Override
+    public boolean canEqual(Object obj) {
+        return obj != null && obj.getClass() == getClass();
+    }
+
+    protected static void writeVarInt(int value, DataOutputView out) throws IOException {
+
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    protected static int readVarInt(DataInputView in) throws IOException {
+
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IOException("malformed varint");
+    }
+
+    protected static void writeVarLong(long value, DataOutputView out) throws IOException {
+
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte(((int) value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    protected static long readVarLong(DataInputView in) throws IOException {
+
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IOException("malformed varint");
+    }
+
+    protected static void writeSignedVarInt(int value, DataOutputView out) throws IOException {
+        writeVarInt((value << 1) ^ (value >> 31), out);
+    }
+
+    protected static int readSignedVarInt(DataInputView in) throws IOException {
+        int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    protected static void writeSignedVarLong(long value, DataOutputView out) throws IOException {
+        writeVarLong((value << 1) ^ (value >> 63), out);
+    }
+
+    protected static long readSignedVarLong(DataInputView in) throws IOException {
+        long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * length of an array plus one, 0 for null
+     */
+    protected static void writeLength(Object[] array, DataOutputView out) throws IOException {
+        writeVarInt(array == null ? 0 : array.length + 1, out);
+    }
+
+    /**
+     * @return the array length, or -1 for null
+     */
+    protected static int readLength(DataInputView in) throws IOException {
+        return readVarInt(in) - 1;
+    }
+
+    protected static int copyVarInt(DataInputView in, DataOutputView out) throws IOException {
+
+        int value = readVarInt(in);
+        writeVarInt(value, out);
+        return value;
+    }
+
+    protected static long copyVarLong(DataInputView in, DataOutputView out) throws IOException {
+
+        long value = readVarLong(in);
+        writeVarLong(value, out);
+        return value;
+    }
+
+    /**
+     * @return the array length, or -1 for null
+     */
+    protected static int copyLength(DataInputView in, DataOutputView out) throws IOException {
+        return copyVarInt(in, out) - 1;
+    }
+
+    protected static void writeString(String value, DataOutputView out) throws IOException {
+        StringValue.writeString(value, out);
+    }
+
+    protected static String readString(DataInputView in) throws IOException {
+        return StringValue.readString(in);
+    }
+
+    protected static void copyString(DataInputView in, DataOutputView out) throws IOException {
+        StringValue.copyString(in, out);
+    }
+
+    protected static void writeNullableLong(Long value, DataOutputView out) throws IOException {
+
+        out.writeBoolean(value != null);
+        if (value != null)
+            writeSignedVarLong(value, out);
+    }
+
+    protected static Long readNullableLong(DataInputView in) throws IOException {
+        return in.readBoolean() ? readSignedVarLong(in) : null;
+    }
+
+    protected static void writeNullableDouble(Double value, DataOutputView out) throws IOException {
+
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeDouble(value);
+    }
+
+    protected static void copyNullableLong(DataInputView in, DataOutputView out) throws IOException {
+
+        boolean present = in.readBoolean();
+        out.writeBoolean(present);
+        if (present)
+            copyVarLong(in, out);
+    }
+
+    protected static Double readNullableDouble(DataInputView in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+
+    /**
+     * 0 for null, 1 for false, 2 for true
+     */
+    protected static void writeNullableBoolean(Boolean value, DataOutputView out) throws IOException {
+        out.writeByte(value == null ? 0 : value ? 2 : 1);
+    }
+
+    protected static Boolean readNullableBoolean(DataInputView in) throws IOException {
+        byte value = in.readByte();
+        return value == 0 ? null : value == 2;
+    }
+
+    protected static <E extends Enum<E>> void writeEnum(E value, DataOutputView out) throws IOException {
+        writeVarInt(value == null ? 0 : value.ordinal() + 1, out);
+    }
+
+    protected static <E extends Enum<E>> E readEnum(E[] values, DataInputView in) throws IOException {
+        int ordinal = readVarInt(in) - 1;
+        return ordinal < 0 ? null : values[ordinal];
+    }
+
+    protected static void writeFields(Map<String, String> fields, DataOutputView out) throws IOException {
+
+        writeVarInt(fields == null ? 0 : fields.size() + 1, out);
+        if (fields == null)
+            return;
+
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            writeString(field.getKey(), out);
+            writeString(field.getValue(), out);
+        }
+    }
+
+    protected static Map<String, String> readFields(DataInputView in) throws IOException {
+
+        int size = readVarInt(in) - 1;
+        if (size < 0)
+            return null;
+
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i < size; i++)
+            fields.put(readString(in), readString(in));
+
+        return fields;
+    }
+
+    protected static void copyFields(DataInputView in, DataOutputView out) throws IOException {
+
+        int size = copyVarInt(in, out) - 1;
+        for (int i = 0; i < size; i++) {
+            copyString(in, out);
+            copyString(in, out);
+        }
+    }
+
+    protected static Map<String, String> copyFields(Map<String, String> fields) {
+        return fields == null ? null : new HashMap<>(fields);
+    }
+
+    protected static void writeUniqueId(UniqueId id, DataOutputView out) throws IOException {
+
+        out.writeBoolean(id != null);
+        if (id != null)
+            UniqueIdSerializer.INSTANCE.serialize(id, out);
+    }
+
+    protected static UniqueId readUniqueId(DataInputView in) throws IOException {
+        return in.readBoolean() ? UniqueIdSerializer.INSTANCE.deserialize(in) : null;
+    }
+
+    protected static UniqueId copyUniqueId(UniqueId id) {
+        return UniqueIdSerializer.INSTANCE.copy(id);
+    }
+
+    protected static void writeUniqueIds(UniqueId[] ids, DataOutputView out) throws IOException {
+
+        writeLength(ids, out);
+        if (ids != null) {
+            for (UniqueId id : ids)
+                writeUniqueId(id, out);
+        }
+    }
+
+    protected static UniqueId[] readUniqueIds(DataInputView in) throws IOException {
+
+        int length = readLength(in);
+        if (length < 0)
+            return null;
+
+        UniqueId[] ids = new UniqueId[length];
+        for (int i = 0; i < length; i++)
+            ids[i] = readUniqueId(in);
+
+        return ids;
+    }
+
+    protected static UniqueId[] copyUniqueIds(UniqueId[] ids) {
+
+        if (ids == null)
+            return null;
+
+        UniqueId[] copy = new UniqueId[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            copy[i] = copyUniqueId(ids[i]);
+
+        return copy;
+    }
+
+    /**
+     * coordinates of a point, NaN for an empty point
+     */
+    protected static void writePoint(Point point, DataOutputView out) throws IOException {
+
+        out.writeBoolean(point != null);
+        if (point == null)
+            return;
+
+        out.writeDouble(point.isEmpty() ? Double.NaN : point.getX());
+        out.writeDouble(point.isEmpty() ? Double.NaN : point.getY());
+    }
+
+    protected static Point readPoint(DataInputView in) throws IOException {
+
+        if (!in.readBoolean())
+            return null;
+
+        double x = in.readDouble();
+        double y = in.readDouble();
+
+        return Double.isNaN(x) ? new Point() : new Point(x, y);
+    }
+
+    protected static Point copyPoint(Point point) {
+        return point == null ? null : (Point) point.copy();
+    }
+
+}
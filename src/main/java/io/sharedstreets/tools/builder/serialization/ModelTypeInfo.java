@@ -0,0 +1,81 @@
+package io.sharedstreets.tools.builder.serialization;
+
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+
+/**
+ * Type of a builder model class written by its own serializer instead of Kryo. Not usable as a key.
+ */
+public class ModelTypeInfo<T> extends TypeInformation<T> {
+
+    private final Class<T> typeClass;
+
+    private final ModelSerializer<T> serializer;
+
+    public ModelTypeInfo(Class<T> typeClass, ModelSerializer<T> serializer) {
+        this.typeClass = typeClass;
+        this.serializer = serializer;
+    }
+
+    @Override
+    public boolean isBasicType() {
+        return false;
+    }
+
+    @Override
+    public boolean isTupleType() {
+        return false;
+    }
+
+    @Override
+    public int getArity() {
+        return 1;
+    }
+
+    @Override
+    public int getTotalFields() {
+        return 1;
+    }
+
+    @Override
+    public Class<T> getTypeClass() {
+        return typeClass;
+    }
+
+    @Override
+    public boolean isKeyType() {
+        return false;
+    }
+
+    @Override
+    public TypeSerializer<T> createSerializer(ExecutionConfig config) {
+        return serializer;
+    }
+
+    @Override
+    public String toString() {
+        return typeClass.getSimpleName() + "<" + serializer.getClass().getSimpleName() + ">";
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+        if (!(obj instanceof ModelTypeInfo))
+            return false;
+
+        ModelTypeInfo other = (ModelTypeInfo) obj;
+        return other.canEqual(this) && typeClass == other.typeClass && serializer.equals(other.serializer);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * typeClass.hashCode() + serializer.hashCode();
+    }
+
+    @Override
+    public boolean canEqual(Object obj) {
+        return obj instanceof ModelTypeInfo;
+    }
+
+}
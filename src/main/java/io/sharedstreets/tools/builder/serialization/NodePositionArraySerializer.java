@@ -0,0 +1,108 @@
+package io.sharedstreets.tools.builder.serialization;
+
+import java.io.IOException;
+
+import io.sharedstreets.tools.builder.osm.model.NodePosition;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+/**
+ * Node positions of a way, node ids and fixed point coordinates delta encoded from one node to the next.
+ */
+public class NodePositionArraySerializer extends ModelSerializer<NodePosition[]> {
+
+    public static final NodePositionArraySerializer INSTANCE = new NodePositionArraySerializer();
+
+    public static final TypeInformation<NodePosition[]> TYPE_INFO = new ModelTypeInfo<>(NodePosition[].class, INSTANCE);
+
+    @Override
+    public NodePosition[] createInstance() {
+        return new NodePosition[0];
+    }
+
+    @Override
+    public NodePosition[] copy(NodePosition[] from) {
+        return copyNodes(from);
+    }
+
+    @Override
+    public void serialize(NodePosition[] record, DataOutputView target) throws IOException {
+        writeNodes(record, target);
+    }
+
+    @Override
+    public NodePosition[] deserialize(DataInputView source) throws IOException {
+        return readNodes(source);
+    }
+
+    @Override
+    public void copy(DataInputView source, DataOutputView target) throws IOException {
+        copyNodes(source, target);
+    }
+
+    static NodePosition[] copyNodes(NodePosition[] nodes) {
+
+        if (nodes == null)
+            return null;
+
+        NodePosition[] copy = new NodePosition[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            copy[i] = new NodePosition();
+            copy[i].nodeId = nodes[i].nodeId;
+            copy[i].lat = nodes[i].lat;
+            copy[i].lon = nodes[i].lon;
+        }
+
+        return copy;
+    }
+
+    // node id, lat and lon deltas of each node
+    static void copyNodes(DataInputView in, DataOutputView out) throws IOException {
+
+        int length = copyLength(in, out);
+        for (int i = 0; i < 3 * length; i++)
+            copyVarLong(in, out);
+    }
+
+    static void writeNodes(NodePosition[] nodes, DataOutputView out) throws IOException {
+
+        writeLength(nodes, out);
+        if (nodes == null)
+            return;
+
+        long nodeId = 0;
+        int lat = 0;
+        int lon = 0;
+        for (NodePosition node : nodes) {
+            writeSignedVarLong(node.nodeId - nodeId, out);
+            writeSignedVarInt(node.lat - lat, out);
+            writeSignedVarInt(node.lon - lon, out);
+            nodeId = node.nodeId;
+            lat = node.lat;
+            lon = node.lon;
+        }
+    }
+
+    static NodePosition[] readNodes(DataInputView in) throws IOException {
+
+        int length = readLength(in);
+        if (length < 0)
+            return null;
+
+        NodePosition[] nodes = new NodePosition[length];
+        long nodeId = 0;
+        int lat = 0;
+        int lon = 0;
+        for (int i = 0; i < length; i++) {
+            NodePosition node = new NodePosition();
+            node.nodeId = nodeId += readSignedVarLong(in);
+            node.lat = lat += readSignedVarInt(in);
+            node.lon = lon += readSignedVarInt(in);
+            nodes[i] = node;
+        }
+
+        return nodes;
+    }
+
+}
@@ -0,0 +1,283 @@
+package io.sharedstreets.tools.builder.serialization;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.Point2D;
+import com.esri.core.geometry.Polyline;
+import io.sharedstreets.data.SharedStreetsGeometry;
+import io.sharedstreets.data.SharedStreetsOSMMetadata;
+import io.sharedstreets.tools.builder.osm.model.Way;
+import io.sharedstreets.tools.builder.util.geo.FixedPoint;
+import org.apache.flink.api.common.typeinfo.TypeInfoFactory;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+/**
+ * SharedStreetsGeometry with its OSM metadata.
+ *
+ * Lines built from fixed point node coordinates are written as delta encoded fixed point values, other lines as
+ * doubles. Node ids of the way sections are delta encoded.
+ */
+public class SharedStreetsGeometrySerializer extends ModelSerializer<SharedStreetsGeometry> {
+
+    public static final SharedStreetsGeometrySerializer INSTANCE = new SharedStreetsGeometrySerializer();
+
+    private static final byte NO_LINE = 0;
+    private static final byte FIXED_POINT_LINE = 1;
+    private static final byte DOUBLE_LINE = 2;
+
+    @Override
+    public SharedStreetsGeometry createInstance() {
+        return new SharedStreetsGeometry();
+    }
+
+    @Override
+    public SharedStreetsGeometry copy(SharedStreetsGeometry from) {
+
+        if (from == null)
+            return null;
+
+        SharedStreetsGeometry geometry = new SharedStreetsGeometry();
+        geometry.id = copyUniqueId(from.id);
+        geometry.startIntersectionId = copyUniqueId(from.startIntersectionId);
+        geometry.endIntersectionId = copyUniqueId(from.endIntersectionId);
+        geometry.forwardReferenceId = copyUniqueId(from.forwardReferenceId);
+        geometry.backReferenceId = copyUniqueId(from.backReferenceId);
+        geometry.length = from.length;
+
+        if (from.geometry != null)
+            geometry.geometry = from.geometry.copy();
+
+        if (from.metadata != null)
+            geometry.metadata = copyMetadata(from.metadata);
+
+        return geometry;
+    }
+
+    @Override
+    public void serialize(SharedStreetsGeometry record, DataOutputView target) throws IOException {
+
+        writeUniqueId(record.id, target);
+        writeUniqueId(record.startIntersectionId, target);
+        writeUniqueId(record.endIntersectionId, target);
+        writeUniqueId(record.forwardReferenceId, target);
+        writeUniqueId(record.backReferenceId, target);
+        target.writeDouble(record.length);
+
+        writeLine(record.geometry, target);
+
+        target.writeBoolean(record.metadata != null);
+        if (record.metadata != null)
+            writeMetadata(record.metadata, target);
+    }
+
+    @Override
+    public SharedStreetsGeometry deserialize(DataInputView source) throws IOException {
+
+        SharedStreetsGeometry geometry = new SharedStreetsGeometry();
+        geometry.id = readUniqueId(source);
+        geometry.startIntersectionId = readUniqueId(source);
+        geometry.endIntersectionId = readUniqueId(source);
+        geometry.forwardReferenceId = readUniqueId(source);
+        geometry.backReferenceId = readUniqueId(source);
+        geometry.length = source.readDouble();
+
+        geometry.geometry = readLine(source);
+
+        if (source.readBoolean())
+            geometry.metadata = readMetadata(source);
+
+        return geometry;
+    }
+
+    private static void writeLine(Geometry geometry, DataOutputView out) throws IOException {
+
+        if (geometry == null) {
+            out.writeByte(NO_LINE);
+            return;
+        }
+
+        if (!(geometry instanceof Polyline))
+            throw new IOException("unsupported geometry type " + geometry.getType());
+
+        Polyline line = (Polyline) geometry;
+        int count = line.getPointCount();
+
+        boolean fixedPoint = true;
+        Point2D xy = new Point2D();
+        for (int i = 0; i < count && fixedPoint; i++) {
+            line.getXY(i, xy);
+            fixedPoint = FixedPoint.toDegrees(FixedPoint.fromDegrees(xy.x)) == xy.x
+                    && FixedPoint.toDegrees(FixedPoint.fromDegrees(xy.y)) == xy.y;
+        }
+
+        out.writeByte(fixedPoint ? FIXED_POINT_LINE : DOUBLE_LINE);
+
+        writeVarInt(line.getPathCount(), out);
+        int x = 0;
+        int y = 0;
+        for (int path = 0; path < line.getPathCount(); path++) {
+
+            writeVarInt(line.getPathSize(path), out);
+            for (int i = line.getPathStart(path); i < line.getPathEnd(path); i++) {
+
+                line.getXY(i, xy);
+                if (fixedPoint) {
+                    writeSignedVarInt(FixedPoint.fromDegrees(xy.x) - x, out);
+                    writeSignedVarInt(FixedPoint.fromDegrees(xy.y) - y, out);
+                    x = FixedPoint.fromDegrees(xy.x);
+                    y = FixedPoint.fromDegrees(xy.y);
+                } else {
+                    out.writeDouble(xy.x);
+                    out.writeDouble(xy.y);
+                }
+            }
+        }
+    }
+
+    private static Polyline readLine(DataInputView in) throws IOException {
+
+        byte type = in.readByte();
+        if (type == NO_LINE)
+            return null;
+
+        boolean fixedPoint = type == FIXED_POINT_LINE;
+
+        Polyline line = new Polyline();
+
+        int paths = readVarInt(in);
+        int x = 0;
+        int y = 0;
+        for (int path = 0; path < paths; path++) {
+
+            int size = readVarInt(in);
+            for (int i = 0; i < size; i++) {
+
+                double lon;
+                double lat;
+                if (fixedPoint) {
+                    x += readSignedVarInt(in);
+                    y += readSignedVarInt(in);
+                    lon = FixedPoint.toDegrees(x);
+                    lat = FixedPoint.toDegrees(y);
+                } else {
+                    lon = in.readDouble();
+                    lat = in.readDouble();
+                }
+
+                if (i == 0)
+                    line.startPath(lon, lat);
+                else
+                    line.lineTo(lon, lat);
+            }
+        }
+
+        return line;
+    }
+
+    private static void writeMetadata(SharedStreetsOSMMetadata metadata, DataOutputView out) throws IOException {
+
+        writeUniqueId(metadata.geometryId, out);
+        writeString(metadata.name, out);
+
+        writeLength(metadata.waySections, out);
+        if (metadata.waySections == null)
+            return;
+
+        for (SharedStreetsOSMMetadata.WaySectionMetadata section : metadata.waySections) {
+
+            writeNullableLong(section.wayId, out);
+            writeEnum(section.roadClass, out);
+            writeNullableBoolean(section.oneWay, out);
+            writeNullableBoolean(section.roundabout, out);
+            writeNullableBoolean(section.link, out);
+            writeString(section.name, out);
+
+            writeLength(section.nodeIds, out);
+            if (section.nodeIds != null) {
+                long previous = 0;
+                for (Long nodeId : section.nodeIds) {
+                    writeSignedVarLong(nodeId - previous, out);
+                    previous = nodeId;
+                }
+            }
+        }
+    }
+
+    private static SharedStreetsOSMMetadata readMetadata(DataInputView in) throws IOException {
+
+        SharedStreetsOSMMetadata metadata = new SharedStreetsOSMMetadata();
+        metadata.geometryId = readUniqueId(in);
+        metadata.name = readString(in);
+
+        int count = readLength(in);
+        if (count < 0)
+            return metadata;
+
+        metadata.waySections = new SharedStreetsOSMMetadata.WaySectionMetadata[count];
+        for (int i = 0; i < count; i++) {
+
+            SharedStreetsOSMMetadata.WaySectionMetadata section = metadata.new WaySectionMetadata();
+            section.wayId = readNullableLong(in);
+            section.roadClass = readEnum(Way.ROAD_CLASS.values(), in);
+            section.oneWay = readNullableBoolean(in);
+            section.roundabout = readNullableBoolean(in);
+            section.link = readNullableBoolean(in);
+            section.name = readString(in);
+
+            int nodes = readLength(in);
+            if (nodes >= 0) {
+                section.nodeIds = new Long[nodes];
+                long nodeId = 0;
+                for (int j = 0; j < nodes; j++)
+                    section.nodeIds[j] = nodeId += readSignedVarLong(in);
+            }
+
+            metadata.waySections[i] = section;
+        }
+
+        return metadata;
+    }
+
+    private static SharedStreetsOSMMetadata copyMetadata(SharedStreetsOSMMetadata from) {
+
+        SharedStreetsOSMMetadata metadata = new SharedStreetsOSMMetadata();
+        metadata.geometryId = copyUniqueId(from.geometryId);
+        metadata.name = from.name;
+
+        if (from.waySections == null)
+            return metadata;
+
+        metadata.waySections = new SharedStreetsOSMMetadata.WaySectionMetadata[from.waySections.length];
+        for (int i = 0; i < from.waySections.length; i++) {
+
+            SharedStreetsOSMMetadata.WaySectionMetadata section = metadata.new WaySectionMetadata();
+            section.wayId = from.waySections[i].wayId;
+            section.roadClass = from.waySections[i].roadClass;
+            section.oneWay = from.waySections[i].oneWay;
+            section.roundabout = from.waySections[i].roundabout;
+            section.link = from.waySections[i].link;
+            section.name = from.waySections[i].name;
+
+            if (from.waySections[i].nodeIds != null)
+                section.nodeIds = from.waySections[i].nodeIds.clone();
+
+            metadata.waySections[i] = section;
+        }
+
+        return metadata;
+    }
+
+    public static class Factory extends TypeInfoFactory<SharedStreetsGeometry> {
+
+        @Override
+        public TypeInformation<SharedStreetsGeometry> createTypeInfo(Type t, Map<String, TypeInformation<?>> genericParameters) {
+            return new ModelTypeInfo<>(SharedStreetsGeometry.class, INSTANCE);
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package io.sharedstreets.tools.builder.serialization;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+import io.sharedstreets.data.SharedStreetsIntersection;
+import org.apache.flink.api.common.typeinfo.TypeInfoFactory;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+/**
+ * SharedStreetsIntersection with its point and the ids of its inbound and outbound references.
+ */
+public class SharedStreetsIntersectionSerializer extends ModelSerializer<SharedStreetsIntersection> {
+
+    public static final SharedStreetsIntersectionSerializer INSTANCE = new SharedStreetsIntersectionSerializer();
+
+    @Override
+    public SharedStreetsIntersection createInstance() {
+        return new SharedStreetsIntersection();
+    }
+
+    @Override
+    public SharedStreetsIntersection copy(SharedStreetsIntersection from) {
+        return from == null ? null : copyIntersection(from);
+    }
+
+    @Override
+    public void serialize(SharedStreetsIntersection record, DataOutputView target) throws IOException {
+        writeIntersection(record, target);
+    }
+
+    @Override
+    public SharedStreetsIntersection deserialize(DataInputView source) throws IOException {
+        return readIntersection(source);
+    }
+
+    static void writeIntersection(SharedStreetsIntersection intersection, DataOutputView out) throws IOException {
+
+        writeUniqueId(intersection.id, out);
+        writeNullableLong(intersection.osmNodeId, out);
+        writePoint(intersection.point, out);
+        writeUniqueIds(intersection.inboundSegmentIds, out);
+        writeUniqueIds(intersection.outboundSegmentIds, out);
+    }
+
+    static SharedStreetsIntersection readIntersection(DataInputView in) throws IOException {
+
+        SharedStreetsIntersection intersection = new SharedStreetsIntersection();
+        intersection.id = readUniqueId(in);
+        intersection.osmNodeId = readNullableLong(in);
+        intersection.point = readPoint(in);
+        intersection.inboundSegmentIds = readUniqueIds(in);
+        intersection.outboundSegmentIds = readUniqueIds(in);
+
+        return intersection;
+    }
+
+    static SharedStreetsIntersection copyIntersection(SharedStreetsIntersection from) {
+
+        SharedStreetsIntersection intersection = new SharedStreetsIntersection();
+        intersection.id = copyUniqueId(from.id);
+        intersection.osmNodeId = from.osmNodeId;
+        intersection.point = copyPoint(from.point);
+        intersection.inboundSegmentIds = copyUniqueIds(from.inboundSegmentIds);
+        intersection.outboundSegmentIds = copyUniqueIds(from.outboundSegmentIds);
+
+        return intersection;
+    }
+
+    public static class Factory extends TypeInfoFactory<SharedStreetsIntersection> {
+
+        @Override
+        public TypeInformation<SharedStreetsIntersection> createTypeInfo(Type t, Map<String, TypeInformation<?>> genericParameters) {
+            return new ModelTypeInfo<>(SharedStreetsIntersection.class, INSTANCE);
+        }
+    }
+
+}
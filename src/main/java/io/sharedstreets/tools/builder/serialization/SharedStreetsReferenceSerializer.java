@@ -0,0 +1,126 @@
+package io.sharedstreets.tools.builder.serialization;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+import io.sharedstreets.data.SharedStreetsLocationReference;
+import io.sharedstreets.data.SharedStreetsReference;
+import org.apache.flink.api.common.typeinfo.TypeInfoFactory;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+/**
+ * SharedStreetsReference with its location references, their intersections and the geometry written inline.
+ */
+public class SharedStreetsReferenceSerializer extends ModelSerializer<SharedStreetsReference> {
+
+    public static final SharedStreetsReferenceSerializer INSTANCE = new SharedStreetsReferenceSerializer();
+
+    @Override
+    public SharedStreetsReference createInstance() {
+        return new SharedStreetsReference();
+    }
+
+    @Override
+    public SharedStreetsReference copy(SharedStreetsReference from) {
+
+        if (from == null)
+            return null;
+
+        SharedStreetsReference reference = new SharedStreetsReference();
+        reference.id = copyUniqueId(from.id);
+        reference.formOfWay = from.formOfWay;
+
+        if (from.locationReferences != null) {
+            reference.locationReferences = new SharedStreetsLocationReference[from.locationReferences.length];
+            for (int i = 0; i < from.locationReferences.length; i++) {
+
+                SharedStreetsLocationReference lr = new SharedStreetsLocationReference();
+                lr.sequence = from.locationReferences[i].sequence;
+                lr.point = copyPoint(from.locationReferences[i].point);
+                lr.inboundBearing = from.locationReferences[i].inboundBearing;
+                lr.outboundBearing = from.locationReferences[i].outboundBearing;
+                lr.distanceToNextRef = from.locationReferences[i].distanceToNextRef;
+
+                if (from.locationReferences[i].intersection != null)
+                    lr.intersection = SharedStreetsIntersectionSerializer.copyIntersection(from.locationReferences[i].intersection);
+
+                reference.locationReferences[i] = lr;
+            }
+        }
+
+        reference.geometry = SharedStreetsGeometrySerializer.INSTANCE.copy(from.geometry);
+
+        return reference;
+    }
+
+    @Override
+    public void serialize(SharedStreetsReference record, DataOutputView target) throws IOException {
+
+        writeUniqueId(record.id, target);
+        writeEnum(record.formOfWay, target);
+
+        writeLength(record.locationReferences, target);
+        if (record.locationReferences != null) {
+            for (SharedStreetsLocationReference lr : record.locationReferences) {
+
+                writeSignedVarInt(lr.sequence, target);
+                writePoint(lr.point, target);
+                writeNullableDouble(lr.inboundBearing, target);
+                writeNullableDouble(lr.outboundBearing, target);
+                writeNullableDouble(lr.distanceToNextRef, target);
+
+                target.writeBoolean(lr.intersection != null);
+                if (lr.intersection != null)
+                    SharedStreetsIntersectionSerializer.writeIntersection(lr.intersection, target);
+            }
+        }
+
+        target.writeBoolean(record.geometry != null);
+        if (record.geometry != null)
+            SharedStreetsGeometrySerializer.INSTANCE.serialize(record.geometry, target);
+    }
+
+    @Override
+    public SharedStreetsReference deserialize(DataInputView source) throws IOException {
+
+        SharedStreetsReference reference = new SharedStreetsReference();
+        reference.id = readUniqueId(source);
+        reference.formOfWay = readEnum(SharedStreetsReference.FORM_OF_WAY.values(), source);
+
+        int count = readLength(source);
+        if (count >= 0) {
+            reference.locationReferences = new SharedStreetsLocationReference[count];
+            for (int i = 0; i < count; i++) {
+
+                SharedStreetsLocationReference lr = new SharedStreetsLocationReference();
+                lr.sequence = readSignedVarInt(source);
+                lr.point = readPoint(source);
+                lr.inboundBearing = readNullableDouble(source);
+                lr.outboundBearing = readNullableDouble(source);
+                lr.distanceToNextRef = readNullableDouble(source);
+
+                if (source.readBoolean())
+                    lr.intersection = SharedStreetsIntersectionSerializer.readIntersection(source);
+
+                reference.locationReferences[i] = lr;
+            }
+        }
+
+        if (source.readBoolean())
+            reference.geometry = SharedStreetsGeometrySerializer.INSTANCE.deserialize(source);
+
+        return reference;
+    }
+
+    public static class Factory extends TypeInfoFactory<SharedStreetsReference> {
+
+        @Override
+        public TypeInformation<SharedStreetsReference> createTypeInfo(Type t, Map<String, TypeInformation<?>> genericParameters) {
+            return new ModelTypeInfo<>(SharedStreetsReference.class, INSTANCE);
+        }
+    }
+
+}
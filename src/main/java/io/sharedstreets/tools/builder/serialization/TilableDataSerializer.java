@@ -0,0 +1,89 @@
+package io.sharedstreets.tools.builder.serialization;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+import io.sharedstreets.data.SharedStreetsGeometry;
+import io.sharedstreets.data.SharedStreetsIntersection;
+import io.sharedstreets.data.SharedStreetsReference;
+import io.sharedstreets.tools.builder.tiles.TilableData;
+import org.apache.flink.api.common.typeinfo.TypeInfoFactory;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+/**
+ * Tiled data, a type byte followed by the reference, geometry or intersection.
+ */
+public class TilableDataSerializer extends ModelSerializer<TilableData> {
+
+    public static final TilableDataSerializer INSTANCE = new TilableDataSerializer();
+
+    private static final byte REFERENCE = 0;
+    private static final byte GEOMETRY = 1;
+    private static final byte INTERSECTION = 2;
+
+    @Override
+    public TilableData createInstance() {
+        return null;
+    }
+
+    @Override
+    public TilableData copy(TilableData from) {
+
+        if (from == null)
+            return null;
+
+        if (from instanceof SharedStreetsReference)
+            return SharedStreetsReferenceSerializer.INSTANCE.copy((SharedStreetsReference) from);
+        else if (from instanceof SharedStreetsGeometry)
+            return SharedStreetsGeometrySerializer.INSTANCE.copy((SharedStreetsGeometry) from);
+        else if (from instanceof SharedStreetsIntersection)
+            return SharedStreetsIntersectionSerializer.INSTANCE.copy((SharedStreetsIntersection) from);
+        else
+            throw new IllegalArgumentException("unsupported tiled data " + from.getClass().getName());
+    }
+
+    @Override
+    public void serialize(TilableData record, DataOutputView target) throws IOException {
+
+        if (record instanceof SharedStreetsReference) {
+            target.writeByte(REFERENCE);
+            SharedStreetsReferenceSerializer.INSTANCE.serialize((SharedStreetsReference) record, target);
+        } else if (record instanceof SharedStreetsGeometry) {
+            target.writeByte(GEOMETRY);
+            SharedStreetsGeometrySerializer.INSTANCE.serialize((SharedStreetsGeometry) record, target);
+        } else if (record instanceof SharedStreetsIntersection) {
+            target.writeByte(INTERSECTION);
+            SharedStreetsIntersectionSerializer.INSTANCE.serialize((SharedStreetsIntersection) record, target);
+        } else {
+            throw new IOException("unsupported tiled data " + record.getClass().getName());
+        }
+    }
+
+    @Override
+    public TilableData deserialize(DataInputView source) throws IOException {
+
+        byte type = source.readByte();
+        switch (type) {
+            case REFERENCE:
+                return SharedStreetsReferenceSerializer.INSTANCE.deserialize(source);
+            case GEOMETRY:
+                return SharedStreetsGeometrySerializer.INSTANCE.deserialize(source);
+            case INTERSECTION:
+                return SharedStreetsIntersectionSerializer.INSTANCE.deserialize(source);
+            default:
+                throw new IOException("unknown tiled data type " + type);
+        }
+    }
+
+    public static class Factory extends TypeInfoFactory<TilableData> {
+
+        @Override
+        public TypeInformation<TilableData> createTypeInfo(Type t, Map<String, TypeInformation<?>> genericParameters) {
+            return new ModelTypeInfo<>(TilableData.class, INSTANCE);
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package io.sharedstreets.tools.builder.serialization;
+
+import java.io.IOException;
+
+import io.sharedstreets.tools.builder.util.UniqueId;
+import org.apache.flink.api.common.typeutils.TypeComparator;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+import org.apache.flink.core.memory.MemorySegment;
+
+/**
+ * Orders UniqueIds as UniqueId.compareTo, comparing serialized ids without deserializing them.
+ *
+ * The 16 bytes of an id are its normalized key: sorts compare the unsigned bytes in place and only fall back to the
+ * comparator for keys truncated by the sorter.
+ */
+public class UniqueIdComparator extends TypeComparator<UniqueId> {
+
+    private final boolean ascending;
+
+    private transient UniqueId reference;
+
+    private final byte[] bytes1 = new byte[UniqueIdSerializer.LENGTH];
+    private final byte[] bytes2 = new byte[UniqueIdSerializer.LENGTH];
+
+    private final TypeComparator[] comparators = new TypeComparator[] {this};
+
+    public UniqueIdComparator(boolean ascending) {
+        this.ascending = ascending;
+    }
+
+    @Override
+    public int hash(UniqueId record) {
+        return record.hashCode();
+    }
+
+    @Override
+    public void setReference(UniqueId toCompare) {
+        reference = toCompare;
+    }
+
+    @Override
+    public boolean equalToReference(UniqueId candidate) {
+        return reference.equals(candidate);
+    }
+
+    @Override
+    public int compareToReference(TypeComparator<UniqueId> referencedComparator) {
+        UniqueId other = ((UniqueIdComparator) referencedComparator).reference;
+        return ascending ? other.compareTo(reference) : reference.compareTo(other);
+    }
+
+    @Override
+    public int compare(UniqueId first, UniqueId second) {
+        return ascending ? first.compareTo(second) : second.compareTo(first);
+    }
+
+    @Override
+    public int compareSerialized(DataInputView firstSource, DataInputView secondSource) throws IOException {
+
+        firstSource.readFully(bytes1);
+        secondSource.readFully(bytes2);
+
+        int order = UniqueId.compare(bytes1, bytes2);
+        return ascending ? order : -order;
+    }
+
+    @Override
+    public boolean supportsNormalizedKey() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsSerializationWithKeyNormalization() {
+        return false;
+    }
+
+    @Override
+    public int getNormalizeKeyLen() {
+        return UniqueIdSerializer.LENGTH;
+    }
+
+    @Override
+    public boolean isNormalizedKeyPrefixOnly(int keyBytes) {
+        return keyBytes < UniqueIdSerializer.LENGTH;
+    }
+
+    @Override
+    public void putNormalizedKey(UniqueId record, MemorySegment target, int offset, int numBytes) {
+
+        int length = Math.min(numBytes, UniqueIdSerializer.LENGTH);
+        target.put(offset, record.getBytes(), 0, length);
+
+        // pad keys longer than an id
+        for (int i = length; i < numBytes; i++)
+            target.put(offset + i, (byte) 0);
+    }
+
+    @Override
+    public void writeWithKeyNormalization(UniqueId record, DataOutputView target) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public UniqueId readWithKeyDenormalization(UniqueId reuse, DataInputView source) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean invertNormalizedKey() {
+        return !ascending;
+    }
+
+    @Override
+    public TypeComparator<UniqueId> duplicate() {
+        return new UniqueIdComparator(ascending);
+    }
+
+    @Override
+    public int extractKeys(Object record, Object[] target, int index) {
+        target[index] = record;
+        return 1;
+    }
+
+    @Override
+    public TypeComparator[] getFlatComparators() {
+        return comparators;
+    }
+
+}
@@ -0,0 +1,57 @@
+package io.sharedstreets.tools.builder.serialization;
+
+import java.io.IOException;
+
+import io.sharedstreets.tools.builder.util.UniqueId;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+/**
+ * UniqueId as its 16 bytes.
+ */
+public class UniqueIdSerializer extends ModelSerializer<UniqueId> {
+
+    public static final UniqueIdSerializer INSTANCE = new UniqueIdSerializer();
+
+    public static final int LENGTH = 16;
+
+    @Override
+    public UniqueId createInstance() {
+        return new UniqueId();
+    }
+
+    @Override
+    public UniqueId copy(UniqueId from) {
+
+        if (from == null)
+            return null;
+
+        UniqueId copy = new UniqueId();
+        System.arraycopy(from.getBytes(), 0, copy.getBytes(), 0, LENGTH);
+        return copy;
+    }
+
+    @Override
+    public int getLength() {
+        return LENGTH;
+    }
+
+    @Override
+    public void serialize(UniqueId record, DataOutputView target) throws IOException {
+        target.write(record.getBytes(), 0, LENGTH);
+    }
+
+    @Override
+    public UniqueId deserialize(DataInputView source) throws IOException {
+
+        UniqueId id = new UniqueId();
+        source.readFully(id.getBytes());
+        return id;
+    }
+
+    @Override
+    public void copy(DataInputView source, DataOutputView target) throws IOException {
+        target.write(source, LENGTH);
+    }
+
+}
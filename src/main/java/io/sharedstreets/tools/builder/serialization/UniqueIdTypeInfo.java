@@ -0,0 +1,89 @@
+package io.sharedstreets.tools.builder.serialization;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+
+import io.sharedstreets.tools.builder.util.UniqueId;
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.typeinfo.AtomicType;
+import org.apache.flink.api.common.typeinfo.TypeInfoFactory;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeutils.TypeComparator;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+
+/**
+ * Type of UniqueId, usable as a grouping and sorting key.
+ */
+public class UniqueIdTypeInfo extends TypeInformation<UniqueId> implements AtomicType<UniqueId> {
+
+    public static final UniqueIdTypeInfo INSTANCE = new UniqueIdTypeInfo();
+
+    @Override
+    public boolean isBasicType() {
+        return false;
+    }
+
+    @Override
+    public boolean isTupleType() {
+        return false;
+    }
+
+    @Override
+    public int getArity() {
+        return 1;
+    }
+
+    @Override
+    public int getTotalFields() {
+        return 1;
+    }
+
+    @Override
+    public Class<UniqueId> getTypeClass() {
+        return UniqueId.class;
+    }
+
+    @Override
+    public boolean isKeyType() {
+        return true;
+    }
+
+    @Override
+    public TypeSerializer<UniqueId> createSerializer(ExecutionConfig config) {
+        return UniqueIdSerializer.INSTANCE;
+    }
+
+    @Override
+    public TypeComparator<UniqueId> createComparator(boolean sortOrderAscending, ExecutionConfig executionConfig) {
+        return new UniqueIdComparator(sortOrderAscending);
+    }
+
+    @Override
+    public String toString() {
+        return "UniqueId";
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof UniqueIdTypeInfo;
+    }
+
+    @Override
+    public int hashCode() {
+        return UniqueIdTypeInfo.class.hashCode();
+    }
+
+    @Override
+    public boolean canEqual(Object obj) {
+        return obj instanceof UniqueIdTypeInfo;
+    }
+
+    public static class Factory extends TypeInfoFactory<UniqueId> {
+
+        @Override
+        public TypeInformation<UniqueId> createTypeInfo(Type t, Map<String, TypeInformation<?>> genericParameters) {
+            return INSTANCE;
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+package io.sharedstreets.tools.builder.serialization;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+import io.sharedstreets.tools.builder.osm.model.RelatedObject;
+import io.sharedstreets.tools.builder.osm.model.WayEntity;
+import io.sharedstreets.tools.builder.util.geo.FixedPoint;
+import org.apache.flink.api.common.typeinfo.TypeInfoFactory;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+/**
+ * WayEntity with its tags, classification, name, delta encoded refs and delta encoded locations.
+ *
+ * Roles and types of the refs are only written when a ref has one, ways parsed from PBF files have none.
+ */
+public class WayEntitySerializer extends ModelSerializer<WayEntity> {
+
+    public static final WayEntitySerializer INSTANCE = new WayEntitySerializer();
+
+    @Override
+    public WayEntity createInstance() {
+        return new WayEntity();
+    }
+
+    @Override
+    public WayEntity copy(WayEntity from) {
+
+        if (from == null)
+            return null;
+
+        WayEntity way = new WayEntity();
+        way.id = from.id;
+        way.fields = copyFields(from.fields);
+        way.classification = from.classification;
+        way.name = from.name;
+
+        if (from.relatedObjects != null) {
+            way.relatedObjects = new RelatedObject[from.relatedObjects.length];
+            for (int i = 0; i < from.relatedObjects.length; i++) {
+                RelatedObject ref = new RelatedObject();
+                ref.relatedId = from.relatedObjects[i].relatedId;
+                ref.role = from.relatedObjects[i].role;
+                ref.type = from.relatedObjects[i].type;
+                way.relatedObjects[i] = ref;
+            }
+        }
+
+        if (from.locations != null)
+            way.locations = from.locations.clone();
+
+        return way;
+    }
+
+    @Override
+    public void serialize(WayEntity record, DataOutputView target) throws IOException {
+
+        writeSignedVarLong(record.id, target);
+        writeFields(record.fields, target);
+        writeVarInt(record.classification, target);
+        writeString(record.name, target);
+
+        RelatedObject[] refs = record.relatedObjects;
+        writeLength(refs, target);
+        if (refs != null) {
+
+            boolean roles = false;
+            long previous = 0;
+            for (RelatedObject ref : refs) {
+                writeSignedVarLong(ref.relatedId - previous, target);
+                previous = ref.relatedId;
+                roles |= ref.role != null || ref.type != null;
+            }
+
+            target.writeBoolean(roles);
+            if (roles) {
+                for (RelatedObject ref : refs) {
+                    writeString(ref.role, target);
+                    writeString(ref.type, target);
+                }
+            }
+        }
+
+        long[] locations = record.locations;
+        writeVarInt(locations == null ? 0 : locations.length + 1, target);
+        if (locations != null) {
+            int lat = 0;
+            int lon = 0;
+            for (long location : locations) {
+                writeSignedVarInt(FixedPoint.unpackLat(location) - lat, target);
+                writeSignedVarInt(FixedPoint.unpackLon(location) - lon, target);
+                lat = FixedPoint.unpackLat(location);
+                lon = FixedPoint.unpackLon(location);
+            }
+        }
+    }
+
+    @Override
+    public WayEntity deserialize(DataInputView source) throws IOException {
+
+        WayEntity way = new WayEntity();
+        way.id = readSignedVarLong(source);
+        way.fields = readFields(source);
+        way.classification = readVarInt(source);
+        way.name = readString(source);
+
+        int count = readLength(source);
+        if (count >= 0) {
+
+            RelatedObject[] refs = new RelatedObject[count];
+            long id = 0;
+            for (int i = 0; i < count; i++) {
+                RelatedObject ref = new RelatedObject();
+                ref.relatedId = id += readSignedVarLong(source);
+                refs[i] = ref;
+            }
+
+            if (source.readBoolean()) {
+                for (RelatedObject ref : refs) {
+                    ref.role = readString(source);
+                    ref.type = readString(source);
+                }
+            }
+
+            way.relatedObjects = refs;
+        }
+
+        count = readLength(source);
+        if (count >= 0) {
+            long[] locations = new long[count];
+            int lat = 0;
+            int lon = 0;
+            for (int i = 0; i < count; i++) {
+                lat += readSignedVarInt(source);
+                lon += readSignedVarInt(source);
+                locations[i] = FixedPoint.pack(lat, lon);
+            }
+            way.locations = locations;
+        }
+
+        return way;
+    }
+
+    @Override
+    public void copy(DataInputView source, DataOutputView target) throws IOException {
+
+        copyVarLong(source, target);
+        copyFields(source, target);
+        copyVarInt(source, target);
+        copyString(source, target);
+
+        int count = copyLength(source, target);
+        if (count >= 0) {
+
+            for (int i = 0; i < count; i++)
+                copyVarLong(source, target);
+
+            boolean roles = source.readBoolean();
+            target.writeBoolean(roles);
+            if (roles) {
+                for (int i = 0; i < 2 * count; i++)
+                    copyString(source, target);
+            }
+        }
+
+        // lat and lon deltas of each location
+        count = copyLength(source, target);
+        for (int i = 0; i < 2 * count; i++)
+            copyVarInt(source, target);
+    }
+
+    public static class Factory extends TypeInfoFactory<WayEntity> {
+
+        @Override
+        public TypeInformation<WayEntity> createTypeInfo(Type t, Map<String, TypeInformation<?>> genericParameters) {
+            return new ModelTypeInfo<>(WayEntity.class, INSTANCE);
+        }
+    }
+
+}
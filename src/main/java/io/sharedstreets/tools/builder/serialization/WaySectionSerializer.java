@@ -0,0 +1,115 @@
+package io.sharedstreets.tools.builder.serialization;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+import io.sharedstreets.tools.builder.model.WaySection;
+import io.sharedstreets.tools.builder.osm.model.Way;
+import org.apache.flink.api.common.typeinfo.TypeInfoFactory;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+/**
+ * WaySection with its flags in one byte, its node indexes and delta encoded node positions.
+ */
+public class WaySectionSerializer extends ModelSerializer<WaySection> {
+
+    public static final WaySectionSerializer INSTANCE = new WaySectionSerializer();
+
+    private static final int ONE_WAY = 1;
+    private static final int ROUNDABOUT = 2;
+    private static final int LINK = 4;
+
+    @Override
+    public WaySection createInstance() {
+        return new WaySection();
+    }
+
+    @Override
+    public WaySection copy(WaySection from) {
+        return from == null ? null : copySection(from);
+    }
+
+    @Override
+    public void serialize(WaySection record, DataOutputView target) throws IOException {
+        writeSection(record, target);
+    }
+
+    @Override
+    public WaySection deserialize(DataInputView source) throws IOException {
+        return readSection(source);
+    }
+
+    @Override
+    public void copy(DataInputView source, DataOutputView target) throws IOException {
+        copySection(source, target);
+    }
+
+    static void writeSection(WaySection section, DataOutputView out) throws IOException {
+
+        writeNullableLong(section.wayId, out);
+        writeString(section.name, out);
+        out.writeByte((section.oneWay ? ONE_WAY : 0) | (section.roundabout ? ROUNDABOUT : 0) | (section.link ? LINK : 0));
+        writeEnum(section.roadClass, out);
+        writeVarInt(section.firstNodeIndex, out);
+        writeVarInt(section.lastNodeIndex, out);
+        NodePositionArraySerializer.writeNodes(section.nodes, out);
+    }
+
+    static WaySection readSection(DataInputView in) throws IOException {
+
+        WaySection section = new WaySection();
+        section.wayId = readNullableLong(in);
+        section.name = readString(in);
+
+        int flags = in.readByte();
+        section.oneWay = (flags & ONE_WAY) != 0;
+        section.roundabout = (flags & ROUNDABOUT) != 0;
+        section.link = (flags & LINK) != 0;
+
+        section.roadClass = readEnum(Way.ROAD_CLASS.values(), in);
+        section.firstNodeIndex = readVarInt(in);
+        section.lastNodeIndex = readVarInt(in);
+        section.nodes = NodePositionArraySerializer.readNodes(in);
+
+        return section;
+    }
+
+    static WaySection copySection(WaySection from) {
+
+        WaySection section = new WaySection();
+        section.wayId = from.wayId;
+        section.name = from.name;
+        section.oneWay = from.oneWay;
+        section.roundabout = from.roundabout;
+        section.link = from.link;
+        section.roadClass = from.roadClass;
+        section.firstNodeIndex = from.firstNodeIndex;
+        section.lastNodeIndex = from.lastNodeIndex;
+        section.nodes = NodePositionArraySerializer.copyNodes(from.nodes);
+
+        return section;
+    }
+
+    static void copySection(DataInputView in, DataOutputView out) throws IOException {
+
+        copyNullableLong(in, out);
+        copyString(in, out);
+        out.writeByte(in.readByte());
+        copyVarInt(in, out);
+        copyVarInt(in, out);
+        copyVarInt(in, out);
+        NodePositionArraySerializer.copyNodes(in, out);
+    }
+
+    public static class Factory extends TypeInfoFactory<WaySection> {
+
+        @Override
+        public TypeInformation<WaySection> createTypeInfo(Type t, Map<String, TypeInformation<?>> genericParameters) {
+            return new ModelTypeInfo<>(WaySection.class, INSTANCE);
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package io.sharedstreets.tools.builder.serialization;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+import io.sharedstreets.tools.builder.osm.model.Way;
+import org.apache.flink.api.common.typeinfo.TypeInfoFactory;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+/**
+ * Way with its tags, classification, name, first node index and delta encoded node positions.
+ */
+public class WaySerializer extends ModelSerializer<Way> {
+
+    public static final WaySerializer INSTANCE = new WaySerializer();
+
+    @Override
+    public Way createInstance() {
+        return new Way();
+    }
+
+    @Override
+    public Way copy(Way from) {
+
+        if (from == null)
+            return null;
+
+        Way way = new Way();
+        way.id = from.id;
+        way.fields = copyFields(from.fields);
+        way.classification = from.classification;
+        way.name = from.name;
+        way.firstNodeIndex = from.firstNodeIndex;
+        way.nodes = NodePositionArraySerializer.copyNodes(from.nodes);
+
+        return way;
+    }
+
+    @Override
+    public void serialize(Way record, DataOutputView target) throws IOException {
+        writeSignedVarLong(record.id, target);
+        writeFields(record.fields, target);
+        writeVarInt(record.classification, target);
+        writeString(record.name, target);
+        writeVarInt(record.firstNodeIndex, target);
+        NodePositionArraySerializer.writeNodes(record.nodes, target);
+    }
+
+    @Override
+    public Way deserialize(DataInputView source) throws IOException {
+
+        Way way = new Way();
+        way.id = readSignedVarLong(source);
+        way.fields = readFields(source);
+        way.classification = readVarInt(source);
+        way.name = readString(source);
+        way.firstNodeIndex = readVarInt(source);
+        way.nodes = NodePositionArraySerializer.readNodes(source);
+
+        return way;
+    }
+
+    @Override
+    public void copy(DataInputView source, DataOutputView target) throws IOException {
+
+        copyVarLong(source, target);
+        copyFields(source, target);
+        copyVarInt(source, target);
+        copyString(source, target);
+        copyVarInt(source, target);
+        NodePositionArraySerializer.copyNodes(source, target);
+    }
+
+    public static class Factory extends TypeInfoFactory<Way> {
+
+        @Override
+        public TypeInformation<Way> createTypeInfo(Type t, Map<String, TypeInformation<?>> genericParameters) {
+            return new ModelTypeInfo<>(Way.class, INSTANCE);
+        }
+    }
+
+}
@@ -20,10 +20,9 @@ package io.sharedstreets.tools.builder.tiles;
 
 
 import io.sharedstreets.data.SharedStreetsGeometry;
-import io.sharedstreets.tools.builder.osm.model.Way;
 import io.sharedstreets.tools.builder.util.geo.TileId;
 import org.apache.flink.annotation.Public;
-import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.java.tuple.Tuple3;
 
 import java.io.IOException;
 import java.nio.file.FileSystems;
@@ -35,19 +34,19 @@ import java.nio.file.Path;
  * file streams.
  */
 @Public
-public class ProtoTileOutputFormat<IT extends  Tuple2<TileId, TilableData>> extends TiledNIOFileOutputFormat<IT> {
+public class ProtoTileOutputFormat<IT extends  Tuple3<TileId, TilableData, Integer>> extends TiledNIOFileOutputFormat<IT> {
 
-    public ProtoTileOutputFormat(String outputPath, Way.ROAD_CLASS filteredClass) {
-        super(outputPath, "pbf", filteredClass);
+    public ProtoTileOutputFormat(String outputPath) {
+        super(outputPath, "pbf");
     }
 
     @Override
     public void writeRecord(IT record) throws IOException {
 
-        this.writeRecord(record.f0, record.f1.getType(), record.f1.toBinary());
+        this.writeRecord(record.f0, record.f1.getType(), record.f2, record.f1.toBinary());
 
         if(record.f1 instanceof SharedStreetsGeometry){
-            this.writeRecord(record.f0, ((SharedStreetsGeometry) record.f1).metadata.getType(), ((SharedStreetsGeometry) record.f1).metadata.toBinary());
+            this.writeRecord(record.f0, ((SharedStreetsGeometry) record.f1).metadata.getType(), record.f2, ((SharedStreetsGeometry) record.f1).metadata.toBinary());
         }
     }
 }
\ No newline at end of file
@@ -1,11 +1,14 @@
 package io.sharedstreets.tools.builder.tiles;
 
 
+import io.sharedstreets.tools.builder.serialization.TilableDataSerializer;
 import io.sharedstreets.tools.builder.util.geo.TileId;
+import org.apache.flink.api.common.typeinfo.TypeInfo;
 
 import java.io.IOException;
 import java.util.Set;
 
+@TypeInfo(TilableDataSerializer.Factory.class)
 public abstract class TilableData {
 
     public abstract String getType();
@@ -1,6 +1,5 @@
 package io.sharedstreets.tools.builder.tiles;
 
-import io.sharedstreets.tools.builder.osm.model.Way;
 import io.sharedstreets.tools.builder.util.geo.TileId;
 import org.apache.flink.api.common.io.RichOutputFormat;
 import org.apache.flink.configuration.Configuration;
@@ -109,12 +108,10 @@ public abstract class TiledNIOFileOutputFormat<IT> extends RichOutputFormat<IT>
     String fileType;
 
     String outputFilePath;
-    Way.ROAD_CLASS filteredClass;
 
-    public TiledNIOFileOutputFormat(String outputPath, String fileType, Way.ROAD_CLASS filteredClass) {
+    public TiledNIOFileOutputFormat(String outputPath, String fileType) {
         this.outputFilePath = outputPath;
         this.fileType = fileType;
-        this.filteredClass = filteredClass;
     }
 
 
@@ -139,9 +136,12 @@ public abstract class TiledNIOFileOutputFormat<IT> extends RichOutputFormat<IT>
         this.fileCache = new LRUFileCache(outputPath, MAX_FILES / numTasks);
     }
 
-    public void writeRecord(TileId tileId, String recordType, byte[] data) throws IOException {
+    /**
+     * @param level road class level of the record, the value of the filtered class
+     */
+    public void writeRecord(TileId tileId, String recordType, int level, byte[] data) throws IOException {
 
-        Path filePath = Paths.get(this.outputFilePath, (String)tileId.toString() + "." + recordType + "." + filteredClass.getValue() + "." + fileType);
+        Path filePath = Paths.get(this.outputFilePath, (String)tileId.toString() + "." + recordType + "." + level + "." + fileType);
 
         String key = filePath.toAbsolutePath().toString();
 
@@ -6,16 +6,25 @@ import io.sharedstreets.tools.builder.model.BaseSegment;
 import io.sharedstreets.tools.builder.model.WayIntersection;
 import io.sharedstreets.tools.builder.osm.OSMDataStream;
 import io.sharedstreets.tools.builder.model.WaySection;
+import io.sharedstreets.tools.builder.serialization.BaseSegmentSerializer;
 import org.apache.flink.api.common.functions.*;
+import org.apache.flink.api.common.operators.Order;
 import org.apache.flink.api.java.DataSet;
 import org.apache.flink.api.java.operators.IterativeDataSet;
 import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.java.tuple.Tuple3;
 import org.apache.flink.api.java.tuple.Tuple4;
+import org.apache.flink.api.java.tuple.Tuple5;
+import org.apache.flink.api.java.tuple.Tuple6;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.core.memory.DataOutputViewStreamWrapper;
 import org.apache.flink.util.Collector;
 
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 
 import org.slf4j.LoggerFactory;
@@ -26,19 +35,44 @@ public class BaseSegments implements Serializable {
 
     Logger LOG = LoggerFactory.getLogger(BaseSegments.class);
 
+    public enum MergeStrategy {
+        // merge adjoining segments two at a time, in an iteration of up to 100 rounds
+        ITERATIVE,
+        // label the chains of mergeable sections in a number of rounds growing with the log of their length, then assemble each chain once
+        CHAINS
+    }
+
+    // supersteps of the iterative merge
+    public static final int MAX_ITERATIONS = 100;
+
+    // supersteps of the chain labelling, far above the log of any chain length
+    public static final int MAX_CHAIN_ITERATIONS = 1000;
+
     public DataSet<BaseSegment> segments;
 
     public BaseSegments(OSMDataStream.FilteredWays filteredWays, Intersections intersections) {
+        this(filteredWays, intersections, MergeStrategy.ITERATIVE);
+    }
+
+    public BaseSegments(OSMDataStream.FilteredWays filteredWays, Intersections intersections, MergeStrategy mergeStrategy) {
+        this(filteredWays, intersections, mergeStrategy, false);
+    }
+
+    /**
+     * @param countWorksetBytes count the serialized size of the merge workset for the MergeReport, costs a serialization
+     *                          of each segment every superstep
+     */
+    public BaseSegments(OSMDataStream.FilteredWays filteredWays, Intersections intersections, MergeStrategy mergeStrategy, boolean countWorksetBytes) {
 
         // split ways
 
         DataSet<WayIntersection> splittingIntersections = intersections.splittingIntersections();
 
-        // way_id, splitting node_id
-        DataSet<Tuple2<Long, Long>> waySplitPoints = splittingIntersections.flatMap(new FlatMapFunction<WayIntersection, Tuple2<Long, Long>>() {
-            public void flatMap(WayIntersection value, Collector<Tuple2<Long, Long>> out) {
+        // way_id, splitting node_id, level
+        DataSet<Tuple3<Long, Long, Integer>> waySplitPoints = splittingIntersections.flatMap(new FlatMapFunction<WayIntersection, Tuple3<Long, Long, Integer>>() {
+            public void flatMap(WayIntersection value, Collector<Tuple3<Long, Long, Integer>> out) {
                 for (Long wayId : value.intersectingWays) {
-                    out.collect(new Tuple2<Long, Long>(wayId, value.nodeId));
+                    out.collect(new Tuple3<Long, Long, Integer>(wayId, value.nodeId, value.level));
                 }
             }
         });
@@ -55,61 +89,72 @@ public class BaseSegments implements Serializable {
         // merging intersections -- we'll use this to filter segments needing to be joined
         DataSet<WayIntersection> mergingIntersections = intersections.mergingIntersections();
 
-        // map merging intersections by node id
-        DataSet<Tuple2<Long, WayIntersection>> mappedMergingIntersections = mergingIntersections
-                .map(new MapFunction<WayIntersection, Tuple2<Long, WayIntersection>>() {
+        // map merging intersections by node id and level
+        DataSet<Tuple3<Long, WayIntersection, Integer>> mappedMergingIntersections = mergingIntersections
+                .map(new MapFunction<WayIntersection, Tuple3<Long, WayIntersection, Integer>>() {
                     @Override
-                    public Tuple2<Long, WayIntersection> map(WayIntersection value) throws Exception {
-                        return new Tuple2<>(value.nodeId, value);
+                    public Tuple3<Long, WayIntersection, Integer> map(WayIntersection value) throws Exception {
+                        return new Tuple3<>(value.nodeId, value, value.level);
                     }
                 });
 
 
-        // way_id,  splitting node_id[]
-        DataSet<Tuple2<Long, Long[]>> groupedSplitPoints = waySplitPoints.groupBy(0)
-                .reduceGroup(new GroupReduceFunction<Tuple2<Long, Long>, Tuple2<Long, Long[]>>() {
+        // way_id,  splitting node_id[], level
+        DataSet<Tuple3<Long, Long[], Integer>> groupedSplitPoints = waySplitPoints.groupBy(2, 0)
+                .reduceGroup(new GroupReduceFunction<Tuple3<Long, Long, Integer>, Tuple3<Long, Long[], Integer>>() {
                     @Override
-                    public void reduce(Iterable<Tuple2<Long, Long>> values,
-                                       Collector<Tuple2<Long, Long[]>> out) throws Exception {
+                    public void reduce(Iterable<Tuple3<Long, Long, Integer>> values,
+                                       Collector<Tuple3<Long, Long[], Integer>> out) throws Exception {
 
                         ArrayList<Long> splitPoints = new ArrayList<>();
 
                         long id = -1;
+                        int level = -1;
 
-                        for (Tuple2<Long, Long> v : values) {
+                        for (Tuple3<Long, Long, Integer> v : values) {
 
                             id = v.f0;
+                            level = v.f2;
                             splitPoints.add(v.f1);
                         }
 
                         Long[] elements = new Long[splitPoints.size()];
                         elements = splitPoints.toArray(elements);
 
-                        Tuple2<Long, Long[]> grouped = new Tuple2<>();
+                        Tuple3<Long, Long[], Integer> grouped = new Tuple3<>();
 
                         grouped.f0 = id;
                         grouped.f1 = elements;
+                        grouped.f2 = level;
 
                         out.collect(grouped);
                     }
                 });
 
+        final int[] levels = filteredWays.levels;
+
         // can't use key selector on leftinnerjoin (appears to be a flink bug) so mapping to index by id
-        DataSet<Tuple2<Long, Way>> mappedWays = filteredWays.ways.map(new MapFunction<Way, Tuple2<Long, Way>>() {
+        // ways are repeated for each of their levels
+        DataSet<Tuple3<Long, Way, Integer>> mappedWays = filteredWays.ways.flatMap(new FlatMapFunction<Way, Tuple3<Long, Way, Integer>>() {
             @Override
-            public Tuple2<Long, Way> map(Way value) throws Exception {
+            public void flatMap(Way value, Collector<Tuple3<Long, Way, Integer>> out) throws Exception {
 
-                return new Tuple2<Long, Way>(value.id, value);
+                Way.ROAD_CLASS roadClass = value.roadClass();
+                for (int level : levels) {
+                    if (OSMDataStream.FilteredWays.inLevel(roadClass, level))
+                        out.collect(new Tuple3<Long, Way, Integer>(value.id, value, level));
+                }
             }
         });
 
         // convert all ways to way sections based on split points
-        DataSet<WaySection> waySections = mappedWays.leftOuterJoin(groupedSplitPoints)
-                .where(0)
-                .equalTo(0)
-                .with(new FlatJoinFunction<Tuple2<Long, Way>, Tuple2<Long, Long[]>, WaySection>() {
+        // level, way section
+        DataSet<Tuple2<Integer, WaySection>> waySections = mappedWays.leftOuterJoin(groupedSplitPoints)
+                .where(2, 0)
+                .equalTo(2, 0)
+                .with(new FlatJoinFunction<Tuple3<Long, Way, Integer>, Tuple3<Long, Long[], Integer>, Tuple2<Integer, WaySection>>() {
                     @Override
-                    public void join(Tuple2<Long, Way> way, Tuple2<Long, Long[]> second, Collector<WaySection> out) throws Exception {
+                    public void join(Tuple3<Long, Way, Integer> way, Tuple3<Long, Long[], Integer> second, Collector<Tuple2<Integer, WaySection>> out) throws Exception {
 
 
                         // unsplit way -- copy everything
@@ -119,11 +164,13 @@ public class BaseSegments implements Serializable {
                             section.wayId = way.f1.id;
                             section.name = way.f1.getName();
                             section.nodes = Arrays.copyOfRange(way.f1.nodes, 0, way.f1.nodes.length);
+                            section.firstNodeIndex = way.f1.firstNodeIndex;
+                            section.lastNodeIndex = way.f1.firstNodeIndex + way.f1.nodes.length - 1;
                             section.oneWay = way.f1.isOneWay();
                             section.roadClass = way.f1.roadClass();
                             section.link = way.f1.isLink();
                             section.roundabout = way.f1.isRoundabout();
-                            out.collect(section);
+                            out.collect(new Tuple2<>(way.f2, section));
                         } else {
 
                             HashSet<Long> splitPoints = new HashSet<>();
@@ -142,11 +189,13 @@ public class BaseSegments implements Serializable {
                                         section.wayId = way.f1.id;
                                         section.name = way.f1.getName();
                                         section.nodes = Arrays.copyOfRange(way.f1.nodes, previousSplit, i + 1);
+                                        section.firstNodeIndex = way.f1.firstNodeIndex + previousSplit;
+                                        section.lastNodeIndex = way.f1.firstNodeIndex + i;
                                         section.oneWay = way.f1.isOneWay();
                                         section.roadClass = way.f1.roadClass();
                                         section.link = way.f1.isLink();
                                         section.roundabout = way.f1.isRoundabout();
-                                        out.collect(section);
+                                        out.collect(new Tuple2<>(way.f2, section));
 
                                         previousSplit = i;
                                     }
@@ -159,12 +208,14 @@ public class BaseSegments implements Serializable {
                                 section.wayId = way.f1.id;
                                 section.name = way.f1.getName();
                                 section.nodes = Arrays.copyOfRange(way.f1.nodes, previousSplit, way.f1.nodes.length);
+                                section.firstNodeIndex = way.f1.firstNodeIndex + previousSplit;
+                                section.lastNodeIndex = way.f1.firstNodeIndex + way.f1.nodes.length - 1;
                                 section.oneWay = way.f1.isOneWay();
                                 section.roadClass = way.f1.roadClass();
                                 section.link = way.f1.isLink();
                                 section.roundabout = way.f1.isRoundabout();
 
-                                out.collect(section);
+                                out.collect(new Tuple2<>(way.f2, section));
                             }
                         }
                     }
@@ -172,20 +223,47 @@ public class BaseSegments implements Serializable {
 
 
         // map way section to segments (one section per segment)
+        DataSet<BaseSegment> sectionSegments = waySections.map(new MapFunction<Tuple2<Integer, WaySection>, BaseSegment>() {
+            @Override
+            public BaseSegment map(Tuple2<Integer, WaySection> value) throws Exception {
+
+                BaseSegment segment = new BaseSegment(value.f1);
+                segment.level = value.f0;
+
+                return segment;
+            }
+        });
+
+        // merges are planned on the end nodes of the sections, the full sections are joined back once merged
+        DataSet<BaseSegment> sectionEndpoints = sectionSegments.map(new MapFunction<BaseSegment, BaseSegment>() {
+            @Override
+            public BaseSegment map(BaseSegment value) throws Exception {
+                return value.endpoints();
+            }
+        });
+
+        if (mergeStrategy == MergeStrategy.CHAINS)
+            segments = mergeChains(sectionSegments, sectionEndpoints, mappedMergingIntersections);
+        else
+            segments = assembleSegments(mergeIterative(sectionEndpoints, mappedMergingIntersections, countWorksetBytes), waySections);
+    }
+
+    private DataSet<BaseSegment> mergeIterative(DataSet<BaseSegment> sectionEndpoints, DataSet<Tuple3<Long, WayIntersection, Integer>> mappedMergingIntersections, final boolean countWorksetBytes) {
+
         // add boolean for splitting finalized segments from iteration workset
-        DataSet<Tuple2<Boolean, BaseSegment>> initialSegments = waySections.map(new MapFunction<WaySection, Tuple2<Boolean, BaseSegment>>() {
+        DataSet<Tuple2<Boolean, BaseSegment>> initialSegments = sectionEndpoints.map(new MapFunction<BaseSegment, Tuple2<Boolean, BaseSegment>>() {
             @Override
-            public Tuple2<Boolean, BaseSegment> map(WaySection value) throws Exception {
+            public Tuple2<Boolean, BaseSegment> map(BaseSegment value) throws Exception {
 
                 // all segments are part of the initial works set
-                return new Tuple2<Boolean, BaseSegment>(true, new BaseSegment(value));
+                return new Tuple2<Boolean, BaseSegment>(true, value);
             }
         });
 
 
         // begin iteration
         // to reduce segments down so all merged sections are contained within a single BaseSegment
-        IterativeDataSet<Tuple2<Boolean, BaseSegment>> iterateSegments = initialSegments.iterate(100);
+        IterativeDataSet<Tuple2<Boolean, BaseSegment>> iterateSegments = initialSegments.iterate(MAX_ITERATIONS);
 
         // split already finalized segments
         DataSet<Tuple2<Boolean, BaseSegment>> finalizedSegments = iterateSegments.filter(new FilterFunction<Tuple2<Boolean, BaseSegment>>() {
@@ -200,11 +278,43 @@ public class BaseSegments implements Serializable {
             public boolean filter(Tuple2<Boolean, BaseSegment> value) throws Exception {
                 return value.f0;
             }
-        }).map(new MapFunction<Tuple2<Boolean, BaseSegment>, BaseSegment>() {
+        }).map(new RichMapFunction<Tuple2<Boolean, BaseSegment>, BaseSegment>() {
+
+            private final MergeReport.SuperstepCounter segments = new MergeReport.SuperstepCounter(MergeReport.WORKSET_SEGMENTS);
+            private final MergeReport.SuperstepCounter bytes = new MergeReport.SuperstepCounter(MergeReport.WORKSET_BYTES);
+
+            private transient ByteCounter byteCounter;
+            private transient DataOutputViewStreamWrapper byteCounterView;
+
+            @Override
+            public void open(Configuration parameters) throws Exception {
+                segments.open(getIterationRuntimeContext());
+                bytes.open(getIterationRuntimeContext());
+
+                byteCounter = new ByteCounter();
+                byteCounterView = new DataOutputViewStreamWrapper(byteCounter);
+            }
+
             @Override
             public BaseSegment map(Tuple2<Boolean, BaseSegment> value) throws Exception {
+
+                segments.add(1);
+
+                // size of the segment as shuffled by the superstep
+                if (countWorksetBytes) {
+                    byteCounter.count = 0;
+                    BaseSegmentSerializer.INSTANCE.serialize(value.f1, byteCounterView);
+                    bytes.add(byteCounter.count);
+                }
+
                 return value.f1;
             }
+
+            @Override
+            public void close() throws Exception {
+                segments.close();
+                bytes.close();
+            }
         });
 
         //  Input:
@@ -239,38 +349,18 @@ public class BaseSegments implements Serializable {
         //
 
         // index segments by common start/end nodes -- every segment gets mapped twice, once each for start and end nodes
-        // Tuple2(intersectionId, segmentId, merging, segment)
-        DataSet<Tuple4<Long, Long, Boolean, BaseSegment>> segmentIntersectionMap = iterationWorkset
-                .flatMap(new FlatMapFunction<BaseSegment, Tuple4<Long, Long, Boolean, BaseSegment>>() {
-                    @Override
-                    public void flatMap(BaseSegment value, Collector<Tuple4<Long, Long, Boolean, BaseSegment>> out) throws Exception {
-
-                        Tuple4<Long, Long, Boolean, BaseSegment> firstNode = new Tuple4<Long, Long, Boolean, BaseSegment>();
-                        firstNode.f0 = value.getFirstNode();
-                        firstNode.f1 = value.id;
-                        firstNode.f2 = false;
-                        firstNode.f3 = value;
-
-                        out.collect(firstNode);
-
-                        Tuple4<Long, Long, Boolean, BaseSegment> lastNode = new Tuple4<Long, Long, Boolean, BaseSegment>();
-                        lastNode.f0 = value.getLastNode();
-                        lastNode.f1 = value.id;
-                        lastNode.f2 = false;
-                        lastNode.f3 = value;
-
-                        out.collect(lastNode);
-                    }
-                });
+        // Tuple5(intersectionId, segmentId, merging, segment, level)
+        DataSet<Tuple5<Long, Long, Boolean, BaseSegment, Integer>> segmentIntersectionMap = iterationWorkset
+                .flatMap(new SegmentEndpoints());
 
         // join segments with merging intersections (only segments with common merging intersections get combined)
-        DataSet<Tuple4<Long, Long, Boolean, BaseSegment>> unfilteredSegmentWithMergingIntersection = segmentIntersectionMap
+        DataSet<Tuple5<Long, Long, Boolean, BaseSegment, Integer>> unfilteredSegmentWithMergingIntersection = segmentIntersectionMap
                 .leftOuterJoin(mappedMergingIntersections)
-                .where(0)
-                .equalTo(0)
-                .with(new JoinFunction<Tuple4<Long, Long, Boolean, BaseSegment>, Tuple2<Long, WayIntersection>, Tuple4<Long, Long, Boolean, BaseSegment>>() {
+                .where(4, 0)
+                .equalTo(2, 0)
+                .with(new JoinFunction<Tuple5<Long, Long, Boolean, BaseSegment, Integer>, Tuple3<Long, WayIntersection, Integer>, Tuple5<Long, Long, Boolean, BaseSegment, Integer>>() {
                     @Override
-                    public Tuple4<Long, Long, Boolean, BaseSegment> join(Tuple4<Long, Long, Boolean, BaseSegment> first, Tuple2<Long, WayIntersection> second) throws Exception {
+                    public Tuple5<Long, Long, Boolean, BaseSegment, Integer> join(Tuple5<Long, Long, Boolean, BaseSegment, Integer> first, Tuple3<Long, WayIntersection, Integer> second) throws Exception {
 
                         if (second != null && second.f1 != null && second.f1.isMerging())
                             first.f2 = true;
@@ -283,30 +373,30 @@ public class BaseSegments implements Serializable {
 
         // need to clean up merging intersections that can't actually merge (use BaseSegment.canMerge criteria)
 
-        DataSet<Tuple4<Long, Long, Boolean, BaseSegment>> cleanedSegmentsWithMergingIntersection = unfilteredSegmentWithMergingIntersection
-                .groupBy(0) // nodeId
-                .reduceGroup(new GroupReduceFunction<Tuple4<Long, Long, Boolean, BaseSegment>, Tuple4<Long, Long, Boolean, BaseSegment>>() {
+        DataSet<Tuple5<Long, Long, Boolean, BaseSegment, Integer>> cleanedSegmentsWithMergingIntersection = unfilteredSegmentWithMergingIntersection
+                .groupBy(4, 0) // level, nodeId
+                .reduceGroup(new GroupReduceFunction<Tuple5<Long, Long, Boolean, BaseSegment, Integer>, Tuple5<Long, Long, Boolean, BaseSegment, Integer>>() {
                     @Override
-                    public void reduce(Iterable<Tuple4<Long, Long, Boolean, BaseSegment>> values, Collector<Tuple4<Long, Long, Boolean, BaseSegment>> out) throws Exception {
-                        ArrayList<Tuple4<Long, Long, Boolean, BaseSegment>> segmentList = new ArrayList<>();
+                    public void reduce(Iterable<Tuple5<Long, Long, Boolean, BaseSegment, Integer>> values, Collector<Tuple5<Long, Long, Boolean, BaseSegment, Integer>> out) throws Exception {
+                        ArrayList<Tuple5<Long, Long, Boolean, BaseSegment, Integer>> segmentList = new ArrayList<>();
 
-                        for (Tuple4<Long, Long, Boolean, BaseSegment> value : values) {
+                        for (Tuple5<Long, Long, Boolean, BaseSegment, Integer> value : values) {
                             segmentList.add(value);
                         }
 
                         if (segmentList.size() == 2) {
                             if (BaseSegment.canMerge(segmentList.get(0).f3, segmentList.get(1).f3)) {
-                                for (Tuple4<Long, Long, Boolean, BaseSegment> value : segmentList) {
+                                for (Tuple5<Long, Long, Boolean, BaseSegment, Integer> value : segmentList) {
                                     out.collect(value);
                                 }
                             } else {
-                                for (Tuple4<Long, Long, Boolean, BaseSegment> value : segmentList) {
+                                for (Tuple5<Long, Long, Boolean, BaseSegment, Integer> value : segmentList) {
                                     value.f2 = false;
                                     out.collect(value);
                                 }
                             }
                         } else {
-                            for (Tuple4<Long, Long, Boolean, BaseSegment> value : segmentList) {
+                            for (Tuple5<Long, Long, Boolean, BaseSegment, Integer> value : segmentList) {
                                 value.f2 = false;
                                 out.collect(value);
                             }
@@ -326,15 +416,15 @@ public class BaseSegments implements Serializable {
         //              ====B====0
         //
 
-        DataSet<Tuple4<Long, Long, Boolean, BaseSegment>> deduplicatedSegments = cleanedSegmentsWithMergingIntersection
-                .groupBy(1) // segmentId
-                .reduceGroup(new GroupReduceFunction<Tuple4<Long, Long, Boolean, BaseSegment>, Tuple4<Long, Long, Boolean, BaseSegment>>() {
+        DataSet<Tuple5<Long, Long, Boolean, BaseSegment, Integer>> deduplicatedSegments = cleanedSegmentsWithMergingIntersection
+                .groupBy(4, 1) // level, segmentId
+                .reduceGroup(new GroupReduceFunction<Tuple5<Long, Long, Boolean, BaseSegment, Integer>, Tuple5<Long, Long, Boolean, BaseSegment, Integer>>() {
                     @Override
-                    public void reduce(Iterable<Tuple4<Long, Long, Boolean, BaseSegment>> values, Collector<Tuple4<Long, Long, Boolean, BaseSegment>> out) throws Exception {
-                        Tuple4<Long, Long, Boolean, BaseSegment> savedSegment = null;
+                    public void reduce(Iterable<Tuple5<Long, Long, Boolean, BaseSegment, Integer>> values, Collector<Tuple5<Long, Long, Boolean, BaseSegment, Integer>> out) throws Exception {
+                        Tuple5<Long, Long, Boolean, BaseSegment, Integer> savedSegment = null;
 
 
-                        for (Tuple4<Long, Long, Boolean, BaseSegment> value : values) {
+                        for (Tuple5<Long, Long, Boolean, BaseSegment, Integer> value : values) {
 
                             if (value.f2) {
                                 // iterate through segments until we find a merging intersection -- keep it
@@ -362,19 +452,34 @@ public class BaseSegments implements Serializable {
         //
 
         // keep nonmerging segments to merge into final result set
-        DataSet<BaseSegment> nonmergingSegments = deduplicatedSegments.flatMap(new FlatMapFunction<Tuple4<Long, Long, Boolean, BaseSegment>, BaseSegment>() {
+        DataSet<BaseSegment> nonmergingSegments = deduplicatedSegments.flatMap(new RichFlatMapFunction<Tuple5<Long, Long, Boolean, BaseSegment, Integer>, BaseSegment>() {
+
+            private final MergeReport.SuperstepCounter nonMerging = new MergeReport.SuperstepCounter(MergeReport.NON_MERGING);
+
             @Override
-            public void flatMap(Tuple4<Long, Long, Boolean, BaseSegment> value, Collector<BaseSegment> out) throws Exception {
+            public void open(Configuration parameters) throws Exception {
+                nonMerging.open(getIterationRuntimeContext());
+            }
+
+            @Override
+            public void flatMap(Tuple5<Long, Long, Boolean, BaseSegment, Integer> value, Collector<BaseSegment> out) throws Exception {
 
-                if (!value.f2)
+                if (!value.f2) {
+                    nonMerging.add(1);
                     out.collect(value.f3);
+                }
+            }
+
+            @Override
+            public void close() throws Exception {
+                nonMerging.close();
             }
         });
 
 
-        DataSet<Tuple4<Long, Long, Boolean, BaseSegment>> mergingSegments = deduplicatedSegments.flatMap(new FlatMapFunction<Tuple4<Long, Long, Boolean, BaseSegment>, Tuple4<Long, Long, Boolean, BaseSegment>>() {
+        DataSet<Tuple5<Long, Long, Boolean, BaseSegment, Integer>> mergingSegments = deduplicatedSegments.flatMap(new FlatMapFunction<Tuple5<Long, Long, Boolean, BaseSegment, Integer>, Tuple5<Long, Long, Boolean, BaseSegment, Integer>>() {
             @Override
-            public void flatMap(Tuple4<Long, Long, Boolean, BaseSegment> value, Collector<Tuple4<Long, Long, Boolean, BaseSegment>> out) throws Exception {
+            public void flatMap(Tuple5<Long, Long, Boolean, BaseSegment, Integer> value, Collector<Tuple5<Long, Long, Boolean, BaseSegment, Integer>> out) throws Exception {
 
                 if (value.f2)
                     out.collect(value);
@@ -401,18 +506,33 @@ public class BaseSegments implements Serializable {
         //
 
         // save loop sections to merge into final results
-        DataSet<BaseSegment> loopSegments = mergingSegments.flatMap(new FlatMapFunction<Tuple4<Long, Long, Boolean, BaseSegment>, BaseSegment>() {
+        DataSet<BaseSegment> loopSegments = mergingSegments.flatMap(new RichFlatMapFunction<Tuple5<Long, Long, Boolean, BaseSegment, Integer>, BaseSegment>() {
+
+            private final MergeReport.SuperstepCounter loops = new MergeReport.SuperstepCounter(MergeReport.LOOPS);
+
             @Override
-            public void flatMap(Tuple4<Long, Long, Boolean, BaseSegment> value, Collector<BaseSegment> out) throws Exception {
+            public void open(Configuration parameters) throws Exception {
+                loops.open(getIterationRuntimeContext());
+            }
 
-                if (value.f3.getLastNode().equals(value.f3.getFirstNode()))
+            @Override
+            public void flatMap(Tuple5<Long, Long, Boolean, BaseSegment, Integer> value, Collector<BaseSegment> out) throws Exception {
+
+                if (value.f3.getLastNode().equals(value.f3.getFirstNode())) {
+                    loops.add(1);
                     out.collect(value.f3);
+                }
+            }
+
+            @Override
+            public void close() throws Exception {
+                loops.close();
             }
         });
 
-        DataSet<Tuple4<Long, Long, Boolean, BaseSegment>> filteredMergedSegements = mergingSegments.filter(new FilterFunction<Tuple4<Long, Long, Boolean, BaseSegment>>() {
+        DataSet<Tuple5<Long, Long, Boolean, BaseSegment, Integer>> filteredMergedSegements = mergingSegments.filter(new FilterFunction<Tuple5<Long, Long, Boolean, BaseSegment, Integer>>() {
             @Override
-            public boolean filter(Tuple4<Long, Long, Boolean, BaseSegment> value) throws Exception {
+            public boolean filter(Tuple5<Long, Long, Boolean, BaseSegment, Integer> value) throws Exception {
 
                 if (value.f3.getLastNode().equals(value.f3.getFirstNode()))
                     return false;
@@ -432,17 +552,33 @@ public class BaseSegments implements Serializable {
 
         // combine adjoining/mergable segments into a single segment
         DataSet<BaseSegment> mergedSegments = filteredMergedSegements
-                .groupBy(0)
-                .reduceGroup(new GroupReduceFunction<Tuple4<Long, Long, Boolean, BaseSegment>, BaseSegment>() {
+                .groupBy(4, 0)
+                .reduceGroup(new RichGroupReduceFunction<Tuple5<Long, Long, Boolean, BaseSegment, Integer>, BaseSegment>() {
+
+                    private final MergeReport.SuperstepCounter merges = new MergeReport.SuperstepCounter(MergeReport.MERGES);
+                    private final MergeReport.SuperstepCounter pending = new MergeReport.SuperstepCounter(MergeReport.PENDING);
+
+                    @Override
+                    public void open(Configuration parameters) throws Exception {
+                        merges.open(getIterationRuntimeContext());
+                        pending.open(getIterationRuntimeContext());
+                    }
+
+                    @Override
+                    public void close() throws Exception {
+                        merges.close();
+                        pending.close();
+                    }
+
                     @Override
-                    public void reduce(Iterable<Tuple4<Long, Long, Boolean, BaseSegment>> values, Collector<BaseSegment> out) throws Exception {
+                    public void reduce(Iterable<Tuple5<Long, Long, Boolean, BaseSegment, Integer>> values, Collector<BaseSegment> out) throws Exception {
 
                         // by definition should be no more than two segments per shared node
                         int count = 0;
                         BaseSegment baseSegment1 = null;
                         BaseSegment baseSegment2 = null;
 
-                        for (Tuple4<Long, Long, Boolean, BaseSegment> segmentIntersection : values) {
+                        for (Tuple5<Long, Long, Boolean, BaseSegment, Integer> segmentIntersection : values) {
 
                             count++;
 
@@ -457,13 +593,15 @@ public class BaseSegments implements Serializable {
 
                         if (count == 2 && baseSegment1 != null && baseSegment2 != null) {
                             BaseSegment mergedBaseSegment = BaseSegment.merge(baseSegment1, baseSegment2);
-                            if (mergedBaseSegment != null)
+                            if (mergedBaseSegment != null) {
                                 // emmit merged segment if we found two valid segments
+                                merges.add(1);
                                 out.collect(mergedBaseSegment);
-                            else
+                            } else
                                 System.out.println("Could not merge " + baseSegment1.getWayIds() + " with " + baseSegment2.getWayIds());
                         } else if (count == 1 && baseSegment1 != null) {
                             // emmit unmerged (but mergable) segment for processing in future iteration
+                            pending.add(1);
                             out.collect(baseSegment1);
                         }
 
@@ -496,14 +634,435 @@ public class BaseSegments implements Serializable {
                 }));
 
         // finalize iteration -- if mergedSegments is empty nothing left to merge.
-        segments = iterateSegments.closeWith(recombinedSegment, mergedSegments).map(new MapFunction<Tuple2<Boolean, BaseSegment>, BaseSegment>() {
+        return iterateSegments.closeWith(recombinedSegment, mergedSegments).map(new MapFunction<Tuple2<Boolean, BaseSegment>, BaseSegment>() {
             @Override
             public BaseSegment map(Tuple2<Boolean, BaseSegment> value) throws Exception {
                 return value.f1;
             }
         });
+    }
+
+    //  Input:
+    //
+    //   * non-merging intersection
+    //   0 merging intersection
+    //
+    //  =====A====*====B====0====C=====0====D====*====E====
+    //
+    //  Edges between the sections of mergeable merging intersections:
+    //
+    //  B-C, C-D
+    //
+    //  Chains (connected components of the edges, labelled with their lowest segment id), assembled in order from an end section:
+    //
+    //  A, BCD, E
+    //
+    private DataSet<BaseSegment> mergeChains(DataSet<BaseSegment> sectionSegments, DataSet<BaseSegment> sectionEndpoints, DataSet<Tuple3<Long, WayIntersection, Integer>> mappedMergingIntersections) {
+
+        // level, merging node_id, segment_id, segment_id
+        DataSet<Tuple4<Integer, Long, Long, Long>> mergeEdges = sectionEndpoints
+                .flatMap(new SegmentEndpoints())
+                .coGroup(mappedMergingIntersections)
+                .where(4, 0)
+                .equalTo(2, 0)
+                .with(new CoGroupFunction<Tuple5<Long, Long, Boolean, BaseSegment, Integer>, Tuple3<Long, WayIntersection, Integer>, Tuple4<Integer, Long, Long, Long>>() {
+                    @Override
+                    public void coGroup(Iterable<Tuple5<Long, Long, Boolean, BaseSegment, Integer>> first, Iterable<Tuple3<Long, WayIntersection, Integer>> second, Collector<Tuple4<Integer, Long, Long, Long>> out) throws Exception {
+
+                        if (!second.iterator().hasNext())
+                            return;
+
+                        ArrayList<Tuple5<Long, Long, Boolean, BaseSegment, Integer>> segmentList = new ArrayList<>();
+                        for (Tuple5<Long, Long, Boolean, BaseSegment, Integer> value : first)
+                            segmentList.add(value);
+
+                        // same criteria as the iteration, a loop section is never merged with itself
+                        if (segmentList.size() == 2 && BaseSegment.canMerge(segmentList.get(0).f3, segmentList.get(1).f3))
+                            out.collect(new Tuple4<>(segmentList.get(0).f4, segmentList.get(0).f0, segmentList.get(0).f1, segmentList.get(1).f1));
+                    }
+                });
+
+        // level, segment_id, chain_id, merging node_ids of the segment
+        DataSet<Tuple4<Integer, Long, Long, Long[]>> segmentChains = segmentChains(mergeEdges);
+
+        // can't use key selector on leftinnerjoin so mapping to index by level and id
+        DataSet<Tuple3<Integer, Long, BaseSegment>> mappedSegments = sectionSegments.map(new MapFunction<BaseSegment, Tuple3<Integer, Long, BaseSegment>>() {
+            @Override
+            public Tuple3<Integer, Long, BaseSegment> map(BaseSegment value) throws Exception {
+                return new Tuple3<>(value.level, value.id, value);
+            }
+        });
+
+        // level, chain_id, merging node_ids, segment -- segments without merging intersections are their own chain
+        DataSet<Tuple4<Integer, Long, Long[], BaseSegment>> chainedSegments = mappedSegments
+                .leftOuterJoin(segmentChains)
+                .where(0, 1)
+                .equalTo(0, 1)
+                .with(new JoinFunction<Tuple3<Integer, Long, BaseSegment>, Tuple4<Integer, Long, Long, Long[]>, Tuple4<Integer, Long, Long[], BaseSegment>>() {
+                    @Override
+                    public Tuple4<Integer, Long, Long[], BaseSegment> join(Tuple3<Integer, Long, BaseSegment> first, Tuple4<Integer, Long, Long, Long[]> second) throws Exception {
+
+                        if (second == null)
+                            return new Tuple4<>(first.f0, first.f1, new Long[0], first.f2);
+                        else
+                            return new Tuple4<>(first.f0, second.f2, second.f3, first.f2);
+                    }
+                });
+
+        DataSet<BaseSegment> unchainedSegments = chainedSegments.flatMap(new FlatMapFunction<Tuple4<Integer, Long, Long[], BaseSegment>, BaseSegment>() {
+            @Override
+            public void flatMap(Tuple4<Integer, Long, Long[], BaseSegment> value, Collector<BaseSegment> out) throws Exception {
+
+                if (value.f2.length == 0)
+                    out.collect(value.f3);
+            }
+        });
+
+        DataSet<BaseSegment> mergedSegments = chainedSegments.filter(new FilterFunction<Tuple4<Integer, Long, Long[], BaseSegment>>() {
+            @Override
+            public boolean filter(Tuple4<Integer, Long, Long[], BaseSegment> value) throws Exception {
+                return value.f2.length > 0;
+            }
+        }).groupBy(0, 1).reduceGroup(new ChainAssembler());
+
+        return unchainedSegments.union(mergedSegments);
+    }
+
+    // replace the sections of the merged segments, holding their end nodes only, by the full way sections
+    private DataSet<BaseSegment> assembleSegments(DataSet<BaseSegment> mergedSegments, DataSet<Tuple2<Integer, WaySection>> waySections) {
+
+        // level, way_id, lowest node index of the section, segment_id, position in the segment, reversed
+        DataSet<Tuple6<Integer, Long, Integer, Long, Integer, Boolean>> sectionPositions = mergedSegments.flatMap(new FlatMapFunction<BaseSegment, Tuple6<Integer, Long, Integer, Long, Integer, Boolean>>() {
+            @Override
+            public void flatMap(BaseSegment value, Collector<Tuple6<Integer, Long, Integer, Long, Integer, Boolean>> out) throws Exception {
+
+                for (int i = 0; i < value.waySections.length; i++) {
+                    WaySection section = value.waySections[i];
+                    out.collect(new Tuple6<>(value.level, section.wayId, Math.min(section.firstNodeIndex, section.lastNodeIndex), value.id, i, section.isReversed()));
+                }
+            }
+        });
+
+        // level, way_id, first node index, section
+        DataSet<Tuple4<Integer, Long, Integer, WaySection>> mappedSections = waySections.map(new MapFunction<Tuple2<Integer, WaySection>, Tuple4<Integer, Long, Integer, WaySection>>() {
+            @Override
+            public Tuple4<Integer, Long, Integer, WaySection> map(Tuple2<Integer, WaySection> value) throws Exception {
+                return new Tuple4<>(value.f0, value.f1.wayId, value.f1.firstNodeIndex, value.f1);
+            }
+        });
+
+        // level, segment_id, position in the segment, section in the direction of the segment
+        DataSet<Tuple4<Integer, Long, Integer, WaySection>> positionedSections = sectionPositions
+                .join(mappedSections)
+                .where(0, 1, 2)
+                .equalTo(0, 1, 2)
+                .with(new JoinFunction<Tuple6<Integer, Long, Integer, Long, Integer, Boolean>, Tuple4<Integer, Long, Integer, WaySection>, Tuple4<Integer, Long, Integer, WaySection>>() {
+                    @Override
+                    public Tuple4<Integer, Long, Integer, WaySection> join(Tuple6<Integer, Long, Integer, Long, Integer, Boolean> first, Tuple4<Integer, Long, Integer, WaySection> second) throws Exception {
+
+                        if (first.f5)
+                            second.f3.reverse();
+
+                        return new Tuple4<>(first.f0, first.f3, first.f4, second.f3);
+                    }
+                });
+
+        return positionedSections
+                .groupBy(0, 1)
+                .sortGroup(2, Order.ASCENDING)
+                .reduceGroup(new GroupReduceFunction<Tuple4<Integer, Long, Integer, WaySection>, BaseSegment>() {
+                    @Override
+                    public void reduce(Iterable<Tuple4<Integer, Long, Integer, WaySection>> values, Collector<BaseSegment> out) throws Exception {
+
+                        ArrayList<WaySection> sections = new ArrayList<>();
+                        BaseSegment segment = new BaseSegment();
+
+                        for (Tuple4<Integer, Long, Integer, WaySection> value : values) {
+                            segment.level = value.f0;
+                            segment.id = value.f1;
+                            sections.add(value.f3);
+                        }
+
+                        // merged sections share their flags
+                        segment.waySections = sections.toArray(new WaySection[sections.size()]);
+                        segment.oneWay = segment.waySections[0].oneWay;
+                        segment.link = segment.waySections[0].link;
+                        segment.roundabout = segment.waySections[0].roundabout;
+
+                        out.collect(segment);
+                    }
+                });
+    }
+
+    // discards the bytes written, counting them
+    static class ByteCounter extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    // index segments by common start/end nodes -- every segment gets mapped twice, once each for start and end nodes
+    // Tuple5(intersectionId, segmentId, merging, segment, level)
+    static class SegmentEndpoints implements FlatMapFunction<BaseSegment, Tuple5<Long, Long, Boolean, BaseSegment, Integer>> {
+
+        @Override
+        public void flatMap(BaseSegment value, Collector<Tuple5<Long, Long, Boolean, BaseSegment, Integer>> out) throws Exception {
+
+            Tuple5<Long, Long, Boolean, BaseSegment, Integer> firstNode = new Tuple5<Long, Long, Boolean, BaseSegment, Integer>();
+            firstNode.f0 = value.getFirstNode();
+            firstNode.f1 = value.id;
+            firstNode.f2 = false;
+            firstNode.f3 = value;
+            firstNode.f4 = value.level;
+
+            out.collect(firstNode);
+
+            Tuple5<Long, Long, Boolean, BaseSegment, Integer> lastNode = new Tuple5<Long, Long, Boolean, BaseSegment, Integer>();
+            lastNode.f0 = value.getLastNode();
+            lastNode.f1 = value.id;
+            lastNode.f2 = false;
+            lastNode.f3 = value;
+            lastNode.f4 = value.level;
+
+            out.collect(lastNode);
+        }
+    }
+
+    /**
+     * Label each segment of the merge edges with its chain, the lowest segment id of its connected component.
+     *
+     * Each superstep hooks the labels across the edges and jumps each label to the label of its label, so the
+     * supersteps grow with the log of the chain length. No level is held on a single task.
+     *
+     * @param mergeEdges level, merging node_id, segment_id, segment_id
+     * @return level, segment_id, chain_id, merging node_ids of the segment
+     */
+    static DataSet<Tuple4<Integer, Long, Long, Long[]>> segmentChains(DataSet<Tuple4<Integer, Long, Long, Long>> mergeEdges) {
+
+        // level, segment_id, neighbour segment_id -- each edge in both directions
+        DataSet<Tuple3<Integer, Long, Long>> neighbours = mergeEdges.flatMap(new FlatMapFunction<Tuple4<Integer, Long, Long, Long>, Tuple3<Integer, Long, Long>>() {
+            @Override
+            public void flatMap(Tuple4<Integer, Long, Long, Long> value, Collector<Tuple3<Integer, Long, Long>> out) throws Exception {
+                out.collect(new Tuple3<>(value.f0, value.f2, value.f3));
+                out.collect(new Tuple3<>(value.f0, value.f3, value.f2));
+            }
+        });
+
+        // level, segment_id, chain_id -- each segment starts as its own chain
+        DataSet<Tuple3<Integer, Long, Long>> initialChains = neighbours.map(new MapFunction<Tuple3<Integer, Long, Long>, Tuple3<Integer, Long, Long>>() {
+            @Override
+            public Tuple3<Integer, Long, Long> map(Tuple3<Integer, Long, Long> value) throws Exception {
+                return new Tuple3<>(value.f0, value.f1, value.f1);
+            }
+        }).distinct(0, 1);
+
+        IterativeDataSet<Tuple3<Integer, Long, Long>> iterateChains = initialChains.iterate(MAX_CHAIN_ITERATIONS);
+
+        // level, segment_id, chain_id of its chain_id -- labels are segment ids of the same chain
+        DataSet<Tuple3<Integer, Long, Long>> jumpedChains = iterateChains
+                .join(iterateChains)
+                .where(0, 2)
+                .equalTo(0, 1)
+                .with(new JoinFunction<Tuple3<Integer, Long, Long>, Tuple3<Integer, Long, Long>, Tuple3<Integer, Long, Long>>() {
+                    @Override
+                    public Tuple3<Integer, Long, Long> join(Tuple3<Integer, Long, Long> first, Tuple3<Integer, Long, Long> second) throws Exception {
+                        return new Tuple3<>(first.f0, first.f1, second.f2);
+                    }
+                });
+
+        // level, segment_id or its chain_id, lower chain_id of a neighbour -- both the segment and its label take it
+        DataSet<Tuple3<Integer, Long, Long>> hookedChains = neighbours
+                .join(iterateChains)
+                .where(0, 1)
+                .equalTo(0, 1)
+                .with(new JoinFunction<Tuple3<Integer, Long, Long>, Tuple3<Integer, Long, Long>, Tuple4<Integer, Long, Long, Long>>() {
+                    @Override
+                    public Tuple4<Integer, Long, Long, Long> join(Tuple3<Integer, Long, Long> first, Tuple3<Integer, Long, Long> second) throws Exception {
+                        // level, segment_id, neighbour segment_id, chain_id
+                        return new Tuple4<>(first.f0, first.f1, first.f2, second.f2);
+                    }
+                })
+                .join(iterateChains)
+                .where(0, 2)
+                .equalTo(0, 1)
+                .with(new FlatJoinFunction<Tuple4<Integer, Long, Long, Long>, Tuple3<Integer, Long, Long>, Tuple3<Integer, Long, Long>>() {
+                    @Override
+                    public void join(Tuple4<Integer, Long, Long, Long> first, Tuple3<Integer, Long, Long> second, Collector<Tuple3<Integer, Long, Long>> out) throws Exception {
+                        if (second.f2 < first.f3) {
+                            out.collect(new Tuple3<>(first.f0, first.f1, second.f2));
+                            out.collect(new Tuple3<>(first.f0, first.f3, second.f2));
+                        }
+                    }
+                });
+
+        DataSet<Tuple3<Integer, Long, Long>> nextChains = iterateChains
+                .union(jumpedChains)
+                .union(hookedChains)
+                .groupBy(0, 1)
+                .min(2);
+
+        // labels only decrease, the iteration ends once none changes
+        DataSet<Tuple3<Integer, Long, Long>> changedChains = nextChains
+                .join(iterateChains)
+                .where(0, 1)
+                .equalTo(0, 1)
+                .with(new RichFlatJoinFunction<Tuple3<Integer, Long, Long>, Tuple3<Integer, Long, Long>, Tuple3<Integer, Long, Long>>() {
+
+                    private final MergeReport.SuperstepCounter changes = new MergeReport.SuperstepCounter(MergeReport.CHAIN_LABELS);
+
+                    @Override
+                    public void open(Configuration parameters) throws Exception {
+                        changes.open(getIterationRuntimeContext());
+                    }
+
+                    @Override
+                    public void join(Tuple3<Integer, Long, Long> first, Tuple3<Integer, Long, Long> second, Collector<Tuple3<Integer, Long, Long>> out) throws Exception {
+                        if (first.f2 < second.f2) {
+                            changes.add(1);
+                            out.collect(first);
+                        }
+                    }
+
+                    @Override
+                    public void close() throws Exception {
+                        changes.close();
+                    }
+                });
+
+        DataSet<Tuple3<Integer, Long, Long>> chains = iterateChains.closeWith(nextChains, changedChains);
+
+        // level, segment_id, merging node_ids
+        DataSet<Tuple3<Integer, Long, Long[]>> mergingNodes = mergeEdges.flatMap(new FlatMapFunction<Tuple4<Integer, Long, Long, Long>, Tuple3<Integer, Long, Long>>() {
+            @Override
+            public void flatMap(Tuple4<Integer, Long, Long, Long> value, Collector<Tuple3<Integer, Long, Long>> out) throws Exception {
+                out.collect(new Tuple3<>(value.f0, value.f2, value.f1));
+                out.collect(new Tuple3<>(value.f0, value.f3, value.f1));
+            }
+        }).groupBy(0, 1).reduceGroup(new GroupReduceFunction<Tuple3<Integer, Long, Long>, Tuple3<Integer, Long, Long[]>>() {
+            @Override
+            public void reduce(Iterable<Tuple3<Integer, Long, Long>> values, Collector<Tuple3<Integer, Long, Long[]>> out) throws Exception {
+
+                Tuple3<Integer, Long, Long> segment = null;
+                ArrayList<Long> nodes = new ArrayList<>(2);
+                for (Tuple3<Integer, Long, Long> value : values) {
+                    segment = value;
+                    nodes.add(value.f2);
+                }
+
+                out.collect(new Tuple3<>(segment.f0, segment.f1, nodes.toArray(new Long[nodes.size()])));
+            }
+        });
+
+        return chains
+                .join(mergingNodes)
+                .where(0, 1)
+                .equalTo(0, 1)
+                .with(new JoinFunction<Tuple3<Integer, Long, Long>, Tuple3<Integer, Long, Long[]>, Tuple4<Integer, Long, Long, Long[]>>() {
+                    @Override
+                    public Tuple4<Integer, Long, Long, Long[]> join(Tuple3<Integer, Long, Long> first, Tuple3<Integer, Long, Long[]> second) throws Exception {
+                        return new Tuple4<>(first.f0, first.f1, first.f2, second.f2);
+                    }
+                });
+    }
+
+    /**
+     * Assemble the sections of a chain in order, starting from an end section and crossing each merging node once.
+     *
+     * Sections are kept in their direction when possible, a closed chain starts from its lowest segment id.
+     */
+    static class ChainAssembler implements GroupReduceFunction<Tuple4<Integer, Long, Long[], BaseSegment>, BaseSegment> {
+
+        @Override
+        public void reduce(Iterable<Tuple4<Integer, Long, Long[], BaseSegment>> values, Collector<BaseSegment> out) throws Exception {
+
+            // segments by merging node, two per node
+            HashMap<Long, ArrayList<BaseSegment>> segmentsByNode = new HashMap<>();
+            HashMap<Long, Long[]> mergingNodes = new HashMap<>();
+
+            BaseSegment start = null;
+            boolean reverseStart = false;
+
+            // merged segments keep the lowest id of their sections, as BaseSegment.merge
+            long chainId = Long.MAX_VALUE;
+
+            for (Tuple4<Integer, Long, Long[], BaseSegment> value : values) {
+
+                BaseSegment segment = value.f3;
+                mergingNodes.put(segment.id, value.f2);
+                chainId = Math.min(chainId, segment.id);
+
+                for (Long node : value.f2) {
+                    ArrayList<BaseSegment> segments = segmentsByNode.get(node);
+                    if (segments == null) {
+                        segments = new ArrayList<>(2);
+                        segmentsByNode.put(node, segments);
+                    }
+                    segments.add(segment);
+                }
+
+                // end section of an open chain, preferably one going away from the chain
+                if (value.f2.length == 1) {
+                    boolean reverse = segment.getFirstNode().equals(value.f2[0]);
+                    if (start == null || (reverseStart && !reverse)) {
+                        start = segment;
+                        reverseStart = reverse;
+                    }
+                }
+            }
+
+            // closed chain
+            if (start == null) {
+                for (ArrayList<BaseSegment> segments : segmentsByNode.values()) {
+                    for (BaseSegment segment : segments) {
+                        if (start == null || segment.id < start.id)
+                            start = segment;
+                    }
+                }
+            }
+
+            if (reverseStart)
+                start.reverse();
+
+            ArrayList<WaySection> sections = new ArrayList<>();
+            sections.addAll(Arrays.asList(start.waySections));
+
+            BaseSegment current = start;
+            Long node = start.getLastNode();
+
+            while (Arrays.asList(mergingNodes.get(current.id)).contains(node)) {
+
+                BaseSegment next = null;
+                for (BaseSegment segment : segmentsByNode.get(node)) {
+                    if (segment != current)
+                        next = segment;
+                }
+
+                if (next == null || next == start)
+                    break;
+
+                if (!next.getFirstNode().equals(node))
+                    next.reverse();
+
+                sections.addAll(Arrays.asList(next.waySections));
+
+                current = next;
+                node = next.getLastNode();
+            }
 
+            start.waySections = sections.toArray(new WaySection[sections.size()]);
+            start.id = chainId;
 
+            out.collect(start);
+        }
     }
 
 }
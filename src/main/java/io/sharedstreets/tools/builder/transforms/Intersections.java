@@ -8,22 +8,23 @@ import org.apache.flink.api.common.functions.FilterFunction;
 import org.apache.flink.api.common.functions.GroupReduceFunction;
 import org.apache.flink.api.java.DataSet;
 import org.apache.flink.api.java.functions.KeySelector;
-import org.apache.flink.api.java.tuple.Tuple4;
+import org.apache.flink.api.java.tuple.Tuple5;
 import org.apache.flink.util.Collector;
 
 
 public class Intersections {
 
     class IntersectionReducer
-            implements GroupReduceFunction<Tuple4<Long, Long, Integer, Boolean>, WayIntersection> {
+            implements GroupReduceFunction<Tuple5<Long, Long, Integer, Boolean, Integer>, WayIntersection> {
 
         @Override
-        public void reduce(Iterable<Tuple4<Long, Long, Integer, Boolean>> in, Collector<WayIntersection> out) {
+        public void reduce(Iterable<Tuple5<Long, Long, Integer, Boolean, Integer>> in, Collector<WayIntersection> out) {
 
             WayIntersection intersection = new WayIntersection();
 
-            for (Tuple4<Long, Long, Integer, Boolean> n : in) {
+            for (Tuple5<Long, Long, Integer, Boolean, Integer> n : in) {
                 intersection.addWay(n.f0, n.f1, n.f3);
+                intersection.level = n.f4;
             }
 
             if(intersection.isIntersection())
@@ -36,11 +37,11 @@ public class Intersections {
 
     public Intersections(OSMDataStream.FilteredWays filteredWays) {
 
-        // group by node_id reduce nodes to intersections with > 1 ways
+        // group by level and node_id reduce nodes to intersections with > 1 ways
         // using intersections with way count > 1 to merge ways into OSMLR segments
         // using intersections with way count > 2 to split ways
 
-        intersections = filteredWays.orderedWayNodeLink.groupBy(1).reduceGroup(new IntersectionReducer());
+        intersections = filteredWays.orderedWayNodeLink.groupBy(4, 1).reduceGroup(new IntersectionReducer());
     }
 
     public DataSet<WayIntersection> splittingIntersections(){
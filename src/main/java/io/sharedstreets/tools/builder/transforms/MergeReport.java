@@ -0,0 +1,332 @@
+package io.sharedstreets.tools.builder.transforms;
+
+import com.jsoniter.output.JsonStream;
+import org.apache.flink.api.common.JobExecutionResult;
+import org.apache.flink.api.common.accumulators.Accumulator;
+import org.apache.flink.api.common.functions.IterationRuntimeContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Statistics of the segment merge iteration, or of the chain labelling of the chains strategy, per superstep.
+ *
+ * Functions of the iteration count their records with a SuperstepCounter, the counts are collected as job
+ * accumulators keyed by superstep and read back from the job result.
+ */
+public class MergeReport {
+
+    static Logger LOG = LoggerFactory.getLogger(MergeReport.class);
+
+    // segments entering the superstep and their serialized size, only measured when a report file is written
+    static final String WORKSET_SEGMENTS = "merge-workset-segments";
+    static final String WORKSET_BYTES = "merge-workset-bytes";
+    // pairs of segments merged
+    static final String MERGES = "merge-merges";
+    // mergeable segments left for the next superstep
+    static final String PENDING = "merge-pending";
+    // merged segments closing on themselves
+    static final String LOOPS = "merge-loops";
+    // segments without merging intersection, finalized
+    static final String NON_MERGING = "merge-non-merging";
+    // segments given a lower chain label, chains strategy
+    static final String CHAIN_LABELS = "merge-chain-labels";
+
+    static final String START_TIME = "merge-start-time";
+    static final String END_TIME = "merge-end-time";
+
+    private static final String[] COUNTS = {WORKSET_SEGMENTS, WORKSET_BYTES, MERGES, PENDING, LOOPS, NON_MERGING, CHAIN_LABELS};
+
+    public static class Superstep {
+        public int superstep;
+        public long worksetSegments;
+        public long worksetBytes;
+        public long merges;
+        public long pending;
+        public long loops;
+        public long nonMerging;
+        public long chainLabels;
+        public long elapsedMillis;
+    }
+
+    public BaseSegments.MergeStrategy mergeStrategy = BaseSegments.MergeStrategy.ITERATIVE;
+
+    public int maxIterations = BaseSegments.MAX_ITERATIONS;
+
+    public int supersteps;
+
+    // the last superstep still had segments to merge, or chain labels changing
+    public boolean capReached;
+
+    public Superstep[] rounds;
+
+    @SuppressWarnings("unchecked")
+    public static MergeReport fromResult(JobExecutionResult result, BaseSegments.MergeStrategy mergeStrategy) {
+
+        TreeMap<Integer, Superstep> rounds = new TreeMap<>();
+
+        for (String name : COUNTS) {
+
+            Map<Integer, Long> values = (Map<Integer, Long>) result.getAccumulatorResult(name);
+            if (values == null)
+                continue;
+
+            for (Map.Entry<Integer, Long> value : values.entrySet()) {
+
+                Superstep round = rounds.get(value.getKey());
+                if (round == null) {
+                    round = new Superstep();
+                    round.superstep = value.getKey();
+                    rounds.put(value.getKey(), round);
+                }
+
+                long count = value.getValue();
+                switch (name) {
+                    case WORKSET_SEGMENTS: round.worksetSegments = count; break;
+                    case WORKSET_BYTES: round.worksetBytes = count; break;
+                    case MERGES: round.merges = count; break;
+                    case PENDING: round.pending = count; break;
+                    case LOOPS: round.loops = count; break;
+                    case NON_MERGING: round.nonMerging = count; break;
+                    case CHAIN_LABELS: round.chainLabels = count; break;
+                }
+            }
+        }
+
+        Map<Integer, Long> startTimes = (Map<Integer, Long>) result.getAccumulatorResult(START_TIME);
+        Map<Integer, Long> endTimes = (Map<Integer, Long>) result.getAccumulatorResult(END_TIME);
+
+        if (startTimes != null && endTimes != null) {
+            for (Superstep round : rounds.values()) {
+                if (startTimes.containsKey(round.superstep) && endTimes.containsKey(round.superstep))
+                    round.elapsedMillis = endTimes.get(round.superstep) - startTimes.get(round.superstep);
+            }
+        }
+
+        MergeReport report = new MergeReport();
+        report.mergeStrategy = mergeStrategy;
+        report.maxIterations = mergeStrategy == BaseSegments.MergeStrategy.CHAINS ? BaseSegments.MAX_CHAIN_ITERATIONS : BaseSegments.MAX_ITERATIONS;
+        report.rounds = rounds.values().toArray(new Superstep[rounds.size()]);
+        report.supersteps = rounds.isEmpty() ? 0 : rounds.lastKey();
+
+        if (report.supersteps >= report.maxIterations) {
+            Superstep last = rounds.lastEntry().getValue();
+            report.capReached = last.merges + last.pending + last.chainLabels > 0;
+        }
+
+        return report;
+    }
+
+    public void log() {
+
+        if (supersteps == 0)
+            return;
+
+        if (mergeStrategy == BaseSegments.MergeStrategy.CHAINS) {
+
+            long labels = 0;
+            for (Superstep round : rounds)
+                labels += round.chainLabels;
+
+            LOG.info("Chain labelling ran {} supersteps, {} label changes", supersteps, labels);
+
+            if (capReached)
+                LOG.warn("Chain labelling stopped at the limit of {} supersteps with {} labels still changing, the chains are incomplete",
+                        maxIterations, rounds[rounds.length - 1].chainLabels);
+
+            return;
+        }
+
+        long merges = 0;
+        for (Superstep round : rounds)
+            merges += round.merges;
+
+        LOG.info("Segment merge ran {} supersteps, {} merges", supersteps, merges);
+
+        if (capReached) {
+            Superstep last = rounds[rounds.length - 1];
+            LOG.warn("Segment merge stopped at the limit of {} supersteps with {} segments left to merge, they are output unmerged",
+                    maxIterations, last.merges + last.pending);
+        }
+    }
+
+    public void write(String path) throws IOException {
+
+        try (OutputStream out = new FileOutputStream(path)) {
+
+            JsonStream stream = new JsonStream(out, 4096);
+
+            stream.writeObjectStart();
+
+            stream.writeObjectField("mergeStrategy");
+            stream.writeVal(mergeStrategy.name().toLowerCase());
+            stream.writeMore();
+
+            stream.writeObjectField("maxIterations");
+            stream.writeVal(maxIterations);
+            stream.writeMore();
+
+            stream.writeObjectField("supersteps");
+            stream.writeVal(supersteps);
+            stream.writeMore();
+
+            stream.writeObjectField("capReached");
+            stream.writeVal(capReached);
+            stream.writeMore();
+
+            stream.writeObjectField("rounds");
+            stream.writeArrayStart();
+            for (int i = 0; i < rounds.length; i++) {
+                Superstep round = rounds[i];
+
+                stream.writeObjectStart();
+                writeField(stream, "superstep", round.superstep, true);
+                writeField(stream, "worksetSegments", round.worksetSegments, true);
+                writeField(stream, "worksetBytes", round.worksetBytes, true);
+                writeField(stream, "merges", round.merges, true);
+                writeField(stream, "pending", round.pending, true);
+                writeField(stream, "loops", round.loops, true);
+                writeField(stream, "nonMerging", round.nonMerging, true);
+                writeField(stream, "chainLabels", round.chainLabels, true);
+                writeField(stream, "elapsedMillis", round.elapsedMillis, false);
+                stream.writeObjectEnd();
+
+                if (i < rounds.length - 1)
+                    stream.writeMore();
+            }
+            stream.writeArrayEnd();
+
+            stream.writeObjectEnd();
+            stream.flush();
+        }
+    }
+
+    private static void writeField(JsonStream stream, String name, long value, boolean more) throws IOException {
+
+        stream.writeObjectField(name);
+        stream.writeVal(value);
+        if (more)
+            stream.writeMore();
+    }
+
+    /**
+     * Values of a superstep, summed or keeping the minimum or maximum across tasks.
+     */
+    static class SuperstepAccumulator implements Accumulator<SuperstepAccumulator.Value, TreeMap<Integer, Long>> {
+
+        enum Mode { SUM, MIN, MAX }
+
+        static class Value {
+            int superstep;
+            long value;
+
+            Value(int superstep, long value) {
+                this.superstep = superstep;
+                this.value = value;
+            }
+        }
+
+        private final Mode mode;
+
+        private TreeMap<Integer, Long> values = new TreeMap<>();
+
+        SuperstepAccumulator(Mode mode) {
+            this.mode = mode;
+        }
+
+        private void add(int superstep, long value) {
+
+            Long current = values.get(superstep);
+            if (current == null)
+                values.put(superstep, value);
+            else if (mode == Mode.SUM)
+                values.put(superstep, current + value);
+            else if (mode == Mode.MIN)
+                values.put(superstep, Math.min(current, value));
+            else
+                values.put(superstep, Math.max(current, value));
+        }
+
+        @Override
+        public void add(Value value) {
+            add(value.superstep, value.value);
+        }
+
+        @Override
+        public TreeMap<Integer, Long> getLocalValue() {
+            return values;
+        }
+
+        @Override
+        public void resetLocal() {
+            values.clear();
+        }
+
+        @Override
+        public void merge(Accumulator<Value, TreeMap<Integer, Long>> other) {
+            for (Map.Entry<Integer, Long> value : other.getLocalValue().entrySet())
+                add(value.getKey(), value.getValue());
+        }
+
+        @Override
+        public Accumulator<Value, TreeMap<Integer, Long>> clone() {
+            SuperstepAccumulator clone = new SuperstepAccumulator(mode);
+            clone.values = new TreeMap<>(values);
+            return clone;
+        }
+    }
+
+    /**
+     * Count of a function in the current superstep, opened and closed with the function. The span of the superstep
+     * is recorded along.
+     */
+    static class SuperstepCounter implements Serializable {
+
+        private final String name;
+
+        private transient IterationRuntimeContext context;
+        private transient long count;
+        private transient long startTime;
+
+        SuperstepCounter(String name) {
+            this.name = name;
+        }
+
+        void open(IterationRuntimeContext context) {
+            this.context = context;
+            this.count = 0;
+            this.startTime = System.currentTimeMillis();
+        }
+
+        void add(long count) {
+            this.count += count;
+        }
+
+        void close() {
+
+            int superstep = context.getSuperstepNumber();
+
+            accumulator(name, SuperstepAccumulator.Mode.SUM).add(new SuperstepAccumulator.Value(superstep, count));
+            accumulator(START_TIME, SuperstepAccumulator.Mode.MIN).add(new SuperstepAccumulator.Value(superstep, startTime));
+            accumulator(END_TIME, SuperstepAccumulator.Mode.MAX).add(new SuperstepAccumulator.Value(superstep, System.currentTimeMillis()));
+        }
+
+        // accumulators are kept by the task from one superstep to the next
+        private Accumulator<SuperstepAccumulator.Value, TreeMap<Integer, Long>> accumulator(String name, SuperstepAccumulator.Mode mode) {
+
+            Accumulator<SuperstepAccumulator.Value, TreeMap<Integer, Long>> accumulator = context.getAccumulator(name);
+            if (accumulator == null) {
+                accumulator = new SuperstepAccumulator(mode);
+                context.addAccumulator(name, accumulator);
+            }
+            return accumulator;
+        }
+    }
+
+}
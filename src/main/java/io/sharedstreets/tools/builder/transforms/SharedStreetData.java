@@ -24,60 +24,66 @@ import java.util.Set;
 
 public class SharedStreetData implements Serializable {
 
-    public DataSet<SharedStreetsReference> references;
-    public DataSet<SharedStreetsIntersection> intersections;
-    public DataSet<SharedStreetsGeometry> geometries;
+    // level, data of the level
+    public DataSet<Tuple2<Integer, SharedStreetsReference>> references;
+    public DataSet<Tuple2<Integer, SharedStreetsIntersection>> intersections;
+    public DataSet<Tuple2<Integer, SharedStreetsGeometry>> geometries;
 
     public SharedStreetData(BaseSegments baseSgments) {
 
 
         // Build SharedStreetData references from segments
 
-        references = baseSgments.segments.flatMap(new FlatMapFunction<BaseSegment, SharedStreetsReference>() {
+        references = baseSgments.segments.flatMap(new FlatMapFunction<BaseSegment, Tuple2<Integer, SharedStreetsReference>>() {
             @Override
-            public void flatMap(BaseSegment value, Collector<SharedStreetsReference> out) throws Exception {
+            public void flatMap(BaseSegment value, Collector<Tuple2<Integer, SharedStreetsReference>> out) throws Exception {
                 List<SharedStreetsReference> references = SharedStreetsReference.getSharedStreetsReferences(value);
 
                 for (SharedStreetsReference reference : references) {
-                    out.collect(reference);
+                    out.collect(new Tuple2<>(value.level, reference));
                 }
             }
         });
 
         // map references by intersection ids
 
-        DataSet<Tuple2<SharedStreetsIntersection, SharedStreetsReference>> referencesByIntersection = references.flatMap(new FlatMapFunction<SharedStreetsReference, Tuple2<SharedStreetsIntersection, SharedStreetsReference>>() {
+        DataSet<Tuple3<SharedStreetsIntersection, SharedStreetsReference, Integer>> referencesByIntersection = references.flatMap(new FlatMapFunction<Tuple2<Integer, SharedStreetsReference>, Tuple3<SharedStreetsIntersection, SharedStreetsReference, Integer>>() {
             @Override
-            public void flatMap(SharedStreetsReference value, Collector<Tuple2<SharedStreetsIntersection, SharedStreetsReference>> out) throws Exception {
+            public void flatMap(Tuple2<Integer, SharedStreetsReference> value, Collector<Tuple3<SharedStreetsIntersection, SharedStreetsReference, Integer>> out) throws Exception {
 
-                Tuple2<SharedStreetsIntersection, SharedStreetsReference> startIntersection = new Tuple2<SharedStreetsIntersection, SharedStreetsReference>(value.locationReferences[0].intersection, value);
+                SharedStreetsReference reference = value.f1;
+
+                Tuple3<SharedStreetsIntersection, SharedStreetsReference, Integer> startIntersection = new Tuple3<SharedStreetsIntersection, SharedStreetsReference, Integer>(reference.locationReferences[0].intersection, reference, value.f0);
                 out.collect(startIntersection);
 
-                Tuple2<SharedStreetsIntersection, SharedStreetsReference> endIntersection = new Tuple2<SharedStreetsIntersection, SharedStreetsReference>(value.locationReferences[value.locationReferences.length-1].intersection, value);
+                Tuple3<SharedStreetsIntersection, SharedStreetsReference, Integer> endIntersection = new Tuple3<SharedStreetsIntersection, SharedStreetsReference, Integer>(reference.locationReferences[reference.locationReferences.length-1].intersection, reference, value.f0);
                 out.collect(endIntersection);
 
             }
         });
 
-        // merge intersection references
+        // merge intersection references of each level
 
-        intersections = referencesByIntersection.groupBy(new KeySelector<Tuple2<SharedStreetsIntersection,SharedStreetsReference>, UniqueId>() {
+        intersections = referencesByIntersection.groupBy(new KeySelector<Tuple3<SharedStreetsIntersection, SharedStreetsReference, Integer>, Tuple2<Integer, UniqueId>>() {
             @Override
-            public UniqueId getKey(Tuple2<SharedStreetsIntersection, SharedStreetsReference> value) throws Exception {
-                return value.f0.id;
+            public Tuple2<Integer, UniqueId> getKey(Tuple3<SharedStreetsIntersection, SharedStreetsReference, Integer> value) throws Exception {
+                return new Tuple2<>(value.f2, value.f0.id);
             }
-        }).reduceGroup(new GroupReduceFunction<Tuple2<SharedStreetsIntersection, SharedStreetsReference>, SharedStreetsIntersection>() {
+        }).reduceGroup(new GroupReduceFunction<Tuple3<SharedStreetsIntersection, SharedStreetsReference, Integer>, Tuple2<Integer, SharedStreetsIntersection>>() {
             @Override
-            public void reduce(Iterable<Tuple2<SharedStreetsIntersection, SharedStreetsReference>> values, Collector<SharedStreetsIntersection> out) throws Exception {
+            public void reduce(Iterable<Tuple3<SharedStreetsIntersection, SharedStreetsReference, Integer>> values, Collector<Tuple2<Integer, SharedStreetsIntersection>> out) throws Exception {
                 SharedStreetsIntersection mergedIntersection = null;
+                int level = -1;
 
                 ArrayList<UniqueId> outboundReferences = new ArrayList<>();
                 ArrayList<UniqueId> inboundReferences = new ArrayList<>();
 
-                for(Tuple2<SharedStreetsIntersection, SharedStreetsReference> item : values) {
+                for(Tuple3<SharedStreetsIntersection, SharedStreetsReference, Integer> item : values) {
 
-                    if(mergedIntersection == null)
+                    if(mergedIntersection == null) {
                         mergedIntersection = item.f0;
+                        level = item.f2;
+                    }
 
 
 
@@ -90,26 +96,26 @@ public class SharedStreetData implements Serializable {
                 mergedIntersection.outboundSegmentIds = outboundReferences.toArray(new UniqueId[outboundReferences.size()]);
                 mergedIntersection.inboundSegmentIds = inboundReferences.toArray(new UniqueId[inboundReferences.size()]);
 
-                out.collect(mergedIntersection);
+                out.collect(new Tuple2<>(level, mergedIntersection));
             }
         });
 
 
-        // get distinct geometries from reference
+        // get distinct geometries of each level from reference
 
-        DataSet<Tuple2<UniqueId, SharedStreetsGeometry>> unfilteredGeometries = references
-                .map(new MapFunction<SharedStreetsReference, Tuple2<UniqueId, SharedStreetsGeometry>>() {
+        DataSet<Tuple3<UniqueId, SharedStreetsGeometry, Integer>> unfilteredGeometries = references
+                .map(new MapFunction<Tuple2<Integer, SharedStreetsReference>, Tuple3<UniqueId, SharedStreetsGeometry, Integer>>() {
             @Override
-            public Tuple2<UniqueId, SharedStreetsGeometry> map(SharedStreetsReference value) throws Exception {
-                return new Tuple2<UniqueId, SharedStreetsGeometry>(value.geometry.id, value.geometry);
+            public Tuple3<UniqueId, SharedStreetsGeometry, Integer> map(Tuple2<Integer, SharedStreetsReference> value) throws Exception {
+                return new Tuple3<UniqueId, SharedStreetsGeometry, Integer>(value.f1.geometry.id, value.f1.geometry, value.f0);
             }
         });
 
-        geometries = unfilteredGeometries.groupBy(0).reduceGroup(new GroupReduceFunction<Tuple2<UniqueId, SharedStreetsGeometry>, SharedStreetsGeometry>() {
+        geometries = unfilteredGeometries.groupBy(2, 0).reduceGroup(new GroupReduceFunction<Tuple3<UniqueId, SharedStreetsGeometry, Integer>, Tuple2<Integer, SharedStreetsGeometry>>() {
             @Override
-            public void reduce(Iterable<Tuple2<UniqueId, SharedStreetsGeometry>> values, Collector<SharedStreetsGeometry> out) throws Exception {
-                for(Tuple2<UniqueId, SharedStreetsGeometry> value : values){
-                    out.collect(value.f1);
+            public void reduce(Iterable<Tuple3<UniqueId, SharedStreetsGeometry, Integer>> values, Collector<Tuple2<Integer, SharedStreetsGeometry>> out) throws Exception {
+                for(Tuple3<UniqueId, SharedStreetsGeometry, Integer> value : values){
+                    out.collect(new Tuple2<>(value.f2, value.f1));
                     break;
                 }
             }
@@ -117,15 +123,15 @@ public class SharedStreetData implements Serializable {
 
     }
 
-    public DataSet<Tuple2<TileId, TilableData>> getTiledGeometries(int zLevel)
+    public DataSet<Tuple3<TileId, TilableData, Integer>> getTiledGeometries(int zLevel)
     {
-        DataSet<Tuple2<TileId, TilableData>> data = this.geometries.flatMap(new FlatMapFunction<SharedStreetsGeometry, Tuple2<TileId, TilableData>>() {
+        DataSet<Tuple3<TileId, TilableData, Integer>> data = this.geometries.flatMap(new FlatMapFunction<Tuple2<Integer, SharedStreetsGeometry>, Tuple3<TileId, TilableData, Integer>>() {
             @Override
-            public void flatMap(SharedStreetsGeometry value, Collector<Tuple2<TileId, TilableData>> out) throws Exception {
-                Set<TileId> tileIds = value.getTileKeys(zLevel);
+            public void flatMap(Tuple2<Integer, SharedStreetsGeometry> value, Collector<Tuple3<TileId, TilableData, Integer>> out) throws Exception {
+                Set<TileId> tileIds = value.f1.getTileKeys(zLevel);
 
                 for(TileId id : tileIds) {
-                    out.collect(new Tuple2<TileId, TilableData>(id, value));
+                    out.collect(new Tuple3<TileId, TilableData, Integer>(id, value.f1, value.f0));
                 }
             }
         });
@@ -133,15 +139,15 @@ public class SharedStreetData implements Serializable {
         return data;
     }
 
-    public DataSet<Tuple2<TileId, TilableData>> getTiledReferences(int zLevel)
+    public DataSet<Tuple3<TileId, TilableData, Integer>> getTiledReferences(int zLevel)
     {
-        DataSet<Tuple2<TileId, TilableData>> data = this.references.flatMap(new FlatMapFunction<SharedStreetsReference, Tuple2<TileId, TilableData>>() {
+        DataSet<Tuple3<TileId, TilableData, Integer>> data = this.references.flatMap(new FlatMapFunction<Tuple2<Integer, SharedStreetsReference>, Tuple3<TileId, TilableData, Integer>>() {
             @Override
-            public void flatMap(SharedStreetsReference value, Collector<Tuple2<TileId, TilableData>> out) throws Exception {
-                Set<TileId> tileIds = value.getTileKeys(zLevel);
+            public void flatMap(Tuple2<Integer, SharedStreetsReference> value, Collector<Tuple3<TileId, TilableData, Integer>> out) throws Exception {
+                Set<TileId> tileIds = value.f1.getTileKeys(zLevel);
                 
                 for(TileId id : tileIds) {
-                    out.collect(new Tuple2<TileId, TilableData>(id, value));
+                    out.collect(new Tuple3<TileId, TilableData, Integer>(id, value.f1, value.f0));
                 }
             }
         });
@@ -149,15 +155,15 @@ public class SharedStreetData implements Serializable {
         return data;
     }
 
-    public DataSet<Tuple2<TileId, TilableData>> getTiledIntersections(int zLevel)
+    public DataSet<Tuple3<TileId, TilableData, Integer>> getTiledIntersections(int zLevel)
     {
-        DataSet<Tuple2<TileId, TilableData>> data = this.intersections.flatMap(new FlatMapFunction<SharedStreetsIntersection, Tuple2<TileId, TilableData>>() {
+        DataSet<Tuple3<TileId, TilableData, Integer>> data = this.intersections.flatMap(new FlatMapFunction<Tuple2<Integer, SharedStreetsIntersection>, Tuple3<TileId, TilableData, Integer>>() {
             @Override
-            public void flatMap(SharedStreetsIntersection value, Collector<Tuple2<TileId, TilableData>> out) throws Exception {
-                Set<TileId> tileIds = value.getTileKeys(zLevel);
+            public void flatMap(Tuple2<Integer, SharedStreetsIntersection> value, Collector<Tuple3<TileId, TilableData, Integer>> out) throws Exception {
+                Set<TileId> tileIds = value.f1.getTileKeys(zLevel);
 
                 for(TileId id : tileIds) {
-                    out.collect(new Tuple2<TileId, TilableData>(id, value));
+                    out.collect(new Tuple3<TileId, TilableData, Integer>(id, value.f1, value.f0));
                 }
             }
         });
@@ -165,13 +171,16 @@ public class SharedStreetData implements Serializable {
         return data;
     }
 
-    public DataSet<Tuple2<TileId, TilableData>> mergedData(int zLevel) {
+    /**
+     * tile, data, level of the data
+     */
+    public DataSet<Tuple3<TileId, TilableData, Integer>> mergedData(int zLevel) {
 
-        DataSet<Tuple2<TileId, TilableData>> intersections = getTiledIntersections(zLevel);
-        DataSet<Tuple2<TileId, TilableData>> geometries = getTiledGeometries(zLevel);
-        DataSet<Tuple2<TileId, TilableData>> references = getTiledReferences(zLevel);
+        DataSet<Tuple3<TileId, TilableData, Integer>> intersections = getTiledIntersections(zLevel);
+        DataSet<Tuple3<TileId, TilableData, Integer>> geometries = getTiledGeometries(zLevel);
+        DataSet<Tuple3<TileId, TilableData, Integer>> references = getTiledReferences(zLevel);
 
-        DataSet<Tuple2<TileId, TilableData>>  mergedData = intersections.union(geometries).union(references);
+        DataSet<Tuple3<TileId, TilableData, Integer>>  mergedData = intersections.union(geometries).union(references);
 
         return mergedData.partitionByHash(0);
     }
@@ -1,9 +1,11 @@
 package io.sharedstreets.tools.builder.util;
 
 
+import io.sharedstreets.tools.builder.serialization.UniqueIdTypeInfo;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.apache.flink.api.common.typeinfo.TypeInfo;
 
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
@@ -11,10 +13,9 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.UUID;
 
+@TypeInfo(UniqueIdTypeInfo.Factory.class)
 public class UniqueId implements Comparable {
 
-    // TODO implement Flink normalized key interfaces
-
     private static int BYTE_SIZE = 16;
 
     private byte[] bytes;
@@ -93,14 +94,19 @@ public class UniqueId implements Comparable {
         if (obj == this)
             return 0;
 
-        byte[] bytesA = this.bytes;
-        byte[] bytesB = ((UniqueId) obj).bytes;
+        return compare(this.bytes, ((UniqueId) obj).bytes);
+    }
+
+    /**
+     * compare ids as unsigned bytes, the order of their Flink normalized keys
+     */
+    public static int compare(byte[] bytesA, byte[] bytesB) {
 
         for(int i = 0; i < BYTE_SIZE; i++){
             if(bytesA[i] == bytesB[i])
                 continue;
             else
-                return bytesA[i] - bytesB[i];
+                return (bytesA[i] & 0xff) - (bytesB[i] & 0xff);
         }
 
         return 0;
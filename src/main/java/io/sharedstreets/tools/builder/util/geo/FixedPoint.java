@@ -0,0 +1,55 @@
+package io.sharedstreets.tools.builder.util.geo;
+
+/**
+ * Fixed point coordinates, int values in units of 1e-7 degree.
+ *
+ * 1e-7 degree is the default PBF granularity, coordinates of such files are kept exactly and convert
+ * back to the same doubles as the PBF decoding. A latitude / longitude pair packs into a single long.
+ */
+public class FixedPoint {
+
+    // nanodegrees per fixed point unit
+    public static final int UNIT = 100;
+
+    // packed location written for the nodes missing from a file, out of the lat / lon range
+    public static final long UNDEFINED = pack(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    /**
+     * @param nanodegrees coordinate in nanodegrees, as decoded from a PBF block
+     * @return the coordinate in fixed point units, rounded to the nearest unit
+     */
+    public static int fromNanodegrees(long nanodegrees) {
+        return (int) Math.floorDiv(nanodegrees + UNIT / 2, UNIT);
+    }
+
+    public static int fromDegrees(double degrees) {
+        return (int) Math.round(degrees * 10000000);
+    }
+
+    public static double toDegrees(int value) {
+        // same computation as the PBF decoding, (granularity * value + offset) * 1e-9
+        return (value * (long) UNIT) * .000000001;
+    }
+
+    /**
+     * @return false for packed coordinates out of the lat / lon range, as written for undefined locations
+     */
+    public static boolean isValid(long packed) {
+        int lat = unpackLat(packed);
+        int lon = unpackLon(packed);
+        return lat >= -900000000 && lat <= 900000000 && lon >= -1800000000 && lon <= 1800000000;
+    }
+
+    public static long pack(int lat, int lon) {
+        return ((long) lat << 32) | (lon & 0xffffffffL);
+    }
+
+    public static int unpackLat(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    public static int unpackLon(long packed) {
+        return (int) packed;
+    }
+
+}
@@ -0,0 +1,240 @@
+package io.sharedstreets.tools.builder.osm.inputs;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import com.github.luben.zstd.Zstd;
+import io.sharedstreets.shadow.protobuf.CodedOutputStream;
+import io.sharedstreets.tools.builder.osm.parser.EntityParser;
+import io.sharedstreets.tools.builder.osm.parser.Parser;
+import io.sharedstreets.tools.builder.osm.parser.PrimitiveBlockReader;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import org.openstreetmap.osmosis.osmbinary.Fileformat;
+import org.openstreetmap.osmosis.osmbinary.Osmformat;
+
+/**
+ * Per-blob decode throughput of the blob codecs.
+ *
+ * The data blocks of the input file are re-encoded with each codec, then decompressed (inflate only)
+ * and decompressed + parsed to entities (decode) in a loop. The entity parsing is then timed against
+ * a plain protobuf parse of the blocks, which does not even build the entities.
+ *
+ * usage: BlobDecoderBenchmark input.pbf [iterations]
+ */
+public class BlobDecoderBenchmark {
+
+    private static final String OSM_DATA_HEADER = "OSMData";
+
+    private static final String[] CODECS = {"raw", "zlib", "lz4", "zstd"};
+
+    // Blob fields
+    private static final int RAW_FIELD = 1;
+    private static final int RAW_SIZE_FIELD = 2;
+    private static final int ZLIB_DATA_FIELD = 3;
+    private static final int LZ4_DATA_FIELD = 6;
+    private static final int ZSTD_DATA_FIELD = 7;
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 1) {
+            System.out.println("usage: BlobDecoderBenchmark input.pbf [iterations]");
+            return;
+        }
+
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        List<byte[]> blocks = readBlocks(args[0]);
+
+        long rawBytes = 0;
+        for (byte[] block : blocks)
+            rawBytes += block.length;
+
+        System.out.format("%d data blocks, %.1f MB uncompressed, %d iterations%n", blocks.size(), rawBytes / 1e6, iterations);
+        System.out.format("%-6s %10s %8s %14s %14s %14s%n", "codec", "size (MB)", "ratio", "inflate MB/s", "decode MB/s", "decode blob/s");
+
+        for (String codec : CODECS) {
+
+            List<byte[]> blobs = new ArrayList<>();
+            long compressedBytes = 0;
+            for (byte[] block : blocks) {
+                byte[] blob = encode(codec, block);
+                blobs.add(blob);
+                compressedBytes += blob.length;
+
+                if (!Arrays.equals(block, BlobDecoder.inflate(blob)))
+                    throw new Exception(codec + " round trip failed");
+            }
+
+            // warm up
+            run(blobs, iterations, false);
+            run(blobs, iterations, true);
+
+            double inflateSeconds = run(blobs, iterations, false);
+            double decodeSeconds = run(blobs, iterations, true);
+
+            System.out.format("%-6s %10.1f %8.2f %14.1f %14.1f %14.1f%n", codec,
+                    compressedBytes / 1e6,
+                    (double) rawBytes / compressedBytes,
+                    rawBytes * iterations / 1e6 / inflateSeconds,
+                    rawBytes * iterations / 1e6 / decodeSeconds,
+                    blobs.size() * iterations / decodeSeconds);
+        }
+
+        System.out.println();
+        compareParsers(blocks, rawBytes, iterations);
+    }
+
+    private static double run(List<byte[]> blobs, int iterations, boolean parse) throws Exception {
+
+        long start = System.nanoTime();
+        long check = 0;
+
+        for (int i = 0; i < iterations; i++) {
+            for (byte[] blob : blobs) {
+                if (parse)
+                    check += parseAll(BlobDecoder.decode(blob));
+                else
+                    check += BlobDecoder.inflate(blob).length;
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // keep the results alive
+        if (check < 0)
+            System.out.println(check);
+
+        return seconds;
+    }
+
+    private static long parseAll(PrimitiveBlockReader block) throws Exception {
+
+        long count = 0;
+        Parser<?> parser = new EntityParser(block, true, true, true);
+        while (parser.next() != null)
+            count++;
+        return count;
+    }
+
+    /**
+     * time the entity parsing of the inflated blocks, against a full protobuf parse of the same blocks
+     */
+    private static void compareParsers(List<byte[]> blocks, long rawBytes, int iterations) throws Exception {
+
+        for (int pass = 0; pass < 2; pass++) {
+
+            long check = 0;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                for (byte[] block : blocks)
+                    check += parseAll(new PrimitiveBlockReader(block));
+            }
+            double cursorSeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                for (byte[] block : blocks)
+                    check += Osmformat.PrimitiveBlock.parseFrom(block).getPrimitivegroupCount();
+            }
+            double protobufSeconds = (System.nanoTime() - start) / 1e9;
+
+            // keep the results alive
+            if (check < 0)
+                System.out.println(check);
+
+            // first pass warms up
+            if (pass == 1) {
+                System.out.format("%-16s %14s%n", "parser", "MB/s");
+                System.out.format("%-16s %14.1f%n", "entities", rawBytes * iterations / 1e6 / cursorSeconds);
+                System.out.format("%-16s %14.1f%n", "protobuf only", rawBytes * iterations / 1e6 / protobufSeconds);
+            }
+        }
+    }
+
+    private static List<byte[]> readBlocks(String path) throws Exception {
+
+        List<byte[]> blocks = new ArrayList<>();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+
+            while (true) {
+
+                int headerSize;
+                try {
+                    headerSize = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                byte[] headerBytes = new byte[headerSize];
+                in.readFully(headerBytes);
+                Fileformat.BlobHeader header = Fileformat.BlobHeader.parseFrom(headerBytes);
+
+                byte[] blob = new byte[header.getDatasize()];
+                in.readFully(blob);
+
+                if (OSM_DATA_HEADER.equals(header.getType()))
+                    blocks.add(BlobDecoder.inflate(blob));
+            }
+        }
+
+        return blocks;
+    }
+
+    private static byte[] encode(String codec, byte[] block) throws Exception {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+
+        switch (codec) {
+            case "raw":
+                out.writeByteArray(RAW_FIELD, block);
+                break;
+            case "zlib":
+                out.writeInt32(RAW_SIZE_FIELD, block.length);
+                out.writeByteArray(ZLIB_DATA_FIELD, deflate(block));
+                break;
+            case "lz4":
+                LZ4Compressor compressor = LZ4Factory.fastestInstance().highCompressor();
+                out.writeInt32(RAW_SIZE_FIELD, block.length);
+                out.writeByteArray(LZ4_DATA_FIELD, compressor.compress(block));
+                break;
+            case "zstd":
+                out.writeInt32(RAW_SIZE_FIELD, block.length);
+                out.writeByteArray(ZSTD_DATA_FIELD, Zstd.compress(block, 9));
+                break;
+            default:
+                throw new IllegalArgumentException(codec);
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] block) {
+
+        Deflater deflater = new Deflater();
+        deflater.setInput(block);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(block.length / 2);
+        byte[] buffer = new byte[1 << 16];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        deflater.end();
+
+        return out.toByteArray();
+    }
+
+}
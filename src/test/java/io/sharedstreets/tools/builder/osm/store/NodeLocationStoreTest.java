@@ -0,0 +1,59 @@
+package io.sharedstreets.tools.builder.osm.store;
+
+import io.sharedstreets.tools.builder.util.geo.FixedPoint;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+
+public class NodeLocationStoreTest {
+
+    @Test
+    public void sparse() throws Exception {
+
+        SparseNodeLocationStore store1 = new SparseNodeLocationStore();
+        SparseNodeLocationStore store2 = new SparseNodeLocationStore();
+
+        // unsorted, spread over both stores
+        for (long id = 5000; id > 0; id -= 2) {
+            store1.put(id, FixedPoint.pack((int) id, (int) -id));
+            store2.put(id - 1, FixedPoint.pack((int) id - 1, (int) (1 - id)));
+        }
+        store1.finish();
+        store2.finish();
+        store1.merge(store2);
+
+        assertEquals(5000, store1.size());
+        assertEquals(FixedPoint.pack(1234, -1234), store1.get(1234));
+        assertEquals(FixedPoint.pack(1, -1), store1.get(1));
+        assertEquals(FixedPoint.UNDEFINED, store1.get(0));
+        assertEquals(FixedPoint.UNDEFINED, store1.get(5001));
+    }
+
+    @Test
+    public void dense() throws Exception {
+
+        File file = File.createTempFile("nodes", ".locations");
+        file.deleteOnExit();
+
+        DenseNodeLocationStore writer = new DenseNodeLocationStore(file.getAbsolutePath());
+        writer.put(0, FixedPoint.pack(0, 0));
+        writer.put(42, FixedPoint.pack(407000000, -740000000));
+        writer.put(3L << 27, FixedPoint.pack(-1, -1));
+        writer.finish();
+
+        DenseNodeLocationStore reader = new DenseNodeLocationStore(file.getAbsolutePath());
+        assertEquals(FixedPoint.pack(0, 0), reader.get(0));
+        assertEquals(FixedPoint.pack(407000000, -740000000), reader.get(42));
+        assertEquals(FixedPoint.pack(-1, -1), reader.get(3L << 27));
+        assertEquals(FixedPoint.UNDEFINED, reader.get(43));
+        assertEquals(FixedPoint.UNDEFINED, reader.get(1L << 27));
+        assertEquals(FixedPoint.UNDEFINED, reader.get(1L << 40));
+        assertEquals(FixedPoint.UNDEFINED, reader.get(-1));
+
+        assertTrue(file.delete());
+    }
+
+}
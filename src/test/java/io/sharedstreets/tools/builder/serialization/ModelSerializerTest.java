@@ -0,0 +1,171 @@
+package io.sharedstreets.tools.builder.serialization;
+
+import com.esri.core.geometry.Polyline;
+import io.sharedstreets.data.SharedStreetsGeometry;
+import io.sharedstreets.tools.builder.model.BaseSegment;
+import io.sharedstreets.tools.builder.model.WaySection;
+import io.sharedstreets.tools.builder.osm.model.NodePosition;
+import io.sharedstreets.tools.builder.osm.model.RelatedObject;
+import io.sharedstreets.tools.builder.osm.model.Way;
+import io.sharedstreets.tools.builder.osm.model.WayClassification;
+import io.sharedstreets.tools.builder.osm.model.WayEntity;
+import io.sharedstreets.tools.builder.tiles.TilableData;
+import io.sharedstreets.tools.builder.util.UniqueId;
+import io.sharedstreets.tools.builder.util.geo.FixedPoint;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.core.memory.MemorySegment;
+import org.apache.flink.core.memory.MemorySegmentFactory;
+import org.apache.flink.runtime.util.DataInputDeserializer;
+import org.apache.flink.runtime.util.DataOutputSerializer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+
+public class ModelSerializerTest {
+
+    // record written, copied as serialized data and read back
+    private static <T> T serialized(ModelSerializer<T> serializer, T record) throws IOException {
+
+        DataOutputSerializer out = new DataOutputSerializer(64);
+        serializer.serialize(record, out);
+
+        DataOutputSerializer copy = new DataOutputSerializer(64);
+        serializer.copy(new DataInputDeserializer(out.getByteArray(), 0, out.length()), copy);
+        assertArrayEquals(out.getCopyOfBuffer(), copy.getCopyOfBuffer());
+
+        return serializer.deserialize(new DataInputDeserializer(copy.getByteArray(), 0, copy.length()));
+    }
+
+    @Test
+    public void typeInformation() throws Exception {
+
+        assertTrue(TypeInformation.of(WayEntity.class) instanceof ModelTypeInfo);
+        assertTrue(TypeInformation.of(BaseSegment.class) instanceof ModelTypeInfo);
+        assertTrue(TypeInformation.of(TilableData.class) instanceof ModelTypeInfo);
+        assertTrue(TypeInformation.of(UniqueId.class).isKeyType());
+    }
+
+    @Test
+    public void uniqueIdNormalizedKey() throws Exception {
+
+        // first bytes 0x71 and 0x8e, ordered as unsigned bytes
+        UniqueId low = UniqueId.fromString("71f34691f182a467137b3d37265cb3b6");
+        UniqueId high = UniqueId.fromString("8e0c08066370129f2f429f3c20f9e151");
+        assertTrue(low.compareTo(high) < 0);
+
+        UniqueIdComparator comparator = new UniqueIdComparator(true);
+        MemorySegment keys = MemorySegmentFactory.allocateUnpooledSegment(2 * comparator.getNormalizeKeyLen());
+        comparator.putNormalizedKey(low, keys, 0, comparator.getNormalizeKeyLen());
+        comparator.putNormalizedKey(high, keys, comparator.getNormalizeKeyLen(), comparator.getNormalizeKeyLen());
+
+        assertFalse(comparator.isNormalizedKeyPrefixOnly(comparator.getNormalizeKeyLen()));
+        assertTrue(keys.compare(keys, 0, comparator.getNormalizeKeyLen(), comparator.getNormalizeKeyLen()) < 0);
+    }
+
+    @Test
+    public void wayEntity() throws Exception {
+
+        WayEntity way = new WayEntity();
+        way.id = 42;
+        way.fields = new HashMap<>();
+        way.fields.put("highway", "primary");
+        way.fields.put("junction", "roundabout");
+        way.classification = WayClassification.classify(way.fields);
+        way.relatedObjects = new RelatedObject[3];
+        for (int i = 0; i < 3; i++) {
+            way.relatedObjects[i] = new RelatedObject();
+            way.relatedObjects[i].relatedId = 1000 - i * 7;
+        }
+        way.locations = new long[] {FixedPoint.pack(407000000, -740000000), FixedPoint.UNDEFINED, FixedPoint.pack(-1, 1)};
+
+        for (WayEntity copy : Arrays.asList(WayEntitySerializer.INSTANCE.copy(way), serialized(WayEntitySerializer.INSTANCE, way))) {
+
+            assertEquals(42, copy.id);
+            assertEquals(way.fields, copy.fields);
+            assertTrue(copy.isHighway());
+            assertEquals(Way.ROAD_CLASS.ClassPrimary, WayClassification.roadClass(copy.classification));
+            assertTrue(WayClassification.isOneWay(copy.classification));
+            assertNull(copy.name);
+            assertEquals(993, copy.relatedObjects[1].relatedId);
+            assertNull(copy.relatedObjects[1].role);
+            assertArrayEquals(way.locations, copy.locations);
+
+            assertNotSame(way.fields, copy.fields);
+            assertNotSame(way.relatedObjects[1], copy.relatedObjects[1]);
+            assertNotSame(way.locations, copy.locations);
+        }
+    }
+
+    @Test
+    public void way() throws Exception {
+
+        Way way = new Way();
+        way.id = 42;
+        way.name = "Broadway";
+        way.firstNodeIndex = 3;
+        way.nodes = new NodePosition[2];
+        for (int i = 0; i < 2; i++) {
+            way.nodes[i] = new NodePosition();
+            way.nodes[i].nodeId = 100 - i;
+            way.nodes[i].lat = -407000000 + i * 1234;
+            way.nodes[i].lon = 740000000 - i * 4321;
+        }
+
+        for (Way copy : Arrays.asList(WaySerializer.INSTANCE.copy(way), serialized(WaySerializer.INSTANCE, way))) {
+
+            assertEquals(42, copy.id);
+            assertNull(copy.fields);
+            assertEquals("Broadway", copy.name);
+            assertEquals(3, copy.firstNodeIndex);
+            assertEquals(99, copy.nodes[1].nodeId);
+            assertEquals(way.nodes[1].lat, copy.nodes[1].lat);
+            assertEquals(way.nodes[1].lon, copy.nodes[1].lon);
+            assertNotSame(way.nodes[1], copy.nodes[1]);
+        }
+    }
+
+    @Test
+    public void geometry() throws Exception {
+
+        WaySection section = new WaySection();
+        section.wayId = 7L;
+        section.name = "Broadway";
+        section.oneWay = true;
+        section.roadClass = Way.ROAD_CLASS.ClassPrimary;
+        section.nodes = new NodePosition[2];
+        for (int i = 0; i < 2; i++) {
+            section.nodes[i] = new NodePosition();
+            section.nodes[i].nodeId = 100 + i;
+            section.nodes[i].lat = 407000000 + i * 1234;
+            section.nodes[i].lon = -740000000 - i * 4321;
+        }
+
+        BaseSegment original = new BaseSegment(section);
+        for (BaseSegment segment : Arrays.asList(BaseSegmentSerializer.INSTANCE.copy(original), serialized(BaseSegmentSerializer.INSTANCE, original))) {
+            assertTrue(segment.oneWay);
+            assertEquals(Way.ROAD_CLASS.ClassPrimary, segment.waySections[0].roadClass);
+            assertEquals(Long.valueOf(101), segment.getLastNode());
+            assertNotSame(section, segment.waySections[0]);
+        }
+
+        SharedStreetsGeometry geometry = new SharedStreetsGeometry(original);
+        for (TilableData data : Arrays.asList(TilableDataSerializer.INSTANCE.copy(geometry), serialized(TilableDataSerializer.INSTANCE, geometry))) {
+
+            SharedStreetsGeometry copy = (SharedStreetsGeometry) data;
+            assertEquals(geometry.id, copy.id);
+            assertNotSame(geometry.id, copy.id);
+            assertEquals(geometry.length, copy.length, 0.0);
+            assertEquals(SharedStreetsGeometry.generateId(geometry), SharedStreetsGeometry.generateId(copy));
+            assertEquals(((Polyline) geometry.geometry).getXY(1), ((Polyline) copy.geometry).getXY(1));
+            assertNotSame(geometry.geometry, copy.geometry);
+            assertArrayEquals(geometry.metadata.waySections[0].nodeIds, copy.metadata.waySections[0].nodeIds);
+            assertEquals(geometry.metadata.name, copy.metadata.name);
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+package io.sharedstreets.tools.builder.transforms;
+
+import io.sharedstreets.tools.builder.model.BaseSegment;
+import io.sharedstreets.tools.builder.model.WaySection;
+import io.sharedstreets.tools.builder.osm.model.NodePosition;
+import org.apache.flink.api.common.functions.util.ListCollector;
+import org.apache.flink.api.java.ExecutionEnvironment;
+import org.apache.flink.api.java.tuple.Tuple4;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class BaseSegmentsTest {
+
+    private static BaseSegment section(long id, long wayId, long... nodeIds) {
+
+        WaySection section = new WaySection();
+        section.wayId = wayId;
+        section.nodes = new NodePosition[nodeIds.length];
+        for (int i = 0; i < nodeIds.length; i++) {
+            section.nodes[i] = new NodePosition();
+            section.nodes[i].nodeId = nodeIds[i];
+        }
+
+        BaseSegment segment = new BaseSegment(section);
+        segment.id = id;
+        return segment;
+    }
+
+    private static List<BaseSegment> chains(BaseSegment... sections) throws Exception {
+
+        // edges at the nodes shared by two sections
+        List<Tuple4<Integer, Long, Long, Long>> edges = new ArrayList<>();
+        for (int i = 0; i < sections.length; i++) {
+            for (int j = i + 1; j < sections.length; j++) {
+                for (Long node : Arrays.asList(sections[i].getFirstNode(), sections[i].getLastNode())) {
+                    if (node.equals(sections[j].getFirstNode()) || node.equals(sections[j].getLastNode()))
+                        edges.add(new Tuple4<>(0, node, sections[i].id, sections[j].id));
+                }
+            }
+        }
+
+        ExecutionEnvironment env = ExecutionEnvironment.createCollectionsEnvironment();
+        List<Tuple4<Integer, Long, Long, Long[]>> segmentChains = BaseSegments.segmentChains(env.fromCollection(edges)).collect();
+
+        List<Tuple4<Integer, Long, Long[], BaseSegment>> chained = new ArrayList<>();
+        for (Tuple4<Integer, Long, Long, Long[]> segmentChain : segmentChains) {
+            for (BaseSegment section : sections) {
+                if (section.id == segmentChain.f1)
+                    chained.add(new Tuple4<>(0, segmentChain.f2, segmentChain.f3, section));
+            }
+        }
+
+        List<BaseSegment> merged = new ArrayList<>();
+        new BaseSegments.ChainAssembler().reduce(chained, new ListCollector<>(merged));
+        return merged;
+    }
+
+    @Test
+    public void openChain() throws Exception {
+
+        // shuffled sections of 1 -> 2 -> 3 -> 4 -> 5
+        List<BaseSegment> merged = chains(section(13, 3, 3, 4), section(11, 1, 1, 2), section(14, 4, 4, 5), section(12, 2, 2, 3));
+
+        assertEquals(1, merged.size());
+        assertArrayEquals(new Long[]{1L, 2L, 3L, 4L}, merged.get(0).getWayIds());
+        assertEquals(1L, (long) merged.get(0).getFirstNode());
+        assertEquals(5L, (long) merged.get(0).getLastNode());
+        assertEquals(11L, (long) merged.get(0).id);
+    }
+
+    @Test
+    public void longChain() throws Exception {
+
+        // 1 -> 2 -> ... -> 201, the lowest segment id in the middle of the chain
+        BaseSegment[] sections = new BaseSegment[200];
+        for (int i = 0; i < sections.length; i++)
+            sections[i] = section(1000 + (i * 37 + 63) % sections.length, i + 1, i + 1, i + 2);
+
+        List<BaseSegment> merged = chains(sections);
+
+        assertEquals(1, merged.size());
+        assertEquals(200, merged.get(0).waySections.length);
+        assertEquals(1L, (long) merged.get(0).getFirstNode());
+        assertEquals(201L, (long) merged.get(0).getLastNode());
+        assertEquals(1000L, (long) merged.get(0).id);
+    }
+
+    @Test
+    public void closedChain() throws Exception {
+
+        // 1 -> 2 -> 3 -> 1
+        List<BaseSegment> merged = chains(section(22, 2, 2, 3), section(23, 3, 3, 1), section(21, 1, 1, 2));
+
+        assertEquals(1, merged.size());
+        assertArrayEquals(new Long[]{1L, 2L, 3L}, merged.get(0).getWayIds());
+        assertEquals(merged.get(0).getFirstNode(), merged.get(0).getLastNode());
+    }
+
+    @Test
+    public void mergeLastNodes() throws Exception {
+
+        // 1 -> 2 -> 3 <- 4 <- 5, two-way segments drawn towards each other
+        BaseSegment segment1 = section(41, 1, 1, 2);
+        segment1.append(section(42, 2, 2, 3));
+        BaseSegment segment2 = section(43, 3, 5, 4);
+        segment2.append(section(44, 4, 4, 3));
+
+        BaseSegment merged = BaseSegment.merge(segment1, segment2);
+
+        assertArrayEquals(new Long[]{1L, 2L, 4L, 3L}, merged.getWayIds());
+        assertEquals(1L, (long) merged.getFirstNode());
+        assertEquals(5L, (long) merged.getLastNode());
+        assertEquals(41L, (long) merged.id);
+
+        // the chain strategy merges the same sections
+        List<BaseSegment> chained = chains(section(41, 1, 1, 2), section(42, 2, 2, 3), section(44, 4, 4, 3), section(43, 3, 5, 4));
+        assertEquals(1, chained.size());
+        assertEquals(41L, (long) chained.get(0).id);
+        assertEquals(4, chained.get(0).waySections.length);
+    }
+
+    @Test
+    public void sectionId() throws Exception {
+
+        WaySection section = section(0, 123456789L, 1, 2, 3).waySections[0];
+        section.firstNodeIndex = 4;
+        section.lastNodeIndex = 6;
+
+        long id = section.getSectionId();
+        assertEquals(123456789L, id >> 21);
+        assertEquals(4, id & ((1 << 21) - 1));
+
+        // the id does not depend on the direction of the section
+        section.reverse();
+        assertEquals(id, section.getSectionId());
+
+        BaseSegment segment = new BaseSegment(section);
+        assertEquals(id, (long) segment.id);
+
+        section.wayId = 1L << 42;
+        try {
+            section.getSectionId();
+            fail();
+        } catch (IllegalStateException e) {
+            // way id out of range
+        }
+    }
+}